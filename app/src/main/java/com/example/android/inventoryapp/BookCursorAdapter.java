@@ -1,20 +1,23 @@
 package com.example.android.inventoryapp;
 
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.support.v4.os.TraceCompat;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookWriteExecutor;
 
 import java.text.DecimalFormat;
 
@@ -25,6 +28,19 @@ import java.text.DecimalFormat;
  */
 public class BookCursorAdapter extends CursorAdapter {
 
+    /** Location ID meaning that the cursor holds the total stock over all locations */
+    public static final long ALL_LOCATIONS = -1;
+
+    /** Location whose stock is shown, or {@link #ALL_LOCATIONS} for the totals of all locations */
+    private long mLocationId = ALL_LOCATIONS;
+
+    /** Loads the cover thumbnails */
+    private final CoverImageLoader mCoverImageLoader;
+
+    /** Size of the cover thumbnails in pixels */
+    private final int mCoverWidth;
+    private final int mCoverHeight;
+
     /**
      * Constructs a new {@link BookCursorAdapter}.
      *
@@ -33,6 +49,19 @@ public class BookCursorAdapter extends CursorAdapter {
      */
     public BookCursorAdapter(Context context, Cursor c) {
         super(context, c, 0 /* flags */);
+        mCoverImageLoader = CoverImageLoader.getInstance(context);
+        mCoverWidth = context.getResources().getDimensionPixelSize(R.dimen.cover_thumbnail_width);
+        mCoverHeight = context.getResources().getDimensionPixelSize(
+                R.dimen.cover_thumbnail_height);
+    }
+
+    /**
+     * Set the location whose stock the cursor holds, so sales are made at that location.
+     *
+     * @param locationId ID of the location, or {@link #ALL_LOCATIONS}
+     */
+    public void setLocationId(long locationId) {
+        mLocationId = locationId;
     }
 
     /**
@@ -46,8 +75,13 @@ public class BookCursorAdapter extends CursorAdapter {
      */
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        // Inflate a list item view using the layout specified in list_item.xml.
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        TraceCompat.beginSection("BookCursorAdapter.newView");
+        try {
+            // Inflate a list item view using the layout specified in list_item.xml.
+            return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 
     /**
@@ -62,64 +96,103 @@ public class BookCursorAdapter extends CursorAdapter {
      */
     @Override
     public void bindView(View view, final Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout.
-        TextView nameTextView = view.findViewById(R.id.name);
-        TextView priceTextView = view.findViewById(R.id.price);
-        TextView quantityTextView = view.findViewById(R.id.quantity);
-        Button saleButton = view.findViewById(R.id.sale_button);
-
-        // Find the columns of book attributes that we're interested in.
-        final int bookIdColumnIndex = cursor.getInt(cursor.getColumnIndex(BookEntry._ID));
-        int nameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME);
-        int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
-        int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
-
-        // Read the book attributes from the Cursor for the current book.
-        String bookName = cursor.getString(nameColumnIndex);
-        Double bookPrice = cursor.getDouble(priceColumnIndex);
-        final int bookQuantity = cursor.getInt(quantityColumnIndex);
-
-        // Update the TextViews with the attributes for the current book.
-        nameTextView.setText(bookName);
-        DecimalFormat df2 = new DecimalFormat("#.00");
-        priceTextView.setText("Price: $" + df2.format(bookPrice).toString());
-        quantityTextView.setText("Quantity: " + String.valueOf(bookQuantity));
-
-        saleButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                Uri currentBookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookIdColumnIndex);
-                reduceBookQuantity(context, currentBookUri, bookQuantity);
+        TraceCompat.beginSection("BookCursorAdapter.bindView");
+        try {
+            // Find individual views that we want to modify in the list item layout.
+            TextView nameTextView = view.findViewById(R.id.name);
+            TextView priceTextView = view.findViewById(R.id.price);
+            TextView quantityTextView = view.findViewById(R.id.quantity);
+            Button saleButton = view.findViewById(R.id.sale_button);
+            ImageView coverImageView = view.findViewById(R.id.cover);
+
+            // A row of the catalog that is still being read has no values yet. Its views are
+            // cleared until the row is bound again once it has been read.
+            int idColumnIndex = cursor.getColumnIndex(BookEntry._ID);
+            if (cursor.isNull(idColumnIndex)) {
+                nameTextView.setText(null);
+                priceTextView.setText(null);
+                quantityTextView.setText(null);
+                mCoverImageLoader.load(coverImageView, null, null, mCoverWidth, mCoverHeight);
+                saleButton.setOnClickListener(null);
+                saleButton.setEnabled(false);
+                return;
             }
-        });
+            saleButton.setEnabled(true);
+
+            // Find the columns of book attributes that we're interested in.
+            final int bookIdColumnIndex = cursor.getInt(idColumnIndex);
+            int nameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME);
+            int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
+            int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
+            int coverColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_COVER);
+
+            // Read the book attributes from the Cursor for the current book.
+            String bookName = cursor.getString(nameColumnIndex);
+            Double bookPrice = cursor.getDouble(priceColumnIndex);
+            final int bookQuantity = cursor.getInt(quantityColumnIndex);
+            String cover = coverColumnIndex == -1 ? null : cursor.getString(coverColumnIndex);
+
+            // Update the TextViews with the attributes for the current book.
+            nameTextView.setText(bookName);
+            DecimalFormat df2 = new DecimalFormat("#.00");
+            priceTextView.setText("Price: $" + df2.format(bookPrice).toString());
+            quantityTextView.setText("Quantity: " + String.valueOf(bookQuantity));
+
+            // Load the cover thumbnail in the background. The file name of the cover changes with
+            // the cover, so it's used as the cache key.
+            mCoverImageLoader.load(coverImageView,
+                    cover == null ? null : BookEntry.buildCoverUri(bookIdColumnIndex), cover,
+                    mCoverWidth, mCoverHeight);
+
+            saleButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    // Sell at the shown location, or at any location with stock when showing the
+                    // totals of all of them.
+                    Uri sellUri = mLocationId == ALL_LOCATIONS
+                            ? BookEntry.buildSellUri(bookIdColumnIndex)
+                            : LocationEntry.buildSellUri(mLocationId, bookIdColumnIndex);
+                    reduceBookQuantity(context, sellUri, bookQuantity);
+                }
+            });
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 
-
-    private void reduceBookQuantity(Context context, Uri mCurrentBookUri, int bookQuantity) {
+    /**
+     * Sell one copy of a book. The provider checks and decrements the stock in one conditional
+     * update, so the quantity shown is only used to fail fast when the book is sold out.
+     *
+     * @param sellUri      sell URI of the book
+     * @param bookQuantity quantity of the book as currently shown
+     */
+    private void reduceBookQuantity(Context context, Uri sellUri, int bookQuantity) {
         if (bookQuantity == 0) {
             Toast.makeText(context.getApplicationContext(), R.string.book_sale_failed,
                     Toast.LENGTH_SHORT).show();
         }
 
         if (bookQuantity > 0) {
-            int reducedQuantity = --bookQuantity;
-
-            // Update table by using new value of quantity
+            // Sell a single copy, which is the default of the sell URI.
             ContentValues values = new ContentValues();
-            values.put(BookEntry.COLUMN_BOOK_QUANTITY, reducedQuantity);
-            int rowsAffected = context.getContentResolver().update(mCurrentBookUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(context.getApplicationContext(), R.string.book_sale_failed,
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(context.getApplicationContext(), R.string.book_sale_successful,
-                        Toast.LENGTH_SHORT).show();
-            }
-
+            final Context appContext = context.getApplicationContext();
+            BookWriteExecutor.getInstance(context).update(sellUri, values, null, null,
+                    new BookWriteExecutor.Callback<Integer>() {
+                @Override
+                public void onWriteComplete(Integer rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    if (rowsAffected == null || rowsAffected == 0) {
+                        // If no rows were affected, then the book was sold out.
+                        Toast.makeText(appContext, R.string.book_sale_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the update was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.book_sale_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
     }
 }
@@ -1,43 +1,150 @@
 package com.example.android.inventoryapp;
 
-import android.app.LoaderManager;
+import android.app.AlertDialog;
+import android.arch.lifecycle.Observer;
+import android.arch.lifecycle.ViewModelProviders;
 import android.content.ContentUris;
-import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.text.InputType;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ExpandableListView;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.BookContract;
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.BulkEditCall;
+import com.example.android.inventoryapp.data.BookContract.CheckoutCall;
+import com.example.android.inventoryapp.data.BookContract.GenerateCall;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookWriteExecutor;
+
+import java.text.NumberFormat;
+import java.util.concurrent.Callable;
 
 /**
  * Displays a list of books that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity {
+
+    /** Preference key of the location whose catalog is shown */
+    private static final String PREF_SELECTED_LOCATION = "selected_location";
+
+    /** Preference key of whether the frame metrics of the catalog are recorded */
+    private static final String PREF_RECORD_FRAME_METRICS = "record_frame_metrics";
+
+    /** Preference key of whether the books are grouped by supplier */
+    private static final String PREF_GROUP_BY_SUPPLIER = "group_by_supplier";
 
-    /** Identifier for the book data loader */
-    private static final int BOOK_LOADER = 0;
+    /** Numbers of books that can be inserted as dummy data */
+    private static final int[] DUMMY_DATA_COUNTS = { 1, 100, 10000, 100000, 500000 };
+
+    /** Key of the search query in the saved instance state */
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    /** Time to wait after the last keystroke before searching */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 300;
 
     /** Adapter for the ListView */
     BookCursorAdapter mCursorAdapter;
 
+    /** Holds the catalog and the locations across configuration changes */
+    private CatalogViewModel mViewModel;
+
+    /** List of the books, in which books can be selected for bulk edits */
+    private ListView mBookListView;
+
+    /** Shown by the list that is shown when it's empty */
+    private View mEmptyView;
+
+    /** The books grouped by supplier, shown instead of the list when chosen */
+    private ExpandableListView mSupplierListView;
+
+    /** Adapter of the supplier groups */
+    private SupplierTreeAdapter mSupplierAdapter;
+
+    /** Header of the group whose books are at the top of the grouped list */
+    private View mStickyHeaderView;
+
+    /** Group shown in the sticky header, or -1 while it's hidden */
+    private int mStickyGroup = -1;
+
+    /** Boolean flag that keeps track of whether the books are grouped by supplier */
+    private boolean mGroupedBySupplier;
+
+    /** Shows the supplier groups, only observes them while the books are grouped */
+    private final Observer<Cursor> mSuppliersObserver = new Observer<Cursor>() {
+        @Override
+        public void onChanged(Cursor cursor) {
+            mSupplierAdapter.changeCursor(cursor);
+            mStickyGroup = -1;
+            updateStickyHeader();
+        }
+    };
+
+    /** Time at which the activity was created, used to measure time to the first catalog frame */
+    private long mCreatedAt;
+
+    /** Boolean flag that keeps track of whether the adapter holds live data (true) or the snapshot */
+    private boolean mHasLiveData = false;
+
+    /** Location whose catalog is shown, or {@link BookCursorAdapter#ALL_LOCATIONS} */
+    private long mLocationId;
+
+    /** Cursor of all locations, used to let the user choose one */
+    private Cursor mLocationsCursor;
+
+    /** Text the catalog is filtered by, empty to show every book */
+    private String mSearchQuery = "";
+
+    /** Search query typed but not searched for yet */
+    private String mPendingSearchQuery;
+
+    /** Books the customer is buying, held by the view model */
+    private CheckoutCart mCart;
+
+    /** Records the frame metrics of the catalog while it's shown, null unless opted in */
+    private FrameMetricsRecorder mFrameMetricsRecorder;
+
+    /** Handler used to debounce the search */
+    private final Handler mHandler = new Handler();
+
+    /** Runs the search for the pending query once the user stops typing */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            search(mPendingSearchQuery);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreatedAt = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
@@ -53,16 +160,51 @@ public class CatalogActivity extends AppCompatActivity implements
 
         // Find the ListView which will be populated with the book data.
         ListView bookListView = findViewById(R.id.list);
+        mBookListView = bookListView;
 
         // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        bookListView.setEmptyView(emptyView);
+        mEmptyView = findViewById(R.id.empty_view);
+        bookListView.setEmptyView(mEmptyView);
 
         // Setup an Adapter to create a list item for each row of book data in the Cursor.
         // There is no book data yet (until the loader finishes) so pass in null for the Cursor.
         mCursorAdapter = new BookCursorAdapter(this, null);
         bookListView.setAdapter(mCursorAdapter);
 
+        // A long press selects books, which can then be edited or deleted together.
+        bookListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        bookListView.setMultiChoiceModeListener(new SelectionModeListener());
+
+        // Restore the search of a recreated activity.
+        if (savedInstanceState != null) {
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY, "");
+        }
+
+        // Restore the location chosen in the last session.
+        mLocationId = PreferenceManager.getDefaultSharedPreferences(this)
+                .getLong(PREF_SELECTED_LOCATION, BookCursorAdapter.ALL_LOCATIONS);
+        mCursorAdapter.setLocationId(mLocationId);
+
+        // The view model keeps the catalog of a recreated activity, in which case setting the
+        // same query again doesn't query anything.
+        mViewModel = ViewModelProviders.of(this).get(CatalogViewModel.class);
+        mViewModel.setCatalogQuery(mLocationId, mSearchQuery);
+        // The view model also keeps the cart, which only needs restoring after a process restart.
+        mViewModel.restoreCart(savedInstanceState);
+        mCart = mViewModel.getCart();
+
+        // Show the snapshot of the first screen from the last session right away. It is replaced
+        // by the live data as soon as the query finishes. The snapshot only holds the catalog of
+        // all locations, and isn't needed when the view model already holds the catalog.
+        Cursor snapshot = mLocationId == BookCursorAdapter.ALL_LOCATIONS
+                && TextUtils.isEmpty(mSearchQuery) && mViewModel.getBooks().getValue() == null
+                ? CatalogSnapshot.load(this) : null;
+        if (snapshot != null) {
+            mCursorAdapter.swapCursor(snapshot);
+            Log.v("CatalogActivity", "Snapshot shown after "
+                    + (SystemClock.elapsedRealtime() - mCreatedAt) + " ms");
+        }
+
         // Setup the item click listener
         bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -83,36 +225,580 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Kick off the loader
-        getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        // Setup the grouped list, whose books also open in the editor.
+        mSupplierListView = findViewById(R.id.supplier_list);
+        mSupplierAdapter = new SupplierTreeAdapter(this);
+        mSupplierListView.setAdapter(mSupplierAdapter);
+        mSupplierListView.setOnChildClickListener(new ExpandableListView.OnChildClickListener() {
+            @Override
+            public boolean onChildClick(ExpandableListView parent, View view, int groupPosition,
+                                        int childPosition, long id) {
+                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                intent.setData(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id));
+                startActivity(intent);
+                return true;
+            }
+        });
+        mSupplierListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                updateStickyHeader();
+            }
+        });
+        mStickyHeaderView = findViewById(R.id.supplier_sticky_header);
+        mStickyHeaderView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                // Like tapping the group's own header: collapse it, and scroll back to it.
+                if (mStickyGroup >= 0) {
+                    int group = mStickyGroup;
+                    mSupplierListView.collapseGroup(group);
+                    mSupplierListView.setSelectedGroup(group);
+                }
+            }
+        });
+        setGroupedBySupplier(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(PREF_GROUP_BY_SUPPLIER, false));
+
+        // Observe the catalog and the locations while the activity is visible.
+        mViewModel.getBooks().observe(this, new Observer<Cursor>() {
+            @Override
+            public void onChanged(Cursor cursor) {
+                onCatalogLoaded(cursor);
+            }
+        });
+        mViewModel.getLocations().observe(this, new Observer<Cursor>() {
+            @Override
+            public void onChanged(Cursor cursor) {
+                mLocationsCursor = cursor;
+            }
+        });
+        // Checkouts complete on the view model, which may outlive the activity that queued them.
+        mViewModel.getShortCheckout().observe(this, new Observer<Bundle>() {
+            @Override
+            public void onChanged(Bundle result) {
+                invalidateOptionsMenu();
+                if (result != null) {
+                    mViewModel.onShortCheckoutShown();
+                    showShortStockDialog(result.getLongArray(CheckoutCall.KEY_SHORT_BOOK_IDS),
+                            result.getIntArray(CheckoutCall.KEY_SHORT_AVAILABLE));
+                }
+            }
+        });
     }
 
     /**
-     * Helper method to insert hardcoded book data into the database. For debugging purposes only.
+     * Show the books grouped by supplier, or the list of books. The supplier groups are only
+     * observed, and so only queried, while they are shown.
      */
-    private void insertBook() {
-        // Create a ContentValues object where column names are the keys,
-        // and Ready Player One's attributes are the values.
-        ContentValues values = new ContentValues();
-        values.put(BookEntry.COLUMN_BOOK_NAME, "Ready Player One");
-        values.put(BookEntry.COLUMN_BOOK_PRICE, 12.99);
-        values.put(BookEntry.COLUMN_BOOK_QUANTITY, 3);
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Sean Medlin");
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER, "5555555555");
+    private void setGroupedBySupplier(boolean grouped) {
+        mGroupedBySupplier = grouped;
 
-        // Insert a new row for Ready Player One into the provider using the ContentResolver.
-        // Use the {@link BookEntry#CONTENT_URI} to indicate that we want to insert
-        // into the books database table.
-        // Receive the new content URI that will allow us to access Ready Player One's data in the future.
-        Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
+        // Only the shown list has the empty view, since a list shows and hides itself with it.
+        mBookListView.setEmptyView(null);
+        mSupplierListView.setEmptyView(null);
+        mStickyHeaderView.setVisibility(View.GONE);
+        mStickyGroup = -1;
+        if (grouped) {
+            mBookListView.setVisibility(View.GONE);
+            mSupplierListView.setVisibility(View.VISIBLE);
+            mSupplierListView.setEmptyView(mEmptyView);
+            mViewModel.getSuppliers().observe(this, mSuppliersObserver);
+        } else {
+            mViewModel.getSuppliers().removeObserver(mSuppliersObserver);
+            mSupplierListView.setVisibility(View.GONE);
+            mBookListView.setVisibility(View.VISIBLE);
+            mBookListView.setEmptyView(mEmptyView);
+        }
+    }
+
+    /**
+     * Pin the header of the group whose books are at the top of the grouped list, so it stays
+     * visible while they are scrolled through.
+     */
+    private void updateStickyHeader() {
+        View firstView = mSupplierListView.getChildAt(0);
+        long position = mSupplierListView.getExpandableListPosition(
+                mSupplierListView.getFirstVisiblePosition());
+        int group = ExpandableListView.getPackedPositionGroup(position);
+        int type = ExpandableListView.getPackedPositionType(position);
+        boolean pinned = firstView != null
+                && (type == ExpandableListView.PACKED_POSITION_TYPE_CHILD
+                || (type == ExpandableListView.PACKED_POSITION_TYPE_GROUP
+                && mSupplierListView.isGroupExpanded(group) && firstView.getTop() < 0));
+        if (!pinned) {
+            mStickyGroup = -1;
+            mStickyHeaderView.setVisibility(View.GONE);
+            return;
+        }
+        if (group != mStickyGroup) {
+            // The sticky header has the layout of a group header, so the adapter can bind it.
+            mSupplierAdapter.getGroupView(group, true, mStickyHeaderView, mSupplierListView);
+            mStickyGroup = group;
+        }
+        mStickyHeaderView.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Show a dialog to choose how many synthetic books to insert. For debugging purposes only.
+     */
+    private void showInsertDummyDataDialog() {
+        String[] labels = new String[DUMMY_DATA_COUNTS.length];
+        NumberFormat format = NumberFormat.getIntegerInstance();
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = getResources().getQuantityString(R.plurals.dummy_data_count,
+                    DUMMY_DATA_COUNTS[i], format.format(DUMMY_DATA_COUNTS[i]));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_insert_dummy_data);
+        builder.setItems(labels, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                insertDummyData(DUMMY_DATA_COUNTS[which]);
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Helper method to insert synthetic books into the database, generated with the default seed
+     * so every run gives the same catalog. For debugging purposes only.
+     */
+    private void insertDummyData(final int count) {
+        // The books are generated inside the provider in a single transaction, queued on the
+        // background writer, so the UI doesn't wait on the database.
+        final Context appContext = getApplicationContext();
+        final long start = SystemClock.elapsedRealtime();
+        BookWriteExecutor.getInstance(this).submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Bundle extras = new Bundle();
+                extras.putInt(GenerateCall.KEY_COUNT, count);
+                Bundle result = appContext.getContentResolver().call(
+                        BookContract.BASE_CONTENT_URI, GenerateCall.METHOD_GENERATE, null, extras);
+                return result == null ? 0 : result.getInt(GenerateCall.KEY_COUNT);
+            }
+        }, new BookWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer inserted) {
+                Log.v("CatalogActivity", inserted + " dummy books inserted in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+        });
+    }
+
+    /**
+     * Ask for the value of a bulk edit of the selected books, then apply it. The selection ends
+     * once the edit has been queued.
+     *
+     * @param actionId menu item of the edit
+     * @param bookIds  IDs of the selected books
+     * @param mode     action mode of the selection
+     */
+    private void showBulkEditDialog(final int actionId, final long[] bookIds,
+                                    final ActionMode mode) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        if (actionId == R.id.action_delete_selected) {
+            builder.setMessage(getResources().getQuantityString(R.plurals.bulk_delete_dialog_msg,
+                    bookIds.length, bookIds.length));
+            builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    Bundle extras = new Bundle();
+                    extras.putLongArray(BulkEditCall.KEY_BOOK_IDS, bookIds);
+                    extras.putBoolean(BulkEditCall.KEY_DELETE, true);
+                    bulkEdit(extras);
+                    mode.finish();
+                }
+            });
+            builder.setNegativeButton(R.string.cancel, null);
+            builder.create().show();
+            return;
+        }
+
+        View view = getLayoutInflater().inflate(R.layout.dialog_bulk_edit, null);
+        final EditText valueEditText = view.findViewById(R.id.bulk_edit_value);
+        final EditText secondValueEditText = view.findViewById(R.id.bulk_edit_second_value);
+        switch (actionId) {
+            case R.id.action_set_price:
+                builder.setTitle(R.string.action_set_price);
+                valueEditText.setHint(R.string.hint_book_price);
+                valueEditText.setInputType(
+                        InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+                break;
+            case R.id.action_adjust_price:
+                builder.setTitle(R.string.action_adjust_price);
+                valueEditText.setHint(R.string.hint_price_percent);
+                valueEditText.setInputType(InputType.TYPE_CLASS_NUMBER
+                        | InputType.TYPE_NUMBER_FLAG_DECIMAL | InputType.TYPE_NUMBER_FLAG_SIGNED);
+                break;
+            case R.id.action_change_supplier:
+                builder.setTitle(R.string.action_change_supplier);
+                valueEditText.setHint(R.string.hint_supplier_name);
+                valueEditText.setInputType(
+                        InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_CAP_WORDS);
+                secondValueEditText.setVisibility(View.VISIBLE);
+                secondValueEditText.setHint(R.string.hint_supplier_number);
+                secondValueEditText.setInputType(InputType.TYPE_CLASS_PHONE);
+                break;
+            case R.id.action_restock:
+                builder.setTitle(R.string.action_restock);
+                valueEditText.setHint(R.string.hint_restock_units);
+                valueEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+                break;
+        }
+        builder.setView(view);
+        builder.setPositiveButton(R.string.action_save, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String value = valueEditText.getText().toString().trim();
+                String secondValue = secondValueEditText.getText().toString().trim();
+                Bundle extras = new Bundle();
+                extras.putLongArray(BulkEditCall.KEY_BOOK_IDS, bookIds);
+                try {
+                    switch (actionId) {
+                        case R.id.action_set_price:
+                            extras.putDouble(BulkEditCall.KEY_PRICE, Double.parseDouble(value));
+                            break;
+                        case R.id.action_adjust_price:
+                            extras.putDouble(BulkEditCall.KEY_PRICE_PERCENT,
+                                    Double.parseDouble(value));
+                            break;
+                        case R.id.action_change_supplier:
+                            // Same rule as in the editor.
+                            if (secondValue.length() < 10) {
+                                Toast.makeText(CatalogActivity.this,
+                                        R.string.book_supplier_number_validation,
+                                        Toast.LENGTH_SHORT).show();
+                                return;
+                            }
+                            extras.putString(BulkEditCall.KEY_SUPPLIER_NAME, value);
+                            extras.putString(BulkEditCall.KEY_SUPPLIER_NUMBER, secondValue);
+                            break;
+                        case R.id.action_restock:
+                            extras.putInt(BulkEditCall.KEY_RESTOCK_UNITS, Integer.parseInt(value));
+                            break;
+                    }
+                } catch (NumberFormatException e) {
+                    // Nothing, or not a number, was typed.
+                    return;
+                }
+                bulkEdit(extras);
+                mode.finish();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Queue a bulk edit of books, see {@link BulkEditCall}. The provider applies it with a single
+     * statement, so editing hundreds of books takes about as long as editing one.
+     */
+    private void bulkEdit(final Bundle extras) {
+        final Context appContext = getApplicationContext();
+        BookWriteExecutor.getInstance(this).submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Bundle result = appContext.getContentResolver().call(
+                        BookContract.BASE_CONTENT_URI, BulkEditCall.METHOD_BULK_EDIT, null,
+                        extras);
+                return result == null ? null : result.getInt(BulkEditCall.KEY_COUNT);
+            }
+        }, new BookWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer count) {
+                // A rejected edit, e.g. a negative price, fails and returns no count.
+                if (count == null) {
+                    Toast.makeText(appContext, R.string.bulk_edit_failed, Toast.LENGTH_SHORT)
+                            .show();
+                } else {
+                    Toast.makeText(appContext, appContext.getResources().getQuantityString(
+                            R.plurals.bulk_edit_successful, count, count), Toast.LENGTH_SHORT)
+                            .show();
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the number of selected books in the contextual action bar and runs its bulk edits.
+     */
+    private class SelectionModeListener implements AbsListView.MultiChoiceModeListener {
+
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
+                                              boolean checked) {
+            int count = mBookListView.getCheckedItemCount();
+            mode.setTitle(getResources().getQuantityString(R.plurals.selected_count, count,
+                    count));
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() == R.id.action_add_to_cart) {
+                addSelectionToCart();
+                mode.finish();
+                return true;
+            }
+            long[] bookIds = mBookListView.getCheckedItemIds();
+            if (bookIds.length > 0) {
+                showBulkEditDialog(item.getItemId(), bookIds, mode);
+            }
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+        }
+    }
+
+    /**
+     * Add a copy of each selected book to the cart.
+     */
+    private void addSelectionToCart() {
+        SparseBooleanArray checked = mBookListView.getCheckedItemPositions();
+        int added = 0;
+        for (int i = 0; i < checked.size(); i++) {
+            if (!checked.valueAt(i)) {
+                continue;
+            }
+            Cursor cursor = (Cursor) mCursorAdapter.getItem(checked.keyAt(i));
+            if (cursor != null) {
+                mCart.add(cursor.getLong(cursor.getColumnIndex(BookEntry._ID)),
+                        cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME)));
+                added++;
+            }
+        }
+        Toast.makeText(this, getResources().getQuantityString(R.plurals.cart_added, added, added),
+                Toast.LENGTH_SHORT).show();
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Show the cart, from which it can be checked out or emptied.
+     */
+    private void showCartDialog() {
+        long[] bookIds = mCart.getBookIds();
+        String[] lines = new String[bookIds.length];
+        for (int i = 0; i < bookIds.length; i++) {
+            lines[i] = getString(R.string.cart_line, mCart.getUnits(bookIds[i]),
+                    mCart.getName(bookIds[i]));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.cart_title);
+        builder.setItems(lines, null);
+        builder.setPositiveButton(R.string.checkout, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                checkout();
+            }
+        });
+        builder.setNeutralButton(R.string.empty_cart, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                mCart.clear();
+                invalidateOptionsMenu();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        AlertDialog dialog = builder.create();
+        dialog.show();
+        // The cart can't be checked out again until the queued checkout completes.
+        dialog.getButton(DialogInterface.BUTTON_POSITIVE)
+                .setEnabled(!mViewModel.isCheckoutPending());
+    }
+
+    /**
+     * Sell the whole cart with a single checkout call, see {@link CheckoutCall}. It is sold at
+     * the shown location, or at the default location when showing all of them.
+     */
+    private void checkout() {
+        mViewModel.checkout(mLocationId == BookCursorAdapter.ALL_LOCATIONS
+                ? LocationEntry.DEFAULT_LOCATION_ID : mLocationId);
+    }
+
+    /**
+     * Show the books of the cart the store doesn't have enough copies of. The cart is kept, and
+     * can be lowered to what is in stock.
+     *
+     * @param bookIds   IDs of the short books
+     * @param available copies of each short book in stock
+     */
+    private void showShortStockDialog(final long[] bookIds, final int[] available) {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < bookIds.length; i++) {
+            if (i > 0) {
+                message.append('\n');
+            }
+            message.append(getString(R.string.checkout_short_line, mCart.getName(bookIds[i]),
+                    mCart.getUnits(bookIds[i]), available[i]));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.checkout_short_title);
+        builder.setMessage(message);
+        builder.setPositiveButton(R.string.checkout_fit_to_stock,
+                new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                for (int i = 0; i < bookIds.length; i++) {
+                    mCart.setUnits(bookIds[i], available[i]);
+                }
+                invalidateOptionsMenu();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
     }
 
     /**
      * Helper method to delete all books in the database.
      */
     private void deleteAllBooks() {
-        int rowsDeleted = getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from book database");
+        BookWriteExecutor.getInstance(this).delete(BookEntry.CONTENT_URI, null, null,
+                new BookWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer rowsDeleted) {
+                Log.v("CatalogActivity", rowsDeleted + " rows deleted from book database");
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(PREF_RECORD_FRAME_METRICS, false)) {
+            startFrameMetrics();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        stopFrameMetrics();
+    }
+
+    /**
+     * Start recording the frame metrics of this session, if the device supports it. Sessions are
+     * appended to {@link FrameMetricsRecorder#FILE_NAME} when the catalog is left.
+     */
+    private void startFrameMetrics() {
+        if (mFrameMetricsRecorder == null && FrameMetricsRecorder.isSupported()) {
+            mFrameMetricsRecorder = new FrameMetricsRecorder(this, "catalog", getWindow());
+            mFrameMetricsRecorder.start();
+        }
+    }
+
+    private void stopFrameMetrics() {
+        if (mFrameMetricsRecorder != null) {
+            mFrameMetricsRecorder.stop();
+            mFrameMetricsRecorder = null;
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Persist the first screen of the catalog for the next cold start.
+        if (mHasLiveData && mLocationId == BookCursorAdapter.ALL_LOCATIONS
+                && TextUtils.isEmpty(mSearchQuery)) {
+            CatalogSnapshot.save(this, mCursorAdapter.getCursor());
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+        mCart.save(outState);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSearchRunnable);
+    }
+
+    /**
+     * Filter the catalog by the given text. The new query cancels the one that is still running
+     * for the previous text, so only the results of the latest text are shown.
+     */
+    private void search(String query) {
+        query = query == null ? "" : query.trim();
+        if (query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        mViewModel.setCatalogQuery(mLocationId, mSearchQuery);
+    }
+
+    /**
+     * Show a dialog to choose the location whose catalog is shown.
+     */
+    private void showChooseLocationDialog() {
+        if (mLocationsCursor == null) {
+            return;
+        }
+
+        // The first choice shows the totals of all locations, followed by every location.
+        final int count = mLocationsCursor.getCount();
+        final long[] locationIds = new long[count + 1];
+        final String[] names = new String[count + 1];
+        locationIds[0] = BookCursorAdapter.ALL_LOCATIONS;
+        names[0] = getString(R.string.all_locations);
+        int idColumnIndex = mLocationsCursor.getColumnIndex(LocationEntry._ID);
+        int nameColumnIndex = mLocationsCursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_NAME);
+        for (int i = 0; i < count && mLocationsCursor.moveToPosition(i); i++) {
+            locationIds[i + 1] = mLocationsCursor.getLong(idColumnIndex);
+            names[i + 1] = mLocationsCursor.getString(nameColumnIndex);
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_choose_location);
+        builder.setItems(names, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                selectLocation(locationIds[which]);
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Show the catalog of the given location, and remember the choice for the next session.
+     */
+    private void selectLocation(long locationId) {
+        if (locationId == mLocationId) {
+            return;
+        }
+        mLocationId = locationId;
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putLong(PREF_SELECTED_LOCATION, locationId)
+                .apply();
+
+        // Reload the catalog, which now only reads the stock rows of the chosen location.
+        mCursorAdapter.setLocationId(locationId);
+        mViewModel.setCatalogQuery(mLocationId, mSearchQuery);
     }
 
     @Override
@@ -120,6 +806,47 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search while the user types, once they pause.
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        // The supplier groups are of the whole catalog, so they can't be searched or chosen by
+        // store.
+        searchItem.setVisible(!mGroupedBySupplier);
+        menu.findItem(R.id.action_choose_location).setVisible(!mGroupedBySupplier);
+        menu.findItem(R.id.action_group_by_supplier).setChecked(mGroupedBySupplier);
+        if (!mGroupedBySupplier && !TextUtils.isEmpty(mSearchQuery)) {
+            searchItem.expandActionView();
+            searchView.setQuery(mSearchQuery, false);
+        }
+        // The cart is only shown while it holds books.
+        MenuItem cartItem = menu.findItem(R.id.action_cart);
+        cartItem.setVisible(!mCart.isEmpty());
+        cartItem.setTitle(getString(R.string.action_cart, mCart.getUnitCount()));
+        // Recording frame metrics is opt-in, and only possible since Nougat.
+        MenuItem frameMetricsItem = menu.findItem(R.id.action_record_frame_metrics);
+        frameMetricsItem.setVisible(FrameMetricsRecorder.isSupported());
+        frameMetricsItem.setChecked(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(PREF_RECORD_FRAME_METRICS, false));
+        // Generating books is only meant for testing, and only debug builds support it.
+        menu.findItem(R.id.action_insert_dummy_data).setVisible(BuildConfig.DEBUG);
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mHandler.removeCallbacks(mSearchRunnable);
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPendingSearchQuery = newText;
+                mHandler.removeCallbacks(mSearchRunnable);
+                mHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -127,9 +854,39 @@ public class CatalogActivity extends AppCompatActivity implements
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on the "Cart" menu option
+            case R.id.action_cart:
+                showCartDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
-                insertBook();
+                showInsertDummyDataDialog();
+                return true;
+            // Respond to a click on the "Choose store" menu option
+            case R.id.action_choose_location:
+                showChooseLocationDialog();
+                return true;
+            // Respond to a click on the "Group by supplier" menu option
+            case R.id.action_group_by_supplier:
+                boolean grouped = !item.isChecked();
+                PreferenceManager.getDefaultSharedPreferences(this).edit()
+                        .putBoolean(PREF_GROUP_BY_SUPPLIER, grouped)
+                        .apply();
+                setGroupedBySupplier(grouped);
+                invalidateOptionsMenu();
+                return true;
+            // Respond to a click on the "Record frame metrics" menu option
+            case R.id.action_record_frame_metrics:
+                boolean record = !item.isChecked();
+                item.setChecked(record);
+                PreferenceManager.getDefaultSharedPreferences(this).edit()
+                        .putBoolean(PREF_RECORD_FRAME_METRICS, record)
+                        .apply();
+                if (record) {
+                    startFrameMetrics();
+                } else {
+                    stopFrameMetrics();
+                }
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
@@ -139,33 +896,27 @@ public class CatalogActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_BOOK_NAME,
-                BookEntry.COLUMN_BOOK_PRICE,
-                BookEntry.COLUMN_BOOK_QUANTITY};
-
-        // This loader will execute the ContentProvider's query method on a background thread.
-        return new CursorLoader(this,   // Parent activity context
-                BookEntry.CONTENT_URI,          // Provider content URI to query
-                projection,                     // Columns to include in the resulting Cursor
-                null,                  // No selection clause
-                null,               // No selection arguments
-                null);                 // Default sort order
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link BookCursorAdapter} with this new cursor containing updated book data.
-        mCursorAdapter.swapCursor(data);
-    }
+    /**
+     * Show the catalog queried by the view model.
+     */
+    private void onCatalogLoaded(Cursor data) {
+        TraceCompat.beginSection("CatalogActivity.onCatalogLoaded");
+        try {
+            // Update {@link BookCursorAdapter} with this new cursor containing updated book data.
+            mCursorAdapter.swapCursor(data);
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+            if (data == null) {
+                mHasLiveData = false;
+            } else if (!mHasLiveData) {
+                mHasLiveData = true;
+                Log.v("CatalogActivity", "Live catalog shown after "
+                        + (SystemClock.elapsedRealtime() - mCreatedAt) + " ms");
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 }
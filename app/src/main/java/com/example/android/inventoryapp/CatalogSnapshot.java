@@ -0,0 +1,160 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Persists a compact copy of the first screen of the catalog, so {@link CatalogActivity} can
+ * show it immediately on the next launch while the live query is still running.
+ */
+public final class CatalogSnapshot {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    /** Name of the snapshot file in the app's files directory. */
+    private static final String FILE_NAME = "catalog_snapshot.bin";
+
+    /** Format version of the snapshot file. Bump it whenever the format changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Number of rows kept in the snapshot, enough to fill the first screen. */
+    public static final int MAX_ROWS = 20;
+
+    /** Columns of the snapshot, matching the catalog projection. */
+    public static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY };
+
+    private CatalogSnapshot() {}
+
+    /**
+     * Copy the first rows of the given catalog cursor and write them to disk on a background
+     * thread. The cursor is only read on the calling thread, and its position is left unchanged.
+     */
+    public static void save(Context context, Cursor cursor) {
+        if (cursor == null || cursor.isClosed()) {
+            return;
+        }
+
+        int idColumnIndex = cursor.getColumnIndex(BookEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME);
+        int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
+        int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
+        if (idColumnIndex < 0 || nameColumnIndex < 0 || priceColumnIndex < 0
+                || quantityColumnIndex < 0) {
+            return;
+        }
+
+        int count = Math.min(cursor.getCount(), MAX_ROWS);
+        final long[] ids = new long[count];
+        final String[] names = new String[count];
+        final double[] prices = new double[count];
+        final int[] quantities = new int[count];
+
+        int position = cursor.getPosition();
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(idColumnIndex);
+            names[i] = cursor.getString(nameColumnIndex);
+            prices[i] = cursor.getDouble(priceColumnIndex);
+            quantities[i] = cursor.getInt(quantityColumnIndex);
+        }
+        cursor.moveToPosition(position);
+
+        final AtomicFile file = getFile(context);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, ids, names, prices, quantities);
+            }
+        });
+    }
+
+    /**
+     * Read the snapshot written by {@link #save(Context, Cursor)}.
+     *
+     * @return a cursor with the {@link #COLUMNS} of the snapshot rows, or null if there is no
+     *         usable snapshot.
+     */
+    public static Cursor load(Context context) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(getFile(context).openRead()));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            MatrixCursor cursor = new MatrixCursor(COLUMNS, count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                String name = in.readUTF();
+                double price = in.readDouble();
+                int quantity = in.readInt();
+                cursor.addRow(new Object[] { id, name, price, quantity });
+            }
+            return cursor;
+        } catch (FileNotFoundException e) {
+            // No snapshot has been written yet.
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read catalog snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void write(AtomicFile file, long[] ids, String[] names, double[] prices,
+                              int[] quantities) {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeLong(ids[i]);
+                out.writeUTF(names[i] == null ? "" : names[i]);
+                out.writeDouble(prices[i]);
+                out.writeInt(quantities[i]);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write catalog snapshot", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
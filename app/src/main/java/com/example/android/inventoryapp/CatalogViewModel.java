@@ -0,0 +1,226 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.arch.lifecycle.AndroidViewModel;
+import android.arch.lifecycle.LiveData;
+import android.arch.lifecycle.MutableLiveData;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.widget.Toast;
+
+import com.example.android.inventoryapp.data.BookContract;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.CheckoutCall;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
+import com.example.android.inventoryapp.data.BookWriteExecutor;
+import com.example.android.inventoryapp.data.CursorLiveData;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Holds the catalog, its supplier groups and the locations shown by {@link CatalogActivity}. It
+ * outlives configuration changes, so a rotated or resized catalog is shown again without any
+ * query. It also holds the cart and its checkout, so a checkout that completes after a rotation
+ * updates the cart of the catalog that is shown.
+ */
+public class CatalogViewModel extends AndroidViewModel {
+
+    /** Columns of the catalog */
+    private static final String[] BOOK_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_COVER };
+
+    /** Columns of the locations, so the user can choose one */
+    private static final String[] LOCATION_PROJECTION = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_NAME };
+
+    private final CursorLiveData mBooks;
+    private final CursorLiveData mLocations;
+    private final CursorLiveData mSuppliers;
+
+    /** Books the customer is buying, sold together at the checkout */
+    private final CheckoutCart mCart = new CheckoutCart();
+
+    /**
+     * Result of a checkout the store was short for, until the activity has shown it. Set to null
+     * after any other checkout, so the activity updates the cart either way.
+     */
+    private final MutableLiveData<Bundle> mShortCheckout = new MutableLiveData<>();
+
+    /** Whether the cart was restored, or is new and needn't be */
+    private boolean mCartRestored;
+
+    /** Whether a checkout is queued, so the cart can't be sold twice */
+    private boolean mCheckoutPending;
+
+    public CatalogViewModel(Application application) {
+        super(application);
+        ContentResolver resolver = application.getContentResolver();
+        mBooks = new CursorLiveData(resolver);
+        mLocations = new CursorLiveData(resolver);
+        mSuppliers = new CursorLiveData(resolver);
+        mLocations.setQuery(LocationEntry.CONTENT_URI, LOCATION_PROJECTION, null, null,
+                LocationEntry.COLUMN_LOCATION_NAME);
+    }
+
+    /**
+     * Returns the catalog set by {@link #setCatalogQuery(long, String)}.
+     */
+    public LiveData<Cursor> getBooks() {
+        return mBooks;
+    }
+
+    /**
+     * Returns all locations, sorted by name.
+     */
+    public LiveData<Cursor> getLocations() {
+        return mLocations;
+    }
+
+    /**
+     * Returns the supplier groups of the whole catalog. They are only queried once they are
+     * first observed, i.e. when the catalog is first grouped by supplier.
+     */
+    public LiveData<Cursor> getSuppliers() {
+        // The groups have fixed columns. Setting the same query again does nothing.
+        mSuppliers.setQuery(SupplierEntry.CONTENT_URI, null, null, null, null);
+        return mSuppliers;
+    }
+
+    /**
+     * Show the catalog of a location, filtered by a search. A newer query cancels the one that
+     * is still running, so only the results of the latest search are shown. Setting the query
+     * that is already shown does nothing.
+     *
+     * @param locationId  ID of the location, or {@link BookCursorAdapter#ALL_LOCATIONS} for the
+     *                    totals of all locations
+     * @param searchQuery text the books are filtered by, empty to show every book
+     */
+    public void setCatalogQuery(long locationId, String searchQuery) {
+        // Query the catalog of the chosen location, or the totals of all locations.
+        Uri catalogUri = locationId == BookCursorAdapter.ALL_LOCATIONS
+                ? BookEntry.CONTENT_URI
+                : LocationEntry.buildBooksUri(locationId);
+
+        // Filter by name or ISBN when searching. The search text is matched literally.
+        String selection = null;
+        String[] selectionArgs = null;
+        if (!TextUtils.isEmpty(searchQuery)) {
+            String pattern = "%" + searchQuery.replace("\\", "\\\\").replace("%", "\\%")
+                    .replace("_", "\\_") + "%";
+            selection = BookEntry.COLUMN_BOOK_NAME + " LIKE ? ESCAPE '\\' OR "
+                    + BookEntry.COLUMN_BOOK_ISBN + " LIKE ? ESCAPE '\\'";
+            selectionArgs = new String[] { pattern, pattern };
+        }
+        mBooks.setQuery(catalogUri, BOOK_PROJECTION, selection, selectionArgs, null);
+    }
+
+    /**
+     * Returns the cart, which outlives configuration changes like the catalog.
+     */
+    CheckoutCart getCart() {
+        return mCart;
+    }
+
+    /**
+     * Restore the cart from the saved state of a recreated activity. Does nothing if this view
+     * model already holds the cart, i.e. unless the process was restarted since it was saved.
+     */
+    void restoreCart(Bundle savedInstanceState) {
+        if (mCartRestored) {
+            return;
+        }
+        mCartRestored = true;
+        if (savedInstanceState != null) {
+            mCart.restore(savedInstanceState);
+        }
+    }
+
+    /**
+     * Returns whether a checkout is queued and hasn't completed yet.
+     */
+    boolean isCheckoutPending() {
+        return mCheckoutPending;
+    }
+
+    /**
+     * Returns the result of the last checkout the store didn't have enough copies for, see
+     * {@link CheckoutCall#KEY_SHORT_BOOK_IDS}. It is kept until {@link #onShortCheckoutShown()},
+     * so an activity recreated meanwhile still shows it.
+     */
+    LiveData<Bundle> getShortCheckout() {
+        return mShortCheckout;
+    }
+
+    /**
+     * Forget the short checkout once it has been shown.
+     */
+    void onShortCheckoutShown() {
+        mShortCheckout.setValue(null);
+    }
+
+    /**
+     * Sell the whole cart with a single checkout call, see {@link CheckoutCall}. Does nothing
+     * while a checkout is queued. Once it completes, the sold copies are removed from the cart;
+     * books added meanwhile stay in it.
+     *
+     * @param locationId ID of the location the books are sold at
+     */
+    void checkout(long locationId) {
+        if (mCheckoutPending || mCart.isEmpty()) {
+            return;
+        }
+        mCheckoutPending = true;
+        final long[] bookIds = mCart.getBookIds();
+        final int[] units = mCart.getUnits();
+        final int unitCount = mCart.getUnitCount();
+        final Bundle extras = new Bundle();
+        extras.putLong(CheckoutCall.KEY_LOCATION_ID, locationId);
+        extras.putLongArray(CheckoutCall.KEY_BOOK_IDS, bookIds);
+        extras.putIntArray(CheckoutCall.KEY_UNITS, units);
+
+        final Context appContext = getApplication();
+        BookWriteExecutor.getInstance(appContext).submit(new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                return appContext.getContentResolver().call(BookContract.BASE_CONTENT_URI,
+                        CheckoutCall.METHOD_CHECKOUT, null, extras);
+            }
+        }, new BookWriteExecutor.Callback<Bundle>() {
+            @Override
+            public void onWriteComplete(Bundle result) {
+                mCheckoutPending = false;
+                if (result == null) {
+                    Toast.makeText(appContext, R.string.checkout_failed, Toast.LENGTH_SHORT)
+                            .show();
+                } else if (result.getBoolean(CheckoutCall.KEY_COMPLETED)) {
+                    Toast.makeText(appContext, appContext.getResources().getQuantityString(
+                            R.plurals.checkout_successful, unitCount, unitCount),
+                            Toast.LENGTH_SHORT).show();
+                    for (int i = 0; i < bookIds.length; i++) {
+                        mCart.setUnits(bookIds[i], mCart.getUnits(bookIds[i]) - units[i]);
+                    }
+                }
+                // The activity updates the cart menu item, and shows the short books if any.
+                mShortCheckout.setValue(result != null
+                        && !result.getBoolean(CheckoutCall.KEY_COMPLETED) ? result : null);
+            }
+        });
+    }
+
+    @Override
+    protected void onCleared() {
+        mBooks.close();
+        mLocations.close();
+        mSuppliers.close();
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.inventoryapp;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Books a customer is buying, with the number of copies of each, in the order they were added.
+ * The cart is only kept in memory by {@link CatalogViewModel} and in the instance state of
+ * {@link CatalogActivity}; it is sold as a whole with a single checkout call.
+ */
+final class CheckoutCart {
+
+    /** Keys of the cart in the saved instance state */
+    private static final String STATE_BOOK_IDS = "cart_book_ids";
+    private static final String STATE_UNITS = "cart_units";
+    private static final String STATE_NAMES = "cart_names";
+
+    /** Copies of each book in the cart */
+    private final Map<Long, Integer> mUnits = new LinkedHashMap<>();
+
+    /** Names of the books in the cart, for display */
+    private final Map<Long, String> mNames = new HashMap<>();
+
+    /**
+     * Add a copy of a book to the cart.
+     */
+    void add(long bookId, String name) {
+        Integer units = mUnits.get(bookId);
+        mUnits.put(bookId, units == null ? 1 : units + 1);
+        mNames.put(bookId, name);
+    }
+
+    /**
+     * Set the copies of a book in the cart, removing the book if there are none.
+     */
+    void setUnits(long bookId, int units) {
+        if (units < 1) {
+            mUnits.remove(bookId);
+            mNames.remove(bookId);
+        } else if (mUnits.containsKey(bookId)) {
+            mUnits.put(bookId, units);
+        }
+    }
+
+    /**
+     * Returns the copies of a book in the cart, 0 if it isn't in the cart.
+     */
+    int getUnits(long bookId) {
+        Integer units = mUnits.get(bookId);
+        return units == null ? 0 : units;
+    }
+
+    String getName(long bookId) {
+        return mNames.get(bookId);
+    }
+
+    boolean isEmpty() {
+        return mUnits.isEmpty();
+    }
+
+    /**
+     * Returns the total number of copies in the cart.
+     */
+    int getUnitCount() {
+        int count = 0;
+        for (int units : mUnits.values()) {
+            count += units;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the IDs of the books in the cart, in the order they were added.
+     */
+    long[] getBookIds() {
+        long[] bookIds = new long[mUnits.size()];
+        int i = 0;
+        for (long bookId : mUnits.keySet()) {
+            bookIds[i++] = bookId;
+        }
+        return bookIds;
+    }
+
+    /**
+     * Returns the copies of each book, in the order of {@link #getBookIds()}.
+     */
+    int[] getUnits() {
+        int[] units = new int[mUnits.size()];
+        int i = 0;
+        for (int bookUnits : mUnits.values()) {
+            units[i++] = bookUnits;
+        }
+        return units;
+    }
+
+    void clear() {
+        mUnits.clear();
+        mNames.clear();
+    }
+
+    void save(Bundle outState) {
+        long[] bookIds = getBookIds();
+        String[] names = new String[bookIds.length];
+        for (int i = 0; i < bookIds.length; i++) {
+            names[i] = mNames.get(bookIds[i]);
+        }
+        outState.putLongArray(STATE_BOOK_IDS, bookIds);
+        outState.putIntArray(STATE_UNITS, getUnits());
+        outState.putStringArray(STATE_NAMES, names);
+    }
+
+    void restore(Bundle savedInstanceState) {
+        clear();
+        long[] bookIds = savedInstanceState.getLongArray(STATE_BOOK_IDS);
+        int[] units = savedInstanceState.getIntArray(STATE_UNITS);
+        String[] names = savedInstanceState.getStringArray(STATE_NAMES);
+        if (bookIds == null || units == null || names == null) {
+            return;
+        }
+        for (int i = 0; i < bookIds.length; i++) {
+            mUnits.put(bookIds[i], units[i]);
+            mNames.put(bookIds[i], names[i]);
+        }
+    }
+}
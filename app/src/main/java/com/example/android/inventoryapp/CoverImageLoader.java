@@ -0,0 +1,479 @@
+package com.example.android.inventoryapp;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads book cover images into image views. Covers are decoded on background threads, sampled
+ * down while decoding and then scaled to the size of the view. The scaled thumbnails are kept in
+ * a memory cache sized to the device's memory class, and in a disk cache, so a cover is only
+ * decoded from the full image once.
+ */
+public final class CoverImageLoader {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CoverImageLoader.class.getSimpleName();
+
+    /** Fraction of the app's memory class used for the memory cache */
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    /** Maximum size of the thumbnail disk cache */
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    /** Name of the thumbnail disk cache in the app's cache directory */
+    private static final String DISK_CACHE_DIRECTORY = "cover_thumbnails";
+
+    /** JPEG quality of the thumbnails in the disk cache */
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    /** Suffix of a thumbnail being written, which is renamed to its key once complete */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** Longest side of a cover when it's stored, which keeps the full image small */
+    private static final int MAX_COVER_SIZE = 1024;
+
+    /** JPEG quality of stored covers */
+    private static final int COVER_QUALITY = 90;
+
+    /** Number of threads decoding covers */
+    private static final int DECODE_THREADS = 2;
+
+    private static CoverImageLoader sInstance;
+
+    /** Returns the process-wide loader, creating it on first use. */
+    public static synchronized CoverImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CoverImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskCacheDirectory;
+    private final ThreadPoolExecutor mExecutor;
+
+    /** Size of the disk cache in bytes, or -1 until it has been measured */
+    private long mDiskCacheSize = -1;
+
+    private CoverImageLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVIDER;
+        mMemoryCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        mDiskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+
+        // Requests are taken newest first, so while the list is flung the covers that are on
+        // screen now are decoded before the ones that have already scrolled past.
+        mExecutor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                },
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "CoverDecoder");
+                    }
+                });
+    }
+
+    /**
+     * Load an image into the given view, scaled to the given size. Any earlier request for the
+     * view is cancelled, so views recycled by a list always end up showing their latest image.
+     *
+     * @param view     the view to show the image in
+     * @param uri      content URI of the full image, or null to clear the view
+     * @param cacheKey key identifying the content of the image, which must change whenever the
+     *                 image does
+     * @param width    width of the view in pixels
+     * @param height   height of the view in pixels
+     */
+    public void load(ImageView view, Uri uri, String cacheKey, int width, int height) {
+        Request previous = (Request) view.getTag(R.id.cover_request);
+        String key = uri == null ? null : cacheKey + "@" + width + "x" + height;
+        if (previous != null) {
+            if (previous.mKey.equals(key)) {
+                // Already loading this image.
+                return;
+            }
+            previous.cancel();
+        }
+
+        if (uri == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request(view, uri, key, width, height);
+        view.setTag(R.id.cover_request, request);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * A request to load an image into a view.
+     */
+    private class Request implements Runnable {
+
+        private final ImageView mView;
+        private final Uri mUri;
+        private final String mKey;
+        private final int mWidth;
+        private final int mHeight;
+        private Future<?> mFuture;
+        private volatile boolean mCancelled;
+
+        Request(ImageView view, Uri uri, String key, int width, int height) {
+            mView = view;
+            mUri = uri;
+            mKey = key;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            mView.setTag(R.id.cover_request, null);
+            if (mFuture != null) {
+                mFuture.cancel(false);
+                mExecutor.remove((Runnable) mFuture);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            Bitmap bitmap = readThumbnail(mKey);
+            if (bitmap == null && !mCancelled) {
+                bitmap = decodeScaled(mUri, mWidth, mHeight);
+                if (bitmap != null) {
+                    writeThumbnail(mKey, bitmap);
+                }
+            }
+            if (bitmap == null) {
+                return;
+            }
+            mMemoryCache.put(mKey, bitmap);
+
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled && mView.getTag(R.id.cover_request) == Request.this) {
+                        mView.setTag(R.id.cover_request, null);
+                        mView.setImageBitmap(result);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Decode the image at the given URI, sampled down while decoding and then scaled so it
+     * covers the given size.
+     *
+     * @return the bitmap, or null if it couldn't be decoded.
+     */
+    private Bitmap decodeScaled(Uri uri, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (!decode(uri, options) || options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Sample by the largest power of 2 that keeps the image at least as large as the view.
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                width, height);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap sampled = decodeBitmap(uri, options);
+        if (sampled == null) {
+            return null;
+        }
+        return scaleToCover(sampled, width, height);
+    }
+
+    private boolean decode(Uri uri, BitmapFactory.Options options) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = mContentResolver.openFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                return false;
+            }
+            BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            return true;
+        } catch (FileNotFoundException e) {
+            Log.w(LOG_TAG, "No image at " + uri);
+            return false;
+        } finally {
+            closeQuietly(descriptor);
+        }
+    }
+
+    private Bitmap decodeBitmap(Uri uri, BitmapFactory.Options options) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = mContentResolver.openFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                return null;
+            }
+            return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null,
+                    options);
+        } catch (FileNotFoundException e) {
+            Log.w(LOG_TAG, "No image at " + uri);
+            return null;
+        } catch (OutOfMemoryError e) {
+            // Drop the cached covers and give up on this one rather than crash.
+            Log.w(LOG_TAG, "Out of memory decoding " + uri);
+            mMemoryCache.evictAll();
+            return null;
+        } finally {
+            closeQuietly(descriptor);
+        }
+    }
+
+    private static int calculateInSampleSize(int imageWidth, int imageHeight, int width,
+                                             int height) {
+        int inSampleSize = 1;
+        while (imageWidth / (inSampleSize * 2) >= width
+                && imageHeight / (inSampleSize * 2) >= height) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Returns the bitmap scaled down so it just covers the given size.
+     */
+    private static Bitmap scaleToCover(Bitmap bitmap, int width, int height) {
+        float scale = Math.max((float) width / bitmap.getWidth(),
+                (float) height / bitmap.getHeight());
+        if (scale >= 1) {
+            return bitmap;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Read a thumbnail from the disk cache.
+     *
+     * @return the thumbnail, or null if it isn't cached.
+     */
+    private Bitmap readThumbnail(String key) {
+        File file = getThumbnailFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap != null) {
+            // Mark the thumbnail as recently used, so it's trimmed last.
+            file.setLastModified(System.currentTimeMillis());
+        } else {
+            // Thumbnails only get their name once written in full, so this one is corrupt. It's
+            // deleted so it is written again.
+            file.delete();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Write a thumbnail to the disk cache, trimming the least recently used thumbnails when the
+     * cache grows too large. The thumbnail is written to a temporary file that is renamed once
+     * complete, so a write cut short, or read by another loader meanwhile, never leaves a
+     * truncated thumbnail under its key.
+     */
+    private synchronized void writeThumbnail(String key, Bitmap bitmap) {
+        if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+            return;
+        }
+        File file = getThumbnailFile(key);
+        File temporaryFile = new File(file.getPath() + TEMPORARY_SUFFIX);
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(temporaryFile);
+            if (bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out)) {
+                // Closed here, so a failure to flush the end of the file isn't ignored.
+                out.close();
+                out = null;
+                written = true;
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to cache thumbnail " + key, e);
+        } finally {
+            closeQuietly(out);
+        }
+        if (!written || !temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            return;
+        }
+
+        if (mDiskCacheSize < 0) {
+            mDiskCacheSize = 0;
+            for (File cached : listThumbnails()) {
+                mDiskCacheSize += cached.length();
+            }
+        } else {
+            mDiskCacheSize += file.length();
+        }
+        if (mDiskCacheSize > DISK_CACHE_BYTES) {
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Delete the least recently used thumbnails until the disk cache is down to three quarters
+     * of its maximum size.
+     */
+    private void trimDiskCache() {
+        File[] files = listThumbnails();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (mDiskCacheSize <= DISK_CACHE_BYTES * 3 / 4) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mDiskCacheSize -= length;
+            }
+        }
+    }
+
+    private File[] listThumbnails() {
+        File[] files = mDiskCacheDirectory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private File getThumbnailFile(String key) {
+        // Keys may contain characters that aren't valid in file names.
+        return new File(mDiskCacheDirectory, Integer.toHexString(key.hashCode()) + "-"
+                + key.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    /**
+     * Read the image at the given URI and encode it as a JPEG cover no larger than
+     * {@link #MAX_COVER_SIZE} on either side. Must be called on a background thread.
+     *
+     * @return the encoded cover, or null if the image couldn't be read.
+     */
+    public static byte[] encodeCover(Context context, Uri source) {
+        CoverImageLoader loader = getInstance(context);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (!loader.decode(source, options) || options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int longestSide = Math.max(options.outWidth, options.outHeight);
+        options.inSampleSize = 1;
+        while (longestSide / (options.inSampleSize * 2) >= MAX_COVER_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = loader.decodeBitmap(source, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        float scale = (float) MAX_COVER_SIZE / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.round(bitmap.getWidth() * scale),
+                    Math.round(bitmap.getHeight() * scale), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, COVER_QUALITY, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor descriptor) {
+        // ParcelFileDescriptor is only Closeable from API 16.
+        if (descriptor != null) {
+            try {
+                descriptor.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void closeQuietly(FileOutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
+import android.arch.lifecycle.Observer;
+import android.arch.lifecycle.ViewModelProviders;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.app.LoaderManager;
 import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -19,25 +21,75 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.EditorViewModel.SaveResult;
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
 
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Allows user to create a new book or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
-
-    /** Identifier for the book data loader */
-    private static final int EXISTING_BOOK_LOADER = 0;
+public class EditorActivity extends AppCompatActivity {
+
+    /** Request code for picking a cover image */
+    private static final int PICK_COVER_REQUEST = 1;
+
+    /** Key of the picked cover image in the saved instance state */
+    private static final String STATE_COVER_SOURCE = "cover_source";
+
+    /** Keys of the loaded book and whether the user changed it in the saved instance state */
+    private static final String STATE_LOADED_VALUES = "loaded_values";
+    private static final String STATE_LOADED_VERSION = "loaded_version";
+    private static final String STATE_BOOK_HAS_CHANGED = "book_has_changed";
+
+    /** Columns of the book the user can edit, and their labels in the conflict dialog */
+    private static final String[] EDITABLE_COLUMNS = {
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER };
+    private static final int[] EDITABLE_COLUMN_LABELS = {
+            R.string.hint_book_name,
+            R.string.hint_book_isbn,
+            R.string.hint_book_price,
+            R.string.hint_book_quantity,
+            R.string.hint_book_reorder_threshold,
+            R.string.hint_supplier_name,
+            R.string.hint_supplier_number };
 
     /** Content URI for the existing book (null if it's a new book) */
     private Uri mCurrentBookUri;
 
+    /** Holds the existing book across configuration changes (null if it's a new book) */
+    private EditorViewModel mViewModel;
+
+    /** ImageView showing the book's cover, tap it to choose another one */
+    private ImageView mCoverImageView;
+
+    /** Image picked as the new cover, null if the cover hasn't been changed */
+    private Uri mCoverSourceUri;
+
+    /** Editable values of the book as loaded into the input fields, null until it's loaded */
+    private ContentValues mLoadedValues;
+
+    /** Version of the book loaded into the input fields, sent with the update */
+    private long mLoadedVersion;
+
     /** EditText field to enter the books's name */
     private EditText mNameEditText;
 
+    /** EditText field to enter the book's ISBN */
+    private EditText mIsbnEditText;
+
     /** EditText field to enter the book's price */
     private EditText mPriceEditText;
 
@@ -50,6 +102,9 @@ public class EditorActivity extends AppCompatActivity implements
     /** Button to increment the quantity */
     private Button mIncrementButton;
 
+    /** EditText field to enter the quantity at which the book is low on stock */
+    private EditText mReorderThresholdEditText;
+
     /** EditText field to enter the book supplier's name */
     private EditText mSupplierNameEditText;
 
@@ -59,12 +114,12 @@ public class EditorActivity extends AppCompatActivity implements
     /** Button to contact supplier */
     private Button mContactSupplierButton;
 
+    /** TextView showing how fast the book sells and how long its stock lasts */
+    private TextView mSalesVelocityTextView;
+
     /** Boolean flag that keeps track of whether the book had been edited (true) or not (false) */
     private boolean mBookHasChanged = false;
 
-    /** Boolean flag that checks if all required input fields are valid. */
-    private boolean mHasAllRequiredFields = false;
-
     /**
      * OnTouchListener that listens for when a user touches on a View (implying that they are
      * modifying the View), and changes the mPetHasChanged boolean flag to true.
@@ -87,6 +142,18 @@ public class EditorActivity extends AppCompatActivity implements
         Intent intent = getIntent();
         mCurrentBookUri = intent.getData();
 
+        // The view model keeps the book across configuration changes, and queues its writes.
+        mViewModel = ViewModelProviders.of(this).get(EditorViewModel.class);
+        mViewModel.getSaveResult().observe(this, new Observer<SaveResult>() {
+            @Override
+            public void onChanged(SaveResult result) {
+                if (result != null) {
+                    mViewModel.onSaveResultHandled();
+                    onSaveComplete(result);
+                }
+            }
+        });
+
         // If the intent DOES NOT contain a book content URI, then we know that we are creating a
         // new book.
         if (mCurrentBookUri == null) {
@@ -100,27 +167,38 @@ public class EditorActivity extends AppCompatActivity implements
             // Otherwise this is an existing book, so change app bar to say "Edit Book".
             setTitle("Edit Book");
 
-            // Initialize a loader to read the book data from the database and display the current
-            // values in the editor.
-            getLoaderManager().initLoader(EXISTING_BOOK_LOADER, null, this);
+            // Read the book data from the database and display the current values in the editor.
+            mViewModel.setBookUri(mCurrentBookUri);
+            mViewModel.getBook().observe(this, new Observer<Cursor>() {
+                @Override
+                public void onChanged(Cursor cursor) {
+                    onBookLoaded(cursor);
+                }
+            });
         }
 
         // Find all relevant views that we will need to read user input from.
+        mCoverImageView = findViewById(R.id.edit_book_cover);
         mNameEditText = findViewById(R.id.edit_book_name);
+        mIsbnEditText = findViewById(R.id.edit_book_isbn);
         mPriceEditText = findViewById(R.id.edit_book_price);
         mDecrementButton = findViewById(R.id.decrement_button);
         mQuantityEditText = findViewById(R.id.edit_book_quantity);
         mIncrementButton = findViewById(R.id.increment_button);
+        mReorderThresholdEditText = findViewById(R.id.edit_book_reorder_threshold);
         mSupplierNameEditText = findViewById(R.id.edit_supplier_name);
         mSupplierNumberEditText = findViewById(R.id.edit_supplier_number);
         mContactSupplierButton = findViewById(R.id.contact_supplier_button);
+        mSalesVelocityTextView = findViewById(R.id.sales_velocity);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user has
         // touched or modified them. This will let us know if there are unsaved changes or not, if
         // the user tries to leave the editor without saving.
         mNameEditText.setOnTouchListener(mTouchListener);
+        mIsbnEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
         mSupplierNameEditText.setOnTouchListener(mTouchListener);
         mSupplierNumberEditText.setOnTouchListener(mTouchListener);
 
@@ -144,27 +222,98 @@ public class EditorActivity extends AppCompatActivity implements
                 contactSupplier();
             }
         });
+
+        mCoverImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                chooseCover();
+            }
+        });
+
+        // Restore a cover picked before the activity was recreated, and the book the edits
+        // were made to.
+        if (savedInstanceState != null) {
+            Uri coverSourceUri = savedInstanceState.getParcelable(STATE_COVER_SOURCE);
+            if (coverSourceUri != null) {
+                showPickedCover(coverSourceUri);
+            }
+            mLoadedValues = savedInstanceState.getParcelable(STATE_LOADED_VALUES);
+            mLoadedVersion = savedInstanceState.getLong(STATE_LOADED_VERSION);
+            mBookHasChanged = savedInstanceState.getBoolean(STATE_BOOK_HAS_CHANGED);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_COVER_SOURCE, mCoverSourceUri);
+        outState.putParcelable(STATE_LOADED_VALUES, mLoadedValues);
+        outState.putLong(STATE_LOADED_VERSION, mLoadedVersion);
+        outState.putBoolean(STATE_BOOK_HAS_CHANGED, mBookHasChanged);
     }
 
     /**
-     * Get user input from editor and save book into database.
+     * Let the user pick an image to use as the cover of the book.
+     */
+    private void chooseCover() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.choose_cover)),
+                PICK_COVER_REQUEST);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == PICK_COVER_REQUEST) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                mBookHasChanged = true;
+                showPickedCover(data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Show the picked image as the cover. It is only saved with the book.
+     */
+    private void showPickedCover(Uri coverSourceUri) {
+        mCoverSourceUri = coverSourceUri;
+        CoverImageLoader.getInstance(this).load(mCoverImageView, coverSourceUri,
+                coverSourceUri.toString(),
+                getResources().getDimensionPixelSize(R.dimen.cover_width),
+                getResources().getDimensionPixelSize(R.dimen.cover_height));
+    }
+
+    /**
+     * Get user input from editor and queue the book to be saved into the database. The editor is
+     * closed once the write has completed.
      */
     public boolean saveBook() {
+        // A save has already been queued, so don't queue it a second time.
+        if (mViewModel.isSaveQueued()) {
+            return true;
+        }
+
         // Read from input fields. Use trim to eliminate leading or trailing white space.
         String nameString = mNameEditText.getText().toString().trim();
+        String isbnString = mIsbnEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
         String quantityString = mQuantityEditText.getText().toString().trim();
+        String thresholdString = mReorderThresholdEditText.getText().toString().trim();
         String supplierNameString = mSupplierNameEditText.getText().toString().trim();
         String supplierNumberString = mSupplierNumberEditText.getText().toString().trim();
 
         // Check if this is a new book and check if fields in the editor are blank.
         if (mCurrentBookUri == null &&
-                TextUtils.isEmpty(nameString) && TextUtils.isEmpty(priceString) &&
-                TextUtils.isEmpty(quantityString) && TextUtils.isEmpty(supplierNameString) &&
-                TextUtils.isEmpty(supplierNumberString)) {
+                TextUtils.isEmpty(nameString) && TextUtils.isEmpty(isbnString) &&
+                TextUtils.isEmpty(priceString) &&
+                TextUtils.isEmpty(quantityString) && TextUtils.isEmpty(thresholdString) &&
+                TextUtils.isEmpty(supplierNameString) &&
+                TextUtils.isEmpty(supplierNumberString) && mCoverSourceUri == null) {
             // Since no fields were modified, we can return early without creating a new book.
             // No need to create ContentValues and no need to do any ContentProvider operations.
-            return mHasAllRequiredFields;
+            return false;
         }
 
         // Create a ContentValues object where column names are the keys, and book attributes from
@@ -175,11 +324,18 @@ public class EditorActivity extends AppCompatActivity implements
         if (TextUtils.isEmpty(nameString)) {
             Toast.makeText(this, getString(R.string.book_name_validation),
                     Toast.LENGTH_SHORT).show();
-            return mHasAllRequiredFields;
+            return false;
         } else {
             values.put(BookEntry.COLUMN_BOOK_NAME, nameString);
         }
 
+        // ISBN is optional. Clear it on an existing book if the field was emptied.
+        if (!TextUtils.isEmpty(isbnString)) {
+            values.put(BookEntry.COLUMN_BOOK_ISBN, isbnString);
+        } else if (mCurrentBookUri != null) {
+            values.putNull(BookEntry.COLUMN_BOOK_ISBN);
+        }
+
         // If the price is not provided by the user, use 0.00 by default.
         double price = 0.00;
         if (!TextUtils.isEmpty(priceString)) {
@@ -194,6 +350,13 @@ public class EditorActivity extends AppCompatActivity implements
         }
         values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
 
+        // If the reorder threshold is not provided by the user, alert when the book sells out.
+        int threshold = 0;
+        if (!TextUtils.isEmpty(thresholdString)) {
+            threshold = Integer.parseInt(thresholdString);
+        }
+        values.put(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD, threshold);
+
         // Supplier name is optional.
         values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, supplierNameString);
 
@@ -201,47 +364,186 @@ public class EditorActivity extends AppCompatActivity implements
         if(TextUtils.isEmpty(supplierNumberString) || supplierNumberString.length() < 10) {
             Toast.makeText(this,getString(R.string.book_supplier_number_validation),
                     Toast.LENGTH_SHORT).show();
-            return mHasAllRequiredFields;
+            return false;
         } else {
             values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER, supplierNumberString);
         }
 
         // Determine if this is a new or existing book by checking if mCurrentBookUri is null or not.
+        // The write is queued on the background writer and the editor closes once it completes.
         if (mCurrentBookUri == null) {
-            // This is a NEW book, so insert a new book into the provider, returning the content URI
-            // for the new book.
-            Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_book_failed),
-                        Toast.LENGTH_SHORT).show();
+            // This is a NEW book, so insert a new book into the provider. Its cover is saved
+            // once it exists.
+            final ContentValues newValues = values;
+            final ContentResolver resolver = getApplicationContext().getContentResolver();
+            mViewModel.save(new Callable<SaveResult>() {
+                @Override
+                public SaveResult call() {
+                    Uri newUri = resolver.insert(BookEntry.CONTENT_URI, newValues);
+                    // If the new content URI is null, then there was an error with insertion.
+                    return newUri == null
+                            ? SaveResult.done(R.string.editor_insert_book_failed, null)
+                            : SaveResult.done(R.string.editor_insert_book_successful, newUri);
+                }
+            }, R.string.editor_insert_book_failed, mCoverSourceUri);
+        } else {
+            // Otherwise this is an existing book. Only the fields the user changed are sent, so
+            // the update doesn't rewrite the rest of the row or undo changes made to other
+            // fields meanwhile.
+            ContentValues changes = getChangedValues(values);
+            if (changes.size() == 0) {
+                mViewModel.saveCover(mCurrentBookUri, mCoverSourceUri);
+                finish();
             } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_book_successful),
-                        Toast.LENGTH_SHORT).show();
+                updateBook(changes, mLoadedVersion);
             }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the values that differ from the book as it was loaded into the input fields.
+     */
+    private ContentValues getChangedValues(ContentValues values) {
+        ContentValues changes = new ContentValues(values);
+        if (mLoadedValues == null) {
+            return changes;
+        }
+        // The provider stores the normalized ISBN, so compare it in that form.
+        if (changes.containsKey(BookEntry.COLUMN_BOOK_ISBN)) {
+            changes.put(BookEntry.COLUMN_BOOK_ISBN,
+                    BookEntry.normalizeIsbn(changes.getAsString(BookEntry.COLUMN_BOOK_ISBN)));
+        }
+        for (String column : EDITABLE_COLUMNS) {
+            if (changes.containsKey(column)
+                    && equal(changes.get(column), mLoadedValues.get(column))) {
+                changes.remove(column);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Queue an update of the changed fields that only applies if the book is still at the given
+     * version. If somebody else changed the book since, nothing is written and the user is asked
+     * how to merge the changes instead.
+     */
+    private void updateBook(final ContentValues changes, long expectedVersion) {
+        final Uri versionedUri =
+                BookEntry.buildExpectedVersionUri(mCurrentBookUri, expectedVersion);
+        final Uri bookUri = mCurrentBookUri;
+        final ContentResolver resolver = getApplicationContext().getContentResolver();
+        mViewModel.save(new Callable<SaveResult>() {
+            @Override
+            public SaveResult call() {
+                if (resolver.update(versionedUri, changes, null, null) > 0) {
+                    return SaveResult.done(R.string.editor_update_book_successful, bookUri);
+                }
+                // Nothing was updated: read the book as it is now, to tell a conflicting change
+                // from a deleted book.
+                String[] projection = Arrays.copyOf(EDITABLE_COLUMNS, EDITABLE_COLUMNS.length + 1);
+                projection[EDITABLE_COLUMNS.length] = BookEntry.COLUMN_BOOK_VERSION;
+                Cursor cursor = resolver.query(bookUri, projection, null, null, null);
+                try {
+                    if (cursor == null || !cursor.moveToFirst()) {
+                        // The book is gone.
+                        return SaveResult.done(R.string.editor_update_book_failed, null);
+                    }
+                    ContentValues current = readEditableValues(cursor);
+                    current.put(BookEntry.COLUMN_BOOK_VERSION, cursor.getLong(
+                            cursor.getColumnIndex(BookEntry.COLUMN_BOOK_VERSION)));
+                    return SaveResult.conflict(changes, current);
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+            }
+        }, R.string.editor_update_book_failed, mCoverSourceUri);
+    }
+
+    /**
+     * Close the editor once the book was written, or ask the user how to merge a conflicting
+     * change.
+     */
+    private void onSaveComplete(SaveResult result) {
+        if (result.mCurrentValues == null) {
+            finish();
         } else {
-            // Otherwise this is an existing book, so update the book with content URI:
-            // mCurrentBookUri and pass in the new ContentValues. Pass in null for the selection and
-            // selection args because mCurrentBookUri will already identify the correct row in the
-            // database that we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentBookUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_book_successful),
-                        Toast.LENGTH_SHORT).show();
+            showConflictDialog(result.mChanges, result.mCurrentValues);
+        }
+    }
+
+    /**
+     * Show the fields somebody else changed while the user was editing the book, and let the
+     * user either save their changes over them or reload the book and drop their changes.
+     */
+    private void showConflictDialog(final ContentValues changes, final ContentValues current) {
+        StringBuilder message = new StringBuilder(getString(R.string.editor_conflict_msg));
+        for (int i = 0; i < EDITABLE_COLUMNS.length; i++) {
+            String column = EDITABLE_COLUMNS[i];
+            Object loaded = mLoadedValues == null ? null : mLoadedValues.get(column);
+            if (!equal(loaded, current.get(column))) {
+                message.append('\n').append(getString(R.string.editor_conflict_change,
+                        getString(EDITABLE_COLUMN_LABELS[i]), format(loaded),
+                        format(current.get(column))));
             }
         }
-        mHasAllRequiredFields = true;
-        return mHasAllRequiredFields;
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.editor_conflict_title);
+        builder.setMessage(message);
+        builder.setPositiveButton(R.string.editor_conflict_save_mine,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Only the fields the user changed are written over the new version.
+                        updateBook(changes, current.getAsLong(BookEntry.COLUMN_BOOK_VERSION));
+                    }
+                });
+        builder.setNegativeButton(R.string.editor_conflict_reload,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Drop the user's changes and show the book as it is now.
+                        mBookHasChanged = false;
+                        mLoadedValues = null;
+                        mViewModel.reload();
+                    }
+                });
+        // If the dialog is cancelled, the user keeps editing and the next save asks again.
+        builder.create().show();
+    }
+
+    /**
+     * Returns the editable values of the book at the current position of the cursor, typed the
+     * way the editor puts them into {@link ContentValues}.
+     */
+    private static ContentValues readEditableValues(Cursor cursor) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME,
+                cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME)));
+        values.put(BookEntry.COLUMN_BOOK_ISBN,
+                cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_ISBN)));
+        values.put(BookEntry.COLUMN_BOOK_PRICE,
+                cursor.getDouble(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE)));
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY,
+                cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY)));
+        values.put(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD,
+                cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD)));
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+                cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NAME)));
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+                cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER)));
+        return values;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String format(Object value) {
+        return value == null ? "" : value.toString();
     }
 
     @Override
@@ -273,12 +575,8 @@ public class EditorActivity extends AppCompatActivity implements
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option.
             case R.id.action_save:
-                // Save book to database.
+                // Save book to database. The activity exits once the save has completed.
                 saveBook();
-                if (mHasAllRequiredFields == true) {
-                    // Exit activity.
-                    finish();
-                }
                 return true;
             // Respond to a click on the "Delete" menu option.
             case R.id.action_delete:
@@ -339,68 +637,71 @@ public class EditorActivity extends AppCompatActivity implements
         showUnsavedChangesDialog(discardButtonClickListener);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Since the editor shows all book attributes, define a projection that contains all columns
-        // from the book table.
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_BOOK_NAME,
-                BookEntry.COLUMN_BOOK_PRICE,
-                BookEntry.COLUMN_BOOK_QUANTITY,
-                BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
-                BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER };
-
-        // This loader will execute the ContentProvider's query method on a background thread.
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentBookUri,                // Query the content URI for the current book
-                projection,                     // Columns to include in the resulting Cursor
-                null,                  // No selection clause
-                null,               // No selection arguments
-                null);                 // Default sort order
-    }
+    /**
+     * Show the book queried by the view model.
+     */
+    private void onBookLoaded(Cursor cursor) {
+        TraceCompat.beginSection("EditorActivity.onBookLoaded");
+        try {
+            // Bail early if the cursor is null or there is less than 1 row in the cursor.
+            if (cursor == null || cursor.getCount() < 1) {
+                return;
+            }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Bail early if the cursor is null or there is less than 1 row in the cursor.
-        if (cursor == null || cursor.getCount() < 1) {
-            return;
-        }
+            // Proceed with moving to the first row of the cursor and reading data from it.
+            // (This should be the only row in the cursor)
+            if (cursor.moveToFirst()) {
+                // The view model reloads the book whenever it changes, e.g. after a sale. Once the
+                // user has edited it, the input fields are left alone; a conflicting change is
+                // caught when saving.
+                if (mLoadedValues == null || !mBookHasChanged) {
+                    mLoadedValues = readEditableValues(cursor);
+                    mLoadedVersion = cursor.getLong(
+                            cursor.getColumnIndex(BookEntry.COLUMN_BOOK_VERSION));
+
+                    // Update the views on the screen with the values from the database.
+                    mNameEditText.setText(mLoadedValues.getAsString(BookEntry.COLUMN_BOOK_NAME));
+                    mIsbnEditText.setText(mLoadedValues.getAsString(BookEntry.COLUMN_BOOK_ISBN));
+                    mPriceEditText.setText(Double.toString(
+                            mLoadedValues.getAsDouble(BookEntry.COLUMN_BOOK_PRICE)));
+                    mQuantityEditText.setText(Integer.toString(
+                            mLoadedValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY)));
+                    mReorderThresholdEditText.setText(Integer.toString(
+                            mLoadedValues.getAsInteger(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD)));
+                    mSupplierNameEditText.setText(
+                            mLoadedValues.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME));
+                    mSupplierNumberEditText.setText(
+                            mLoadedValues.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER));
+                }
 
-        // Proceed with moving to the first row of the cursor and reading data from it.
-        // (This should be the only row in the cursor)
-        if (cursor.moveToFirst()) {
-            // Find the columns of book attributes that we're interested in.
-            int nameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
-            int supplierNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
-            int supplierNumberColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index.
-            String name = cursor.getString(nameColumnIndex);
-            double price = cursor.getDouble(priceColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplierName = cursor.getString(supplierNameColumnIndex);
-            String supplierNumber = cursor.getString(supplierNumberColumnIndex);
-
-            // Update the views on the screen with the values from the database.
-            mNameEditText.setText(name);
-            mPriceEditText.setText(Double.toString(price));
-            mQuantityEditText.setText(Integer.toString(quantity));
-            mSupplierNameEditText.setText(supplierName);
-            mSupplierNumberEditText.setText(supplierNumber);
-        }
-    }
+                // Show how fast the book sells, if it's selling at all.
+                int stockoutColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_STOCKOUT_AT);
+                if (cursor.isNull(stockoutColumnIndex)) {
+                    mSalesVelocityTextView.setVisibility(View.GONE);
+                } else {
+                    double salesRate = cursor.getDouble(
+                            cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SALES_RATE));
+                    long daysOfStock = Math.max(0, TimeUnit.MILLISECONDS.toDays(
+                            cursor.getLong(stockoutColumnIndex) - System.currentTimeMillis()));
+                    mSalesVelocityTextView.setText(
+                            getString(R.string.sales_velocity, salesRate, daysOfStock));
+                    mSalesVelocityTextView.setVisibility(View.VISIBLE);
+                }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
-        mNameEditText.setText("");
-        mPriceEditText.setText("");
-        mQuantityEditText.setText("");
-        mSupplierNameEditText.setText("");
-        mSupplierNumberEditText.setText("");
+                // Show the current cover, unless another one has been picked.
+                if (mCoverSourceUri == null) {
+                    String cover = cursor.getString(
+                            cursor.getColumnIndex(BookEntry.COLUMN_BOOK_COVER));
+                    CoverImageLoader.getInstance(this).load(mCoverImageView,
+                            cover == null ? null : BookEntry.buildCoverUri(
+                                    ContentUris.parseId(mCurrentBookUri)), cover,
+                            getResources().getDimensionPixelSize(R.dimen.cover_width),
+                            getResources().getDimensionPixelSize(R.dimen.cover_height));
+                }
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 
     /**
@@ -466,26 +767,13 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private void deleteBook() {
         // Only perform the delete if this is an existing book.
-        if (mCurrentBookUri != null) {
-            // Call the ContentResolver to delete the book at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentBookUri
-            // content URI already identifies the book that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentBookUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_book_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+        if (mCurrentBookUri == null) {
+            finish();
+            return;
         }
 
-        // Close the activity
-        finish();
+        // Delete the book on the writer thread. The editor closes once it is gone.
+        mViewModel.delete(mCurrentBookUri);
     }
 
     private void decrementQuantity() {
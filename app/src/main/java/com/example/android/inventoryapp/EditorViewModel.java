@@ -0,0 +1,223 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.arch.lifecycle.AndroidViewModel;
+import android.arch.lifecycle.LiveData;
+import android.arch.lifecycle.MutableLiveData;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.widget.Toast;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookWriteExecutor;
+import com.example.android.inventoryapp.data.CursorLiveData;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Holds the book edited in {@link EditorActivity}. It outlives configuration changes, so a
+ * rotated editor shows the book again without querying it. It also queues the writes of the
+ * book and holds their results, so a write that completes after a rotation closes or updates the
+ * editor that is shown, and a save isn't queued twice.
+ */
+public class EditorViewModel extends AndroidViewModel {
+
+    /** Since the editor shows all book attributes, all columns of the books table */
+    private static final String[] PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+            BookEntry.COLUMN_BOOK_COVER,
+            BookEntry.COLUMN_BOOK_SALES_RATE,
+            BookEntry.COLUMN_BOOK_STOCKOUT_AT,
+            BookEntry.COLUMN_BOOK_VERSION };
+
+    private final CursorLiveData mBook;
+
+    /** Result of the last write, until the activity has handled it */
+    private final MutableLiveData<SaveResult> mSaveResult = new MutableLiveData<>();
+
+    /** Whether a write of the book is queued, or has completed and closes the editor */
+    private boolean mSaveQueued;
+
+    public EditorViewModel(Application application) {
+        super(application);
+        mBook = new CursorLiveData(application.getContentResolver());
+    }
+
+    /**
+     * Returns the book set by {@link #setBookUri(Uri)}. It is queried again whenever it changes,
+     * e.g. after a sale.
+     */
+    public LiveData<Cursor> getBook() {
+        return mBook;
+    }
+
+    /**
+     * Set the content URI of the book to edit. Setting the same book again does nothing.
+     */
+    public void setBookUri(Uri bookUri) {
+        mBook.setQuery(bookUri, PROJECTION, null, null, null);
+    }
+
+    /**
+     * Query the book again, e.g. to show it as it is now after a conflicting change.
+     */
+    public void reload() {
+        mBook.reload();
+    }
+
+    /**
+     * Returns whether a save or delete is queued, or has completed and closes the editor, in
+     * which case the book mustn't be written again.
+     */
+    boolean isSaveQueued() {
+        return mSaveQueued;
+    }
+
+    /**
+     * Returns the result of the last write. It is kept until {@link #onSaveResultHandled()}, so
+     * an activity recreated meanwhile still handles it.
+     */
+    LiveData<SaveResult> getSaveResult() {
+        return mSaveResult;
+    }
+
+    /**
+     * Forget the result of the last write once the activity has handled it.
+     */
+    void onSaveResultHandled() {
+        mSaveResult.setValue(null);
+    }
+
+    /**
+     * Queue a save of the book on the background writer, unless a write is already queued. Its
+     * message is shown once it completes, and the picked cover is saved after the book.
+     *
+     * @param write          writes the book, on the writer thread
+     * @param failedMessage  message shown if the write fails with an exception
+     * @param coverSourceUri picked cover image, or null if the cover wasn't changed
+     */
+    void save(Callable<SaveResult> write, final int failedMessage, final Uri coverSourceUri) {
+        if (mSaveQueued) {
+            return;
+        }
+        mSaveQueued = true;
+        final Context appContext = getApplication();
+        BookWriteExecutor.getInstance(appContext).submit(write,
+                new BookWriteExecutor.Callback<SaveResult>() {
+            @Override
+            public void onWriteComplete(SaveResult result) {
+                if (result == null) {
+                    result = SaveResult.done(failedMessage, null);
+                }
+                if (result.mMessage != 0) {
+                    Toast.makeText(appContext, result.mMessage, Toast.LENGTH_SHORT).show();
+                }
+                if (result.mCurrentValues != null) {
+                    // Nothing was written; the user decides how to save again.
+                    mSaveQueued = false;
+                } else if (result.mSavedBookUri != null) {
+                    // The cover is saved after the rest of the book.
+                    saveCover(result.mSavedBookUri, coverSourceUri);
+                }
+                mSaveResult.setValue(result);
+            }
+        });
+    }
+
+    /**
+     * Queue the picked cover to be saved for the given book. The image is scaled down and
+     * encoded on the writer thread. Does nothing if no cover was picked.
+     */
+    void saveCover(Uri bookUri, final Uri coverSourceUri) {
+        if (coverSourceUri == null) {
+            return;
+        }
+        final Uri coverUri = BookEntry.buildCoverUri(ContentUris.parseId(bookUri));
+        final Context appContext = getApplication();
+        BookWriteExecutor.getInstance(appContext).submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                byte[] cover = CoverImageLoader.encodeCover(appContext, coverSourceUri);
+                if (cover == null) {
+                    return 0;
+                }
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COVER_DATA, cover);
+                return appContext.getContentResolver().update(coverUri, values, null, null);
+            }
+        }, new BookWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer rowsAffected) {
+                if (rowsAffected == null || rowsAffected == 0) {
+                    Toast.makeText(appContext, R.string.editor_save_cover_failed,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue the deletion of the book, unless a write is already queued.
+     */
+    void delete(final Uri bookUri) {
+        final Context appContext = getApplication();
+        save(new Callable<SaveResult>() {
+            @Override
+            public SaveResult call() {
+                int rowsDeleted = appContext.getContentResolver().delete(bookUri, null, null);
+                return SaveResult.done(rowsDeleted == 0 ? R.string.editor_delete_book_failed
+                        : R.string.editor_delete_book_successful, null);
+            }
+        }, R.string.editor_delete_book_failed, null);
+    }
+
+    @Override
+    protected void onCleared() {
+        mBook.close();
+    }
+
+    /**
+     * Result of a write of the book: either done, which closes the editor, or a conflict with a
+     * change somebody else made, which leaves it open.
+     */
+    static final class SaveResult {
+
+        /** Message to show, or 0 for none */
+        final int mMessage;
+
+        /** Book that was saved, whose cover is saved next, or null */
+        final Uri mSavedBookUri;
+
+        /** Changes the user made, when they conflict */
+        final ContentValues mChanges;
+
+        /** Current values of the book with its version, when somebody else changed it */
+        final ContentValues mCurrentValues;
+
+        private SaveResult(int message, Uri savedBookUri, ContentValues changes,
+                           ContentValues currentValues) {
+            mMessage = message;
+            mSavedBookUri = savedBookUri;
+            mChanges = changes;
+            mCurrentValues = currentValues;
+        }
+
+        static SaveResult done(int message, Uri savedBookUri) {
+            return new SaveResult(message, savedBookUri, null, null);
+        }
+
+        static SaveResult conflict(ContentValues changes, ContentValues currentValues) {
+            return new SaveResult(0, null, changes, currentValues);
+        }
+    }
+}
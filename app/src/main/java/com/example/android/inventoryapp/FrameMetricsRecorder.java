@@ -0,0 +1,226 @@
+package com.example.android.inventoryapp;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Records the frame times of a window while it's shown and appends a summary of the session to
+ * a log file: the number of frames, the share of janky frames, the frame time percentiles and,
+ * for the janky frames, which stage of the frame took longest. Only available on Nougat and up.
+ *
+ * <p>Frame times are counted into a histogram with one bucket per millisecond, so recording a
+ * frame is O(1) and a session of any length takes the same memory. All counting happens on a
+ * background thread, never on the UI thread being measured.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public final class FrameMetricsRecorder {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = FrameMetricsRecorder.class.getSimpleName();
+
+    /** Name of the log file in the app's files directory */
+    public static final String FILE_NAME = "frame_metrics.log";
+
+    /** Frame times from 0 to this many milliseconds have their own bucket, longer ones share one */
+    private static final int MAX_BUCKET_MILLIS = 250;
+
+    /** Percentiles written to the log */
+    private static final int[] PERCENTILES = { 50, 90, 95, 99 };
+
+    /** Stages of a frame, and their names in the log */
+    private static final int[] STAGES = {
+            FrameMetrics.UNKNOWN_DELAY_DURATION,
+            FrameMetrics.INPUT_HANDLING_DURATION,
+            FrameMetrics.ANIMATION_DURATION,
+            FrameMetrics.LAYOUT_MEASURE_DURATION,
+            FrameMetrics.DRAW_DURATION,
+            FrameMetrics.SYNC_DURATION,
+            FrameMetrics.COMMAND_ISSUE_DURATION,
+            FrameMetrics.SWAP_BUFFERS_DURATION };
+    private static final String[] STAGE_NAMES = {
+            "delay", "input", "animation", "layout", "draw", "sync", "command", "swap" };
+
+    private final File mFile;
+    private final String mName;
+    private final Window mWindow;
+    private final long mBudgetNanos;
+
+    /** Thread the frames of the current session are counted on, null when not recording */
+    private HandlerThread mThread;
+
+    /** Session being recorded, null when not recording */
+    private Session mSession;
+
+    /**
+     * @param context app context
+     * @param name    name of the measured screen, written to the log
+     * @param window  window to measure
+     */
+    public FrameMetricsRecorder(Context context, String name, Window window) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mName = name;
+        mWindow = window;
+        // The budget of a frame follows the refresh rate of the display, 16.7 ms at 60 Hz.
+        float refreshRate = window.getWindowManager().getDefaultDisplay().getRefreshRate();
+        mBudgetNanos = (long) (1000000000L / (refreshRate > 0 ? refreshRate : 60));
+    }
+
+    /**
+     * Returns whether frame metrics can be recorded on this device.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    }
+
+    /**
+     * Start recording a session. Must be called on the UI thread.
+     */
+    public void start() {
+        if (mSession != null) {
+            return;
+        }
+        mThread = new HandlerThread("FrameMetrics", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mSession = new Session();
+        mWindow.addOnFrameMetricsAvailableListener(mSession, new Handler(mThread.getLooper()));
+    }
+
+    /**
+     * Stop recording and append the summary of the session to the log file in the background.
+     * Must be called on the UI thread.
+     */
+    public void stop() {
+        if (mSession == null) {
+            return;
+        }
+        mWindow.removeOnFrameMetricsAvailableListener(mSession);
+
+        // Write the summary after the frames already queued on the thread have been counted.
+        final Session session = mSession;
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                session.writeSummary();
+            }
+        });
+        mThread.quitSafely();
+        mThread = null;
+        mSession = null;
+    }
+
+    /**
+     * The frame counts of one session. Only used on the recorder thread.
+     */
+    private final class Session implements Window.OnFrameMetricsAvailableListener {
+
+        private final int[] mHistogram = new int[MAX_BUCKET_MILLIS + 2];
+        private final int[] mSlowestStageCounts = new int[STAGES.length];
+        private int mFrames;
+        private int mJankyFrames;
+        private long mMaxNanos;
+
+        @Override
+        public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics,
+                                            int dropCountSinceLastInvocation) {
+            // The first frame of a window includes its inflation and layout, which isn't jank.
+            if (frameMetrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 1) {
+                return;
+            }
+            long totalNanos = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+            int bucket = (int) Math.min(totalNanos / 1000000, MAX_BUCKET_MILLIS + 1);
+            mHistogram[bucket]++;
+            mFrames++;
+            mMaxNanos = Math.max(mMaxNanos, totalNanos);
+
+            if (totalNanos > mBudgetNanos) {
+                mJankyFrames++;
+                int slowest = 0;
+                long slowestNanos = -1;
+                for (int i = 0; i < STAGES.length; i++) {
+                    long nanos = frameMetrics.getMetric(STAGES[i]);
+                    if (nanos > slowestNanos) {
+                        slowest = i;
+                        slowestNanos = nanos;
+                    }
+                }
+                mSlowestStageCounts[slowest]++;
+            }
+        }
+
+        private void writeSummary() {
+            if (mFrames == 0) {
+                return;
+            }
+
+            // One line per session, e.g. "2018-07-01T12:00:00 catalog frames=812 janky=23
+            // jank=2.8% budget=16.7ms p50=6ms p90=11ms p95=14ms p99=31ms max=88.2ms draw=15 ..."
+            StringBuilder line = new StringBuilder();
+            line.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US)
+                    .format(new Date()));
+            line.append(' ').append(mName)
+                    .append(" frames=").append(mFrames)
+                    .append(" janky=").append(mJankyFrames);
+            line.append(String.format(Locale.US, " jank=%.1f%% budget=%.1fms",
+                    100.0 * mJankyFrames / mFrames, mBudgetNanos / 1e6));
+            for (int percentile : PERCENTILES) {
+                line.append(" p").append(percentile).append('=')
+                        .append(percentile(percentile)).append("ms");
+            }
+            line.append(String.format(Locale.US, " max=%.1fms", mMaxNanos / 1e6));
+            for (int i = 0; i < STAGES.length; i++) {
+                if (mSlowestStageCounts[i] > 0) {
+                    line.append(' ').append(STAGE_NAMES[i]).append('=')
+                            .append(mSlowestStageCounts[i]);
+                }
+            }
+            line.append('\n');
+
+            Writer writer = null;
+            try {
+                writer = new FileWriter(mFile, true);
+                writer.write(line.toString());
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error writing frame metrics", e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        // Ignored, the line was either written or the error was already logged.
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the frame time of the given percentile in whole milliseconds, rounded up to the
+         * bucket it falls in. Frame times past the last bucket are reported as that bucket.
+         */
+        private int percentile(int percentile) {
+            int rank = (int) Math.ceil(mFrames * percentile / 100.0);
+            int seen = 0;
+            for (int bucket = 0; bucket < mHistogram.length; bucket++) {
+                seen += mHistogram[bucket];
+                if (seen >= rank) {
+                    return Math.min(bucket + 1, MAX_BUCKET_MILLIS + 1);
+                }
+            }
+            return MAX_BUCKET_MILLIS + 1;
+        }
+    }
+}
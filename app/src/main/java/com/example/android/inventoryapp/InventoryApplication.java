@@ -0,0 +1,57 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.BookContract;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.MaintenanceJobService;
+import com.example.android.inventoryapp.sync.SyncJobService;
+
+/**
+ * {@link Application} for the Books app. Warms up the book database in the background while the
+ * first activity is being created, so the catalog query doesn't pay for opening the database.
+ */
+public class InventoryApplication extends Application {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = InventoryApplication.class.getSimpleName();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        warmUpDatabase();
+        SyncJobService.schedule(this);
+        MaintenanceJobService.schedule(this);
+    }
+
+    /**
+     * Open the database and touch the books table on a background thread. This runs any pending
+     * migrations and pulls the first pages of the table into the page cache.
+     */
+    private void warmUpDatabase() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = SystemClock.elapsedRealtime();
+                Uri uri = BookEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, "1")
+                        .build();
+                Cursor cursor = getContentResolver().query(uri, new String[] { BookEntry._ID },
+                        null, null, null);
+                if (cursor != null) {
+                    cursor.getCount();
+                    cursor.close();
+                }
+                Log.v(LOG_TAG, "Database warmed up in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+        }, "DatabaseWarmUp");
+        thread.start();
+    }
+}
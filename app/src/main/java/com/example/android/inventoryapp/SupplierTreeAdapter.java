@@ -0,0 +1,161 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorTreeAdapter;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
+
+/**
+ * {@link SupplierTreeAdapter} is an adapter for an expandable list of the books grouped by
+ * supplier. The groups are a cursor of {@link SupplierEntry#CONTENT_URI}, with the totals of each
+ * supplier. The books of a supplier are only queried once its group is expanded, on a
+ * background thread, and are shown as soon as they have been read.
+ */
+public class SupplierTreeAdapter extends CursorTreeAdapter {
+
+    /** Columns of the books of a supplier */
+    private static final String[] BOOK_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY };
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler();
+
+    /** Number of the current group cursor, books queried for an older one are dropped */
+    private int mGeneration;
+
+    /**
+     * Constructs a new {@link SupplierTreeAdapter} without groups.
+     *
+     * @param context The context
+     */
+    public SupplierTreeAdapter(Context context) {
+        // The groups are requeried by their owner, so the adapter doesn't requery them itself.
+        super(null, context, false);
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Replace the groups. The books of the expanded groups are queried again, since they are
+     * likely to have changed with the groups.
+     */
+    @Override
+    public void changeCursor(Cursor cursor) {
+        mGeneration++;
+        super.changeCursor(cursor);
+    }
+
+    /**
+     * Start the query of the books of the supplier of the given group. Returns null, the books
+     * are set with {@link #setChildrenCursor(int, Cursor)} once they have been read.
+     */
+    @Override
+    protected Cursor getChildrenCursor(Cursor groupCursor) {
+        final String supplier = groupCursor.getString(
+                groupCursor.getColumnIndex(SupplierEntry.COLUMN_SUPPLIER_NAME));
+        final int generation = mGeneration;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection("SupplierTreeAdapter.queryBooks");
+                final Cursor cursor;
+                try {
+                    cursor = mResolver.query(BookEntry.CONTENT_URI, BOOK_PROJECTION,
+                            SupplierEntry.BOOKS_SELECTION, new String[] { supplier },
+                            BookEntry.COLUMN_BOOK_NAME);
+                    if (cursor != null) {
+                        // Fill the cursor window here rather than on the main thread.
+                        cursor.getCount();
+                    }
+                } finally {
+                    TraceCompat.endSection();
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onBooksLoaded(supplier, generation, cursor);
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    private void onBooksLoaded(String supplier, int generation, Cursor cursor) {
+        int groupPosition = generation == mGeneration ? findGroup(supplier) : -1;
+        if (groupPosition < 0) {
+            // The groups have been replaced since the query started.
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        setChildrenCursor(groupPosition, cursor);
+    }
+
+    /**
+     * Returns the position of the group of the given supplier, or -1 if there is none.
+     */
+    private int findGroup(String supplier) {
+        Cursor groups = getCursor();
+        if (groups == null || groups.isClosed()) {
+            return -1;
+        }
+        int nameColumnIndex = groups.getColumnIndex(SupplierEntry.COLUMN_SUPPLIER_NAME);
+        for (int i = 0; groups.moveToPosition(i); i++) {
+            if (TextUtils.equals(supplier, groups.getString(nameColumnIndex))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected View newGroupView(Context context, Cursor cursor, boolean isExpanded,
+                                ViewGroup parent) {
+        return LayoutInflater.from(context).inflate(R.layout.supplier_group_item, parent, false);
+    }
+
+    @Override
+    protected void bindGroupView(View view, Context context, Cursor cursor, boolean isExpanded) {
+        TextView nameTextView = view.findViewById(R.id.supplier_name);
+        TextView summaryTextView = view.findViewById(R.id.supplier_summary);
+
+        nameTextView.setText(cursor.getString(
+                cursor.getColumnIndex(SupplierEntry.COLUMN_SUPPLIER_NAME)));
+        summaryTextView.setText(context.getString(R.string.supplier_summary,
+                cursor.getInt(cursor.getColumnIndex(SupplierEntry.COLUMN_TITLES)),
+                cursor.getInt(cursor.getColumnIndex(SupplierEntry.COLUMN_UNITS)),
+                cursor.getDouble(cursor.getColumnIndex(SupplierEntry.COLUMN_VALUE))));
+    }
+
+    @Override
+    protected View newChildView(Context context, Cursor cursor, boolean isLastChild,
+                                ViewGroup parent) {
+        return LayoutInflater.from(context).inflate(R.layout.supplier_book_item, parent, false);
+    }
+
+    @Override
+    protected void bindChildView(View view, Context context, Cursor cursor, boolean isLastChild) {
+        TextView nameTextView = view.findViewById(R.id.name);
+        TextView detailsTextView = view.findViewById(R.id.details);
+
+        nameTextView.setText(cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME)));
+        detailsTextView.setText(context.getString(R.string.supplier_book_details,
+                cursor.getDouble(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE)),
+                cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY))));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.BookContract.ArchiveEntry;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookContract.StockEntry;
+
+/**
+ * Moves books between the live books table and the archive. Titles that are out of stock and
+ * haven't changed or sold for a while are moved to the archive, so the catalog query and the
+ * indexes of the books table only grow with the active inventory. Archived books are restored
+ * as soon as they are needed again: on request, when a shipment of them is received and when
+ * head office changes them.
+ *
+ * <p>Books keep their ID, version and sync identity in the archive, so archiving and restoring
+ * are invisible to sync: they aren't changes and don't show up in the changes URI.
+ */
+final class BookArchive {
+
+    /** Columns copied between the books table and the archive */
+    private static final String BOOK_COLUMNS = TextUtils.join(", ", new String[] {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry.COLUMN_BOOK_VERSION,
+            BookEntry.COLUMN_BOOK_UPDATED_AT,
+            BookEntry.COLUMN_BOOK_SYNC_ID,
+            BookEntry.COLUMN_BOOK_REMOTE_VERSION,
+            BookEntry.COLUMN_BOOK_SYNCED_VERSION,
+            BookEntry.COLUMN_BOOK_COVER,
+            BookEntry.COLUMN_BOOK_SALES_RATE,
+            BookEntry.COLUMN_BOOK_RATE_UPDATED_AT,
+            BookEntry.COLUMN_BOOK_STOCKOUT_AT,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD });
+
+    /**
+     * Selection of the books to archive: out of stock at every location, and neither changed nor
+     * sold since the cutoff time passed twice as argument.
+     */
+    private static final String INACTIVE_SELECTION = BookEntry.COLUMN_BOOK_QUANTITY + " = 0"
+            + " AND " + BookEntry.COLUMN_BOOK_UPDATED_AT + " < ?"
+            + " AND IFNULL(" + BookEntry.COLUMN_BOOK_RATE_UPDATED_AT + ", 0) < ?";
+
+    private BookArchive() {}
+
+    /**
+     * Create the archive table. Its rows have the columns of the books table plus the time they
+     * were archived. The indexes cover the lookups that restore books; the ISBN and sync ID are
+     * only unique among the live books, since a title can be archived more than once.
+     */
+    static void createTable(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE " + ArchiveEntry.TABLE_NAME + " ("
+                + BookEntry._ID + " INTEGER PRIMARY KEY, "
+                + BookEntry.COLUMN_BOOK_NAME + " TEXT NOT NULL, "
+                + BookEntry.COLUMN_BOOK_PRICE + " REAL NOT NULL, "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER DEFAULT 0, "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER + " VARCHAR(10) NOT NULL, "
+                + BookEntry.COLUMN_BOOK_ISBN + " TEXT, "
+                + BookEntry.COLUMN_BOOK_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_BOOK_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_BOOK_SYNC_ID + " TEXT, "
+                + BookEntry.COLUMN_BOOK_REMOTE_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_BOOK_SYNCED_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_BOOK_COVER + " TEXT, "
+                + BookEntry.COLUMN_BOOK_SALES_RATE + " REAL NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_BOOK_RATE_UPDATED_AT + " INTEGER, "
+                + BookEntry.COLUMN_BOOK_STOCKOUT_AT + " INTEGER, "
+                + ArchiveEntry.COLUMN_ARCHIVED_AT + " INTEGER NOT NULL);");
+        database.execSQL("CREATE INDEX archived_books_isbn ON " + ArchiveEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_BOOK_ISBN + ")");
+        database.execSQL("CREATE INDEX archived_books_sync_id ON " + ArchiveEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_BOOK_SYNC_ID + ")");
+        // Lets the provider find the highest version handed out without scanning the archive.
+        database.execSQL("CREATE INDEX archived_books_version ON " + ArchiveEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_BOOK_VERSION + ")");
+    }
+
+    /**
+     * Move the books that have been inactive since the given time to the archive. Their stock
+     * rows, which are all empty, are deleted with them. Must be called inside a transaction.
+     *
+     * @return the number of books archived.
+     */
+    static int archive(SQLiteDatabase database, long inactiveSinceMillis) {
+        Object[] args = new Object[] { inactiveSinceMillis, inactiveSinceMillis };
+        database.execSQL("INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" + BOOK_COLUMNS + ", "
+                + ArchiveEntry.COLUMN_ARCHIVED_AT + ") SELECT " + BOOK_COLUMNS + ", "
+                + System.currentTimeMillis() + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + INACTIVE_SELECTION, args);
+        // The same selection in the same transaction deletes exactly the copied books.
+        return database.delete(BookEntry.TABLE_NAME, INACTIVE_SELECTION, new String[] {
+                String.valueOf(inactiveSinceMillis), String.valueOf(inactiveSinceMillis) });
+    }
+
+    /**
+     * Move the archived books that match the selection back to the books table, with their
+     * quantity in stock at the default location. A book whose ISBN has been given to another
+     * book in the meantime stays archived. Must be called inside a transaction.
+     *
+     * @return the number of books restored.
+     */
+    static int restore(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        Object[] bindArgs = selectionArgs == null ? new Object[0] : selectionArgs;
+        database.execSQL("INSERT OR IGNORE INTO " + BookEntry.TABLE_NAME + " (" + BOOK_COLUMNS
+                + ") SELECT " + BOOK_COLUMNS + " FROM " + ArchiveEntry.TABLE_NAME
+                + " WHERE (" + selection + ")", bindArgs);
+
+        // Only the books that made it back get their stock row and leave the archive.
+        String restoredSelection = "(" + selection + ") AND " + BookEntry._ID + " IN (SELECT "
+                + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME + ")";
+        database.execSQL("INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_BOOK_ID + ", "
+                + StockEntry.COLUMN_QUANTITY + ") SELECT " + LocationEntry.DEFAULT_LOCATION_ID
+                + ", " + BookEntry._ID + ", IFNULL(" + BookEntry.COLUMN_BOOK_QUANTITY + ", 0)"
+                + " FROM " + ArchiveEntry.TABLE_NAME + " WHERE " + restoredSelection, bindArgs);
+        return database.delete(ArchiveEntry.TABLE_NAME, restoredSelection, selectionArgs);
+    }
+}
@@ -1,9 +1,13 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.Calendar;
+
 /**
  * API Contract for the Books app.
  */
@@ -34,6 +38,144 @@ public class BookContract {
      */
     public static final String PATH_BOOKS = "books";
 
+    /**
+     * Path appended to {@link #PATH_BOOKS} to look up a book by its ISBN,
+     * e.g. "content://com.example.android.inventoryapp/books/isbn/9780307887443".
+     */
+    public static final String PATH_ISBN = "isbn";
+
+    /**
+     * Path appended to {@link #PATH_BOOKS} to receive a shipment of books by ISBN,
+     * e.g. "content://com.example.android.inventoryapp/books/receive".
+     */
+    public static final String PATH_RECEIVE = "receive";
+
+    /**
+     * Path appended to the URI of a book to sell it,
+     * e.g. "content://com.example.android.inventoryapp/books/3/sell".
+     */
+    public static final String PATH_SELL = "sell";
+
+    /**
+     * Path appended to the URI of a book for its cover image,
+     * e.g. "content://com.example.android.inventoryapp/books/3/cover".
+     */
+    public static final String PATH_COVER = "cover";
+
+    /**
+     * Path appended to {@link #PATH_BOOKS} to read the books changed since a version,
+     * e.g. "content://com.example.android.inventoryapp/books/changes?since=42".
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to {@link #PATH_BOOKS} for the books that should be reordered,
+     * e.g. "content://com.example.android.inventoryapp/books/reorder?within=14".
+     */
+    public static final String PATH_REORDER = "reorder";
+
+    /**
+     * Path appended to {@link #PATH_BOOKS} to apply changes pulled from head office,
+     * e.g. "content://com.example.android.inventoryapp/books/sync".
+     */
+    public static final String PATH_SYNC = "sync";
+
+    /**
+     * Path appended to {@link #PATH_BOOKS} to export the catalog as a file,
+     * e.g. "content://com.example.android.inventoryapp/books/export".
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path appended to {@link #PATH_BOOKS} for the books grouped by supplier,
+     * e.g. "content://com.example.android.inventoryapp/books/suppliers".
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Path appended to {@link #PATH_BOOKS} for the archived books,
+     * e.g. "content://com.example.android.inventoryapp/books/archive".
+     */
+    public static final String PATH_ARCHIVE = "archive";
+
+    /**
+     * Path appended to the URI of an archived book to restore it,
+     * e.g. "content://com.example.android.inventoryapp/books/archive/3/restore".
+     */
+    public static final String PATH_RESTORE = "restore";
+
+    /**
+     * Path appended to the sync URI to acknowledge changes pushed to head office,
+     * e.g. "content://com.example.android.inventoryapp/books/sync/ack".
+     */
+    public static final String PATH_ACK = "ack";
+
+    /**
+     * Possible path for the store locations,
+     * e.g. "content://com.example.android.inventoryapp/locations".
+     */
+    public static final String PATH_LOCATIONS = "locations";
+
+    /**
+     * Possible path for the sales, e.g. "content://com.example.android.inventoryapp/sales".
+     */
+    public static final String PATH_SALES = "sales";
+
+    /**
+     * Path appended to {@link #PATH_SALES} for the sales report per book,
+     * e.g. "content://com.example.android.inventoryapp/sales/books?from=20180101&to=20181231".
+     */
+    public static final String PATH_BY_BOOK = "books";
+
+    /**
+     * Path appended to {@link #PATH_SALES} for the sales report per day,
+     * e.g. "content://com.example.android.inventoryapp/sales/days?from=20180101&to=20181231".
+     */
+    public static final String PATH_BY_DAY = "days";
+
+    /**
+     * Optional query parameter limiting the number of rows a query returns,
+     * e.g. "content://com.example.android.inventoryapp/books?limit=20".
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter of the changes URI holding the version after which changes are returned.
+     */
+    public static final String QUERY_PARAMETER_SINCE = "since";
+
+    /**
+     * Optional query parameter of the changes URI holding the ID of the last change read at the
+     * version of {@link #QUERY_PARAMETER_SINCE}. Several books can change at the same version, so
+     * a page that ends inside such a group is continued from the version and the ID together.
+     * Without it, every change at that version counts as read.
+     */
+    public static final String QUERY_PARAMETER_SINCE_ID = "since_id";
+
+    /**
+     * Query parameter of the sales reports holding the first day of the report, as returned by
+     * {@link SaleEntry#toDay(long)}. Defaults to the first day with sales.
+     */
+    public static final String QUERY_PARAMETER_FROM = "from";
+
+    /**
+     * Query parameter of the sales reports holding the last day of the report, inclusive.
+     * Defaults to the last day with sales.
+     */
+    public static final String QUERY_PARAMETER_TO = "to";
+
+    /**
+     * Query parameter of the reorder URI holding the number of days within which a book must be
+     * expected to sell out to be returned. Without it, every book that is selling is returned.
+     */
+    public static final String QUERY_PARAMETER_WITHIN = "within";
+
+    /**
+     * Query parameter of the URI of a single book holding the version the caller read. An update
+     * of the URI only applies if the book is still at that version.
+     */
+    public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
     /**
      * Inner class that defines constant values for the books database table.
      * Each entry in the table represents a single book.
@@ -43,6 +185,76 @@ public class BookContract {
         /** The content URI to access the book data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BOOKS);
 
+        /**
+         * The content URI to look up books by ISBN. Append the ISBN to get the URI of a single
+         * book, see {@link #buildIsbnUri(String)}.
+         */
+        public static final Uri CONTENT_ISBN_URI = Uri.withAppendedPath(CONTENT_URI, PATH_ISBN);
+
+        /**
+         * The content URI to read the books that changed after a given version, see
+         * {@link #buildChangesUri(long, long)}. Rows are ordered by {@link #COLUMN_BOOK_VERSION}
+         * then {@link #_ID}, and have the book columns plus {@link #COLUMN_DELETED}. Deleted books
+         * only carry their ID, version and the time of the deletion in
+         * {@link #COLUMN_BOOK_UPDATED_AT}.
+         */
+        public static final Uri CONTENT_CHANGES_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The content URI of the books to reorder: the books that are selling, most urgent first,
+         * i.e. in the order of their {@link #COLUMN_BOOK_STOCKOUT_AT}. Besides the requested
+         * columns, rows have the computed {@link #DAYS_OF_STOCK}. It is read through the index on
+         * the stock-out time, so it doesn't scan the catalog or the sales history.
+         */
+        public static final Uri CONTENT_REORDER_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_REORDER);
+
+        /**
+         * The content URI to export the catalog as a file, either {@link #EXPORT_CSV_MIME_TYPE}
+         * or {@link #EXPORT_JSON_MIME_TYPE}. Open it with
+         * {@link ContentResolver#openTypedAssetFileDescriptor(Uri, String, android.os.Bundle)}
+         * and the wanted type, or with {@link ContentResolver#openInputStream(Uri)} for CSV. The
+         * export is streamed through a pipe while the catalog is read, so the first books can be
+         * read right away. Each book has the columns {@link #_ID}, {@link #COLUMN_BOOK_NAME},
+         * {@link #COLUMN_BOOK_ISBN}, {@link #COLUMN_BOOK_PRICE}, {@link #COLUMN_BOOK_QUANTITY},
+         * {@link #COLUMN_BOOK_SUPPLIER_NAME}, {@link #COLUMN_BOOK_SUPPLIER_NUMBER} and
+         * {@link #COLUMN_BOOK_UPDATED_AT}, which are the CSV header and the JSON keys.
+         */
+        public static final Uri CONTENT_EXPORT_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The content URI to receive a shipment. Each {@link ContentValues} passed to
+         * {@link ContentResolver#bulkInsert(Uri, ContentValues[])} holds an
+         * {@link #COLUMN_BOOK_ISBN} and the received {@link #COLUMN_BOOK_QUANTITY}. Books that
+         * already exist have their quantity increased; unknown ISBNs are inserted as new books
+         * and must then carry all the other book columns too. The whole shipment is committed in
+         * a single transaction.
+         */
+        public static final Uri CONTENT_RECEIVE_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_RECEIVE);
+
+        /**
+         * The content URI to apply changes pulled from head office. Each {@link ContentValues}
+         * passed to {@link ContentResolver#bulkInsert(Uri, ContentValues[])} is one change,
+         * identified by {@link #COLUMN_BOOK_SYNC_ID} and carrying the head office
+         * {@link #COLUMN_BOOK_REMOTE_VERSION}, {@link #COLUMN_DELETED} and, unless it's a deletion,
+         * all the book columns. A change is only applied if its remote version is newer than the
+         * one of the local book, and changes with an invalid book are skipped. All values of one
+         * call are applied in a single transaction.
+         */
+        public static final Uri CONTENT_SYNC_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SYNC);
+
+        /**
+         * The content URI to acknowledge changes pushed to head office. Each
+         * {@link ContentValues} holds the {@link #COLUMN_BOOK_SYNC_ID} and the
+         * {@link #COLUMN_BOOK_VERSION} that was pushed, and the {@link #COLUMN_BOOK_REMOTE_VERSION}
+         * head office assigned to it. Books changed again since they were pushed stay unsynced.
+         */
+        public static final Uri CONTENT_SYNC_ACK_URI =
+                Uri.withAppendedPath(CONTENT_SYNC_URI, PATH_ACK);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of books.
          */
@@ -99,5 +311,932 @@ public class BookContract {
          * Type: INTEGER
          */
         public static final String COLUMN_BOOK_SUPPLIER_NUMBER = "supplier_phone_number";
+
+        /**
+         * ISBN of the book, normalized with {@link #normalizeIsbn(String)}. Optional, but unique
+         * when present.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_BOOK_ISBN = "isbn";
+
+        /**
+         * Version of the last change to the book. Versions are assigned by the provider from a
+         * single counter that increases with every write, so they order all changes to all books.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_VERSION = "version";
+
+        /**
+         * Time of the last change to the book, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_UPDATED_AT = "updated_at";
+
+        /**
+         * Whether a row of the {@link #CONTENT_CHANGES_URI} is a deleted book (1) or not (0).
+         * Only present in change rows.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DELETED = "deleted";
+
+        /**
+         * Identity of the book shared with head office and the other stores. Assigned by the
+         * provider when a book is inserted.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_BOOK_SYNC_ID = "sync_id";
+
+        /**
+         * Head office version of the book, as of the last sync.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_REMOTE_VERSION = "remote_version";
+
+        /**
+         * Value of {@link #COLUMN_BOOK_VERSION} as of the last sync. The book has local changes
+         * that haven't been pushed to head office yet while its version is higher.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_SYNCED_VERSION = "synced_version";
+
+        /**
+         * File name of the cover image of the book, or null if it has none. The image itself is
+         * read through {@link #buildCoverUri(long)}, and the file name changes whenever the cover
+         * does, so it can be used as a cache key.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_BOOK_COVER = "cover";
+
+        /**
+         * Key of the encoded image in the {@link ContentValues} used to update the cover URI.
+         */
+        public static final String COVER_DATA = "data";
+
+        /**
+         * The MIME type of the cover URI. Covers are stored as JPEG.
+         */
+        public static final String COVER_MIME_TYPE = "image/jpeg";
+
+        /**
+         * The MIME type of the CSV export: one line per book after a header line, separated
+         * by CRLF, with fields quoted as in RFC 4180.
+         */
+        public static final String EXPORT_CSV_MIME_TYPE = "text/csv";
+
+        /**
+         * The MIME type of the JSON export: an array with one object per book.
+         */
+        public static final String EXPORT_JSON_MIME_TYPE = "application/json";
+
+        /**
+         * Recent sales rate of the book in copies per day: an exponentially weighted moving
+         * average that the provider updates on every sale, in which older sales count less.
+         *
+         * Type: REAL
+         */
+        public static final String COLUMN_BOOK_SALES_RATE = "sales_rate";
+
+        /**
+         * Time of the last update of {@link #COLUMN_BOOK_SALES_RATE}, in milliseconds since the
+         * epoch, or null if the book has never been sold.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_RATE_UPDATED_AT = "rate_updated_at";
+
+        /**
+         * Time at which the book is expected to sell out at its sales rate, in milliseconds since
+         * the epoch, or null if it isn't selling. Kept up to date by the database whenever the
+         * quantity or the sales rate changes.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_STOCKOUT_AT = "stockout_at";
+
+        /**
+         * Reorder threshold of the book: it is low on stock once its quantity is at or below the
+         * threshold, and crossing it raises a low stock alert. 0 by default, i.e. the alert is
+         * raised when the book sells out.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Computed column of the {@link #CONTENT_REORDER_URI}: the number of days of stock left
+         * at the current sales rate.
+         *
+         * Type: REAL
+         */
+        public static final String DAYS_OF_STOCK = "days_of_stock";
+
+        /**
+         * Returns the reorder URI restricted to the books expected to sell out within the given
+         * number of days.
+         */
+        public static Uri buildReorderUri(int withinDays) {
+            return CONTENT_REORDER_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_WITHIN, String.valueOf(withinDays))
+                    .build();
+        }
+
+        /**
+         * Returns the URI of a single book that only updates the book if it is still at the given
+         * {@link #COLUMN_BOOK_VERSION}, i.e. if nobody changed it since it was read. Otherwise the
+         * update changes nothing and returns 0.
+         */
+        public static Uri buildExpectedVersionUri(Uri bookUri, long version) {
+            return bookUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_EXPECTED_VERSION,
+                            String.valueOf(version))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of the books changed after the given version. Pass 0 to read
+         * every book.
+         */
+        public static Uri buildChangesUri(long sinceVersion) {
+            return CONTENT_CHANGES_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(sinceVersion))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of the changes after the one with the given version and book
+         * ID, i.e. after the last row of the previous page.
+         */
+        public static Uri buildChangesUri(long sinceVersion, long sinceId) {
+            return buildChangesUri(sinceVersion).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE_ID, String.valueOf(sinceId))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI to sell the book with the given ID at the
+         * {@link LocationEntry#DEFAULT_LOCATION_ID default location}, or if it doesn't hold
+         * enough copies, at the first location that does in the order of their IDs. Update it
+         * with {@link StockEntry#SELL_UNITS} to sell more than one copy.
+         */
+        public static Uri buildSellUri(long bookId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(bookId))
+                    .appendPath(PATH_SELL)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of the cover image of the book with the given ID. Open it with
+         * {@link ContentResolver#openInputStream(Uri)} to read the image, update it with the
+         * JPEG encoded image in {@link #COVER_DATA} to replace it, and delete it to remove it.
+         */
+        public static Uri buildCoverUri(long bookId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(bookId))
+                    .appendPath(PATH_COVER)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of the book with the given ISBN.
+         *
+         * @throws IllegalArgumentException if the ISBN has no digits
+         */
+        public static Uri buildIsbnUri(String isbn) {
+            String normalized = normalizeIsbn(isbn);
+            if (normalized == null) {
+                throw new IllegalArgumentException("Invalid ISBN: " + isbn);
+            }
+            return Uri.withAppendedPath(CONTENT_ISBN_URI, normalized);
+        }
+
+        /**
+         * Normalizes an ISBN as typed or scanned by removing hyphens, spaces and other separators.
+         *
+         * @return the digits of the ISBN (and a trailing check character X), or null if nothing
+         *         is left.
+         */
+        public static String normalizeIsbn(String isbn) {
+            if (isbn == null) {
+                return null;
+            }
+            StringBuilder normalized = new StringBuilder(isbn.length());
+            for (int i = 0; i < isbn.length(); i++) {
+                char c = isbn.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    normalized.append(c);
+                } else if (c == 'x' || c == 'X') {
+                    normalized.append('X');
+                }
+            }
+            return normalized.length() == 0 ? null : normalized.toString();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the archived books database table. Each entry
+     * in the table is a book that was moved out of the books table because it had been out of
+     * stock and inactive for a while, see {@link ArchiveCall}. Archived books keep their ID and
+     * have the columns of {@link BookEntry}, plus {@link #COLUMN_ARCHIVED_AT}. They don't show up
+     * in any of the book URIs until they are restored.
+     */
+    public static final class ArchiveEntry {
+
+        /**
+         * The content URI to search the archived books. Query it with a selection on the book
+         * columns, e.g. by name or ISBN; append the ID of a book for a single archived book.
+         */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_ARCHIVE);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of archived books.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "/" + PATH_ARCHIVE;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single archived book.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "/" + PATH_ARCHIVE;
+
+        /** Name of database table for archived books */
+        public static final String TABLE_NAME = "archived_books";
+
+        /**
+         * Time the book was archived, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ARCHIVED_AT = "archived_at";
+
+        /**
+         * Returns the content URI to restore the archived book with the given ID. Update it with
+         * empty values to move the book back to the books table, with its old ID; the update
+         * returns 0 if the book isn't archived, or if its ISBN has been given to another book.
+         * Books are also restored automatically when a shipment of them is received or head
+         * office changes them.
+         */
+        public static Uri buildRestoreUri(long bookId) {
+            return ContentUris.withAppendedId(CONTENT_URI, bookId).buildUpon()
+                    .appendPath(PATH_RESTORE)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the supplier groups of the catalog. Each row
+     * sums up the books of one supplier; the books themselves are queried from
+     * {@link BookEntry#CONTENT_URI} with the {@link #BOOKS_SELECTION}.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /**
+         * The content URI of the supplier groups, ordered by {@link #COLUMN_SUPPLIER_NAME}. The
+         * columns are fixed. The groups are computed by a single GROUP BY over an index that
+         * covers the supplier, quantity and price of the books, so the query neither reads the
+         * books table nor sorts.
+         */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of supplier groups.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "/" + PATH_SUPPLIERS;
+
+        /**
+         * Lowest ID of the books of the supplier, which identifies the group while the supplier
+         * has books.
+         *
+         * Type: INTEGER
+         */
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the supplier.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_SUPPLIER_NAME = BookEntry.COLUMN_BOOK_SUPPLIER_NAME;
+
+        /**
+         * Number of books of the supplier.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TITLES = "titles";
+
+        /**
+         * Total quantity in stock of the books of the supplier, over all locations.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UNITS = "units";
+
+        /**
+         * Total value of the stock of the books of the supplier, at their current prices.
+         *
+         * Type: REAL
+         */
+        public static final String COLUMN_VALUE = "value";
+
+        /**
+         * Selection of the books of a supplier, whose name is the argument. It is read through the
+         * same index as the groups.
+         */
+        public static final String BOOKS_SELECTION = BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " = ?";
+    }
+
+    /**
+     * Inner class that defines constant values for the book tombstones database table.
+     * Each entry in the table records the deletion of a book, so changes can be read
+     * incrementally.
+     */
+    public static final class TombstoneEntry {
+
+        /** Name of database table for tombstones */
+        public static final String TABLE_NAME = "book_tombstones";
+
+        /**
+         * ID of the deleted book.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+
+        /**
+         * Version of the deletion.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_VERSION = "version";
+
+        /**
+         * Time of the deletion, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DELETED_AT = "deleted_at";
+
+        /**
+         * Sync identity of the deleted book.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * Head office version of the deleted book.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_REMOTE_VERSION = "remote_version";
+
+        /**
+         * Value of {@link #COLUMN_VERSION} as of the last sync.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SYNCED_VERSION = "synced_version";
+    }
+
+    /**
+     * Inner class that defines constant values for the locations database table.
+     * Each entry in the table represents a single store.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /** The content URI to access the location data in the provider */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of locations.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single location.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /** Name of database table for locations */
+        public static final String TABLE_NAME = "locations";
+
+        /**
+         * ID of the location that always exists. Stock that isn't assigned to a particular store,
+         * and sales made from the all-locations catalog, are booked against this location.
+         */
+        public static final long DEFAULT_LOCATION_ID = 1;
+
+        /**
+         * Unique ID number for the location (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the location.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_LOCATION_NAME = "name";
+
+        /**
+         * Returns the content URI of the catalog of the given location. Its rows have the same
+         * columns as the books table, except that {@link BookEntry#COLUMN_BOOK_QUANTITY} is the
+         * stock held at this location. Insert {@link StockEntry#COLUMN_BOOK_ID} and
+         * {@link StockEntry#COLUMN_QUANTITY} to stock a book at the location. Selections on this
+         * URI must qualify columns that exist in both tables, such as "books._id".
+         */
+        public static Uri buildBooksUri(long locationId) {
+            return ContentUris.withAppendedId(CONTENT_URI, locationId).buildUpon()
+                    .appendPath(PATH_BOOKS)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of a single book in the catalog of the given location. Update
+         * it with {@link StockEntry#COLUMN_QUANTITY} to set the stock held at the location.
+         */
+        public static Uri buildStockUri(long locationId, long bookId) {
+            return ContentUris.withAppendedId(buildBooksUri(locationId), bookId);
+        }
+
+        /**
+         * Returns the content URI to sell a book at the given location. Update it with
+         * {@link StockEntry#SELL_UNITS} to sell more than one copy.
+         */
+        public static Uri buildSellUri(long locationId, long bookId) {
+            return buildStockUri(locationId, bookId).buildUpon()
+                    .appendPath(PATH_SELL)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the stock database table.
+     * Each entry in the table is the quantity of one book held at one location. The quantity of a
+     * book in the books table is always the sum of its stock over all locations.
+     */
+    public static final class StockEntry {
+
+        /** Name of database table for stock */
+        public static final String TABLE_NAME = "stock";
+
+        /**
+         * ID of the location holding the stock.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
+        /**
+         * ID of the book in stock.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+
+        /**
+         * Quantity of the book held at the location.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Key of the number of copies to sell in the values passed to a sell URI. Defaults to 1.
+         */
+        public static final String SELL_UNITS = "units";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales database table. Each entry in the
+     * table is a single sale, recorded by the provider whenever a book is sold through a sell
+     * URI. Sales are also rolled up per book and day as they are recorded, and reports should be
+     * read from the rollups through {@link #CONTENT_BY_BOOK_URI} and {@link #CONTENT_BY_DAY_URI}.
+     */
+    public static final class SaleEntry implements BaseColumns {
+
+        /** The content URI to read the individual sales */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SALES);
+
+        /**
+         * The content URI of the sales report per book: the units sold and revenue of every book
+         * sold between the {@link #QUERY_PARAMETER_FROM} and {@link #QUERY_PARAMETER_TO} days.
+         * Rows have the columns {@link #COLUMN_BOOK_ID}, {@link BookEntry#COLUMN_BOOK_NAME},
+         * {@link #COLUMN_UNITS} and {@link #COLUMN_REVENUE}.
+         */
+        public static final Uri CONTENT_BY_BOOK_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_BY_BOOK);
+
+        /**
+         * The content URI of the sales report per day: the units sold and revenue of every day
+         * with sales between the {@link #QUERY_PARAMETER_FROM} and {@link #QUERY_PARAMETER_TO}
+         * days. Rows have the columns {@link #COLUMN_DAY}, {@link #COLUMN_UNITS} and
+         * {@link #COLUMN_REVENUE}.
+         */
+        public static final Uri CONTENT_BY_DAY_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_BY_DAY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} and the reports.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /** Name of database table for sales */
+        public static final String TABLE_NAME = "sales";
+
+        /**
+         * ID of the book sold.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+
+        /**
+         * ID of the location the book was sold at.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
+        /**
+         * Number of copies sold.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UNITS = "units";
+
+        /**
+         * Price of the book at the time of the sale.
+         *
+         * Type: REAL
+         */
+        public static final String COLUMN_PRICE = "price";
+
+        /**
+         * Time of the sale, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SOLD_AT = "sold_at";
+
+        /**
+         * Day of the sale, as returned by {@link #toDay(long)}.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DAY = "day";
+
+        /**
+         * Revenue of the sales in a report row, the sum of units times price.
+         *
+         * Type: REAL
+         */
+        public static final String COLUMN_REVENUE = "revenue";
+
+        /**
+         * Returns the day of the given time in the device's time zone, as a number of the form
+         * yyyymmdd, e.g. 20181231. Days compare in date order.
+         */
+        public static int toDay(long timeMillis) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(timeMillis);
+            return calendar.get(Calendar.YEAR) * 10000
+                    + (calendar.get(Calendar.MONTH) + 1) * 100
+                    + calendar.get(Calendar.DAY_OF_MONTH);
+        }
+
+        /**
+         * Returns the given report URI restricted to the days from {@code fromDay} to
+         * {@code toDay}, both inclusive.
+         */
+        public static Uri buildReportUri(Uri reportUri, int fromDay, int toDay) {
+            return reportUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FROM, String.valueOf(fromDay))
+                    .appendQueryParameter(QUERY_PARAMETER_TO, String.valueOf(toDay))
+                    .build();
+        }
+    }
+
+    /**
+     * Constants of the rollup of the sales per book and day, kept up to date by the provider as
+     * sales are recorded. It is read through {@link SaleEntry#CONTENT_BY_BOOK_URI}.
+     */
+    public static final class DailyBookSalesEntry {
+
+        /** Name of database table for the sales per book and day */
+        public static final String TABLE_NAME = "daily_book_sales";
+
+        public static final String COLUMN_DAY = SaleEntry.COLUMN_DAY;
+        public static final String COLUMN_BOOK_ID = SaleEntry.COLUMN_BOOK_ID;
+        public static final String COLUMN_UNITS = SaleEntry.COLUMN_UNITS;
+        public static final String COLUMN_REVENUE = SaleEntry.COLUMN_REVENUE;
+    }
+
+    /**
+     * Constants of the rollup of the sales per day over all books, kept up to date by the
+     * provider as sales are recorded. It is read through {@link SaleEntry#CONTENT_BY_DAY_URI}.
+     */
+    public static final class DailySalesEntry {
+
+        /** Name of database table for the sales per day */
+        public static final String TABLE_NAME = "daily_sales";
+
+        public static final String COLUMN_DAY = SaleEntry.COLUMN_DAY;
+        public static final String COLUMN_UNITS = SaleEntry.COLUMN_UNITS;
+        public static final String COLUMN_REVENUE = SaleEntry.COLUMN_REVENUE;
+    }
+
+    /**
+     * Constants of the batch call, which runs many point-of-sale operations with a single
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI}, i.e. in one cross-process round trip and one transaction.
+     *
+     * <p>The extras hold any of the request arrays below. The operations run in a fixed order:
+     * first the ISBNs are looked up, then the sales are made, then the quantities are read, so
+     * the quantities already reflect the sales. The result holds one packed array per request
+     * array, in the order of the request.
+     */
+    public static final class BatchCall {
+
+        /** Name of the batch method */
+        public static final String METHOD_BATCH = "batch";
+
+        /**
+         * Location to sell at and read the quantities of, defaults to
+         * {@link LocationEntry#DEFAULT_LOCATION_ID}.
+         *
+         * Type: long
+         */
+        public static final String KEY_LOCATION_ID = "location_id";
+
+        /**
+         * ISBNs to look up. The result holds their book IDs in {@link #KEY_BOOK_IDS}.
+         *
+         * Type: String[]
+         */
+        public static final String KEY_LOOKUP_ISBNS = "lookup_isbns";
+
+        /**
+         * IDs of the books to sell, a book may be listed more than once. The result holds whether
+         * each sale was made in {@link #KEY_SOLD}.
+         *
+         * Type: long[]
+         */
+        public static final String KEY_SELL_BOOK_IDS = "sell_book_ids";
+
+        /**
+         * Number of copies of each sale, in the order of {@link #KEY_SELL_BOOK_IDS}. Optional,
+         * every sale is of 1 copy without it.
+         *
+         * Type: int[]
+         */
+        public static final String KEY_SELL_UNITS = "sell_units";
+
+        /**
+         * IDs of the books to read the quantity in stock at the location of. The result holds the
+         * quantities in {@link #KEY_QUANTITIES}.
+         *
+         * Type: long[]
+         */
+        public static final String KEY_QUANTITY_BOOK_IDS = "quantity_book_ids";
+
+        /**
+         * Result: book ID of each looked up ISBN, or {@link #NOT_FOUND}.
+         *
+         * Type: long[]
+         */
+        public static final String KEY_BOOK_IDS = "book_ids";
+
+        /**
+         * Result: whether each sale was made. A sale isn't made if the location doesn't have
+         * enough copies in stock; the other operations of the batch still are.
+         *
+         * Type: boolean[]
+         */
+        public static final String KEY_SOLD = "sold";
+
+        /**
+         * Result: quantity of each book in stock at the location, or {@link #NOT_FOUND}.
+         *
+         * Type: int[]
+         */
+        public static final String KEY_QUANTITIES = "quantities";
+
+        /** Result value of a book or quantity that wasn't found */
+        public static final int NOT_FOUND = -1;
+    }
+
+    /**
+     * Constants of the checkout call, which sells a whole cart with
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI}. Unlike the sales of a {@link BatchCall batch}, the sales of a
+     * checkout are all or nothing: either every line is sold in one transaction, or nothing is
+     * changed and the result lists the books the location doesn't have enough copies of.
+     */
+    public static final class CheckoutCall {
+
+        /** Name of the checkout method */
+        public static final String METHOD_CHECKOUT = "checkout";
+
+        /**
+         * Location to sell at, defaults to {@link LocationEntry#DEFAULT_LOCATION_ID}.
+         *
+         * Type: long
+         */
+        public static final String KEY_LOCATION_ID = "location_id";
+
+        /**
+         * IDs of the books in the cart. A book may be listed more than once, its units are added
+         * up.
+         *
+         * Type: long[]
+         */
+        public static final String KEY_BOOK_IDS = "book_ids";
+
+        /**
+         * Number of copies of each book, in the order of {@link #KEY_BOOK_IDS}.
+         *
+         * Type: int[]
+         */
+        public static final String KEY_UNITS = "units";
+
+        /**
+         * Result: whether the cart was sold.
+         *
+         * Type: boolean
+         */
+        public static final String KEY_COMPLETED = "completed";
+
+        /**
+         * Result: IDs of the books that are short, in the order of the cart. Only set if the cart
+         * wasn't sold.
+         *
+         * Type: long[]
+         */
+        public static final String KEY_SHORT_BOOK_IDS = "short_book_ids";
+
+        /**
+         * Result: quantity in stock at the location of each short book, in the order of
+         * {@link #KEY_SHORT_BOOK_IDS}.
+         *
+         * Type: int[]
+         */
+        public static final String KEY_SHORT_AVAILABLE = "short_available";
+    }
+
+    /**
+     * Constants of the generate call, which fills the catalog with synthetic books for
+     * performance testing with {@link ContentResolver#call(Uri, String, String,
+     * android.os.Bundle)} on {@link #BASE_CONTENT_URI}. The books are inserted in a single
+     * transaction, and the same seed always gives the same books. Only debug builds support it.
+     */
+    public static final class GenerateCall {
+
+        /** Name of the generate method */
+        public static final String METHOD_GENERATE = "generate";
+
+        /**
+         * Number of books to generate. The result holds the number of books inserted under the
+         * same key.
+         *
+         * Type: int
+         */
+        public static final String KEY_COUNT = "count";
+
+        /**
+         * Seed of the generated books, defaults to {@link #DEFAULT_SEED}.
+         *
+         * Type: long
+         */
+        public static final String KEY_SEED = "seed";
+
+        /** Seed used when none is given */
+        public static final long DEFAULT_SEED = 20180701L;
+    }
+
+    /**
+     * Constants of the archive call, which moves the books that are out of stock and have been
+     * inactive for a number of days to the {@link ArchiveEntry archive} with
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI}. A book is inactive if it was neither changed nor sold. The
+     * books are moved in a single transaction. It is run daily by the maintenance job.
+     */
+    public static final class ArchiveCall {
+
+        /** Name of the archive method */
+        public static final String METHOD_ARCHIVE = "archive";
+
+        /**
+         * Number of days a book must have been inactive to be archived, defaults to
+         * {@link #DEFAULT_INACTIVE_DAYS}. Keep it well above the sync interval, so the last
+         * changes of a book have been pushed by the time it is archived.
+         *
+         * Type: int
+         */
+        public static final String KEY_INACTIVE_DAYS = "inactive_days";
+
+        /**
+         * Result: number of books archived.
+         *
+         * Type: int
+         */
+        public static final String KEY_COUNT = "count";
+
+        /** Number of days used when none is given */
+        public static final int DEFAULT_INACTIVE_DAYS = 180;
+    }
+
+    /**
+     * Constants of the bulk edit call, which applies one edit to many books with
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI}. The edit runs as a single UPDATE or DELETE of the listed books
+     * in one transaction, gives all of them the same new version, and notifies listeners once.
+     *
+     * <p>The extras hold the {@link #KEY_BOOK_IDS} and exactly one edit: {@link #KEY_PRICE},
+     * {@link #KEY_PRICE_PERCENT}, {@link #KEY_SUPPLIER_NAME} with {@link #KEY_SUPPLIER_NUMBER},
+     * {@link #KEY_RESTOCK_UNITS} or {@link #KEY_DELETE}.
+     */
+    public static final class BulkEditCall {
+
+        /** Name of the bulk edit method */
+        public static final String METHOD_BULK_EDIT = "bulk_edit";
+
+        /**
+         * IDs of the books to edit.
+         *
+         * Type: long[]
+         */
+        public static final String KEY_BOOK_IDS = "book_ids";
+
+        /**
+         * Edit: set the price of the books.
+         *
+         * Type: double
+         */
+        public static final String KEY_PRICE = "price";
+
+        /**
+         * Edit: change the price of the books by a percentage, e.g. -20 for a 20% discount. New
+         * prices are rounded to the cent.
+         *
+         * Type: double
+         */
+        public static final String KEY_PRICE_PERCENT = "price_percent";
+
+        /**
+         * Edit: set the supplier name of the books, together with {@link #KEY_SUPPLIER_NUMBER}.
+         *
+         * Type: String
+         */
+        public static final String KEY_SUPPLIER_NAME = "supplier_name";
+
+        /**
+         * Edit: set the supplier phone number of the books, together with
+         * {@link #KEY_SUPPLIER_NAME}.
+         *
+         * Type: String
+         */
+        public static final String KEY_SUPPLIER_NUMBER = "supplier_number";
+
+        /**
+         * Edit: add this many copies of each book to the stock at the
+         * {@link LocationEntry#DEFAULT_LOCATION_ID default location}.
+         *
+         * Type: int
+         */
+        public static final String KEY_RESTOCK_UNITS = "restock_units";
+
+        /**
+         * Edit: delete the books, leaving tombstones like any other deletion.
+         *
+         * Type: boolean
+         */
+        public static final String KEY_DELETE = "delete";
+
+        /**
+         * Result: number of books edited.
+         *
+         * Type: int
+         */
+        public static final String KEY_COUNT = "count";
     }
 }
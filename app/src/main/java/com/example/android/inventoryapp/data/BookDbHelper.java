@@ -5,7 +5,14 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import com.example.android.inventoryapp.data.BookContract.ArchiveEntry;
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.DailyBookSalesEntry;
+import com.example.android.inventoryapp.data.BookContract.DailySalesEntry;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookContract.SaleEntry;
+import com.example.android.inventoryapp.data.BookContract.StockEntry;
+import com.example.android.inventoryapp.data.BookContract.TombstoneEntry;
 
 /**
  * Database helper for Books app. Manages database creation and version management.
@@ -18,7 +25,42 @@ public class BookDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 13;
+
+    /** Number of milliseconds in a day */
+    static final double DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Time constant of the sales rate in days. The weight of a sale in the rate halves about every
+     * 0.7 time constants, so the rate mostly reflects the sales of the last couple of weeks.
+     */
+    static final double SALES_RATE_TIME_CONSTANT_DAYS = 14;
+
+    /**
+     * SQL expression of the time a book is expected to sell out, for use in a trigger on the
+     * books table: the current time plus the quantity divided by the sales rate, or null if the
+     * book isn't selling.
+     */
+    private static final String STOCKOUT_AT_EXPRESSION = "CASE WHEN NEW."
+            + BookEntry.COLUMN_BOOK_SALES_RATE + " > 0 THEN"
+            + " CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)"
+            + " + CAST(NEW." + BookEntry.COLUMN_BOOK_QUANTITY + " / NEW."
+            + BookEntry.COLUMN_BOOK_SALES_RATE + " * 86400000 AS INTEGER)"
+            + " ELSE NULL END";
+
+    /**
+     * SQL expression of a random sync ID in the format of {@link java.util.UUID#toString()}, the
+     * format of the sync IDs given by the provider: a version 4 UUID in lower case hex.
+     */
+    private static final String RANDOM_SYNC_ID_EXPRESSION = "lower(hex(randomblob(4))) || '-'"
+            + " || lower(hex(randomblob(2))) || '-4'"
+            + " || substr(lower(hex(randomblob(2))), 2) || '-'"
+            + " || substr('89ab', 1 + (abs(random()) % 4), 1)"
+            + " || substr(lower(hex(randomblob(2))), 2) || '-'"
+            + " || lower(hex(randomblob(6)))";
+
+    /** Whether the upgrade asked for incremental auto-vacuum, which is requested on open */
+    private boolean mEnableIncrementalVacuum;
 
     /**
      * Constructs a new instance of {@link BookDbHelper}.
@@ -45,6 +87,27 @@ public class BookDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_BOOKS_TABLE);
+
+        // Bring the version 1 schema up to date with the same steps used for existing databases.
+        onUpgrade(db, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * This is called when the database has been opened, after any upgrade has been committed.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // The auto-vacuum mode only changes with a full vacuum, which rewrites the whole file and
+        // is far too slow for the first query after an upgrade. Only the mode is asked for here,
+        // the maintenance job runs the vacuum while the device is idle.
+        if (mEnableIncrementalVacuum && !db.isReadOnly()) {
+            mEnableIncrementalVacuum = false;
+            DatabaseMaintenance.requestIncrementalVacuum(db);
+        }
+        if (!db.isReadOnly()) {
+            LowStockAlerts.createIndex(db);
+        }
     }
 
     /**
@@ -52,6 +115,261 @@ public class BookDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        // Each case upgrades the schema by one version and falls through to the next one.
+        switch (oldVersion) {
+            case 1:
+                upgradeToVersion2(db);
+            case 2:
+                upgradeToVersion3(db);
+            case 3:
+                upgradeToVersion4(db);
+            case 4:
+                upgradeToVersion5(db);
+            case 5:
+                upgradeToVersion6(db);
+            case 6:
+                upgradeToVersion7(db);
+            case 7:
+                upgradeToVersion8(db);
+            case 8:
+                upgradeToVersion9(db);
+            case 9:
+                upgradeToVersion10(db);
+            case 10:
+                upgradeToVersion11(db);
+            case 11:
+                upgradeToVersion12(db);
+            case 12:
+                upgradeToVersion13(db);
+        }
+    }
+
+    /**
+     * Version 2 adds the ISBN of the book, with a unique index for lookups by ISBN.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_ISBN + " TEXT");
+        db.execSQL("CREATE UNIQUE INDEX books_isbn ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_BOOK_ISBN + ")");
+    }
+
+    /**
+     * Version 3 splits the stock of each book over store locations. All existing stock is moved
+     * to the default location, and the quantity in the books table becomes the total over all
+     * locations, which the provider keeps up to date.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL UNIQUE);");
+        db.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " ("
+                + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_NAME + ") VALUES ("
+                + LocationEntry.DEFAULT_LOCATION_ID + ", 'Main store')");
+
+        db.execSQL("CREATE TABLE " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                + StockEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + StockEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0 CHECK ("
+                + StockEntry.COLUMN_QUANTITY + " >= 0), "
+                + "PRIMARY KEY (" + StockEntry.COLUMN_LOCATION_ID + ", "
+                + StockEntry.COLUMN_BOOK_ID + "));");
+
+        // Covering indexes, so the catalog of one location and the stock of one book are both
+        // read from the index alone, without touching the stock of other locations.
+        db.execSQL("CREATE INDEX stock_location ON " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_BOOK_ID + ", "
+                + StockEntry.COLUMN_QUANTITY + ")");
+        db.execSQL("CREATE INDEX stock_book ON " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_BOOK_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ", "
+                + StockEntry.COLUMN_QUANTITY + ")");
+
+        // Move the existing stock to the default location.
+        db.execSQL("INSERT INTO " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_BOOK_ID + ", "
+                + StockEntry.COLUMN_QUANTITY + ") SELECT " + LocationEntry.DEFAULT_LOCATION_ID
+                + ", " + BookEntry._ID + ", IFNULL(" + BookEntry.COLUMN_BOOK_QUANTITY + ", 0)"
+                + " FROM " + BookEntry.TABLE_NAME);
+
+        // Deleting a book deletes its stock at every location.
+        db.execSQL("CREATE TRIGGER books_delete_stock AFTER DELETE ON " + BookEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + StockEntry.TABLE_NAME + " WHERE "
+                + StockEntry.COLUMN_BOOK_ID + " = OLD." + BookEntry._ID + "; END");
+    }
+
+    /**
+     * Version 4 adds change tracking: a version and update time on every book, indexed by
+     * version, and tombstones for deleted books. Existing books get version 1, so reading the
+     * changes since version 0 returns all of them.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_VERSION + " = 1, "
+                + BookEntry.COLUMN_BOOK_UPDATED_AT + " = " + System.currentTimeMillis());
+        db.execSQL("CREATE INDEX books_version ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_BOOK_VERSION + ")");
+
+        db.execSQL("CREATE TABLE " + TombstoneEntry.TABLE_NAME + " ("
+                + TombstoneEntry.COLUMN_BOOK_ID + " INTEGER PRIMARY KEY, "
+                + TombstoneEntry.COLUMN_VERSION + " INTEGER NOT NULL, "
+                + TombstoneEntry.COLUMN_DELETED_AT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX book_tombstones_version ON " + TombstoneEntry.TABLE_NAME
+                + " (" + TombstoneEntry.COLUMN_VERSION + ")");
+    }
+
+    /**
+     * Version 5 adds what sync with head office needs: an identity for every book shared with
+     * the other stores, the head office version of the book, and the local version as of the
+     * last sync. Tombstones get the same columns.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_SYNC_ID + " TEXT");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_REMOTE_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_SYNCED_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_SYNC_ID + " = " + RANDOM_SYNC_ID_EXPRESSION);
+        db.execSQL("CREATE UNIQUE INDEX books_sync_id ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_BOOK_SYNC_ID + ")");
+
+        db.execSQL("ALTER TABLE " + TombstoneEntry.TABLE_NAME + " ADD COLUMN "
+                + TombstoneEntry.COLUMN_SYNC_ID + " TEXT");
+        db.execSQL("ALTER TABLE " + TombstoneEntry.TABLE_NAME + " ADD COLUMN "
+                + TombstoneEntry.COLUMN_REMOTE_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TombstoneEntry.TABLE_NAME + " ADD COLUMN "
+                + TombstoneEntry.COLUMN_SYNCED_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("CREATE INDEX book_tombstones_sync_id ON " + TombstoneEntry.TABLE_NAME
+                + " (" + TombstoneEntry.COLUMN_SYNC_ID + ")");
+    }
+
+    /**
+     * Version 6 adds the file name of the cover image of the book.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_COVER + " TEXT");
+    }
+
+    /**
+     * Version 7 records every sale, and rolls the sales up per book and day and per day as they
+     * are recorded, so sales reports over long periods read a few rollup rows per day instead of
+     * every sale.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SaleEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_UNITS + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_PRICE + " REAL NOT NULL, "
+                + SaleEntry.COLUMN_SOLD_AT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX sales_sold_at ON " + SaleEntry.TABLE_NAME
+                + " (" + SaleEntry.COLUMN_SOLD_AT + ")");
+
+        // The primary keys lead with the day, so a date range is a single range scan.
+        db.execSQL("CREATE TABLE " + DailyBookSalesEntry.TABLE_NAME + " ("
+                + DailyBookSalesEntry.COLUMN_DAY + " INTEGER NOT NULL, "
+                + DailyBookSalesEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + DailyBookSalesEntry.COLUMN_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                + DailyBookSalesEntry.COLUMN_REVENUE + " REAL NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + DailyBookSalesEntry.COLUMN_DAY + ", "
+                + DailyBookSalesEntry.COLUMN_BOOK_ID + "));");
+        db.execSQL("CREATE TABLE " + DailySalesEntry.TABLE_NAME + " ("
+                + DailySalesEntry.COLUMN_DAY + " INTEGER PRIMARY KEY, "
+                + DailySalesEntry.COLUMN_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                + DailySalesEntry.COLUMN_REVENUE + " REAL NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Version 8 adds the sales rate of every book and the time it is expected to sell out, with
+     * an index on the latter for the reorder list. A trigger keeps the stock-out time in step
+     * with the quantity and the rate, whichever path changes them. The rate of existing books is
+     * estimated from their recorded sales.
+     */
+    private void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_SALES_RATE + " REAL NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_RATE_UPDATED_AT + " INTEGER");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_STOCKOUT_AT + " INTEGER");
+        db.execSQL("CREATE INDEX books_stockout_at ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_BOOK_STOCKOUT_AT + ")");
+
+        // The trigger only updates the stock-out time, which it doesn't watch, so it doesn't
+        // fire itself.
+        db.execSQL("CREATE TRIGGER books_stockout AFTER UPDATE OF "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_SALES_RATE
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_BOOK_STOCKOUT_AT
+                + " = " + STOCKOUT_AT_EXPRESSION
+                + " WHERE " + BookEntry._ID + " = NEW." + BookEntry._ID + ";"
+                + " END");
+
+        // Estimate the rate of existing books from their sales over one time constant.
+        long now = System.currentTimeMillis();
+        long windowMillis = (long) (SALES_RATE_TIME_CONSTANT_DAYS * DAY_MILLIS);
+        db.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_SALES_RATE + " = (SELECT IFNULL(SUM("
+                + SaleEntry.COLUMN_UNITS + "), 0) FROM " + SaleEntry.TABLE_NAME
+                + " WHERE " + SaleEntry.COLUMN_BOOK_ID + " = " + BookEntry.TABLE_NAME + "."
+                + BookEntry._ID + " AND " + SaleEntry.COLUMN_SOLD_AT + " >= ?) / ?, "
+                + BookEntry.COLUMN_BOOK_RATE_UPDATED_AT + " = ?",
+                new Object[] { now - windowMillis, SALES_RATE_TIME_CONSTANT_DAYS, now });
+    }
+
+    /**
+     * Version 9 switches the database to incremental auto-vacuum, so pages freed by deletes can
+     * be returned to the file system a few at a time by the maintenance job. The mode is asked
+     * for in {@link #onOpen(SQLiteDatabase)}, and the maintenance job makes the switch with a
+     * full vacuum.
+     */
+    private void upgradeToVersion9(SQLiteDatabase db) {
+        mEnableIncrementalVacuum = true;
+    }
+
+    /**
+     * Version 10 adds the archive, which inactive books are moved to so the books table only
+     * holds the active inventory.
+     */
+    private void upgradeToVersion10(SQLiteDatabase db) {
+        BookArchive.createTable(db);
+    }
+
+    /**
+     * Version 11 adds an index on the supplier of the books that also covers their quantity and
+     * price, so the supplier groups of the catalog are summed up from the index in supplier
+     * order, and the books of a supplier are found without a scan.
+     */
+    private void upgradeToVersion11(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX books_supplier ON " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", " + BookEntry.COLUMN_BOOK_QUANTITY
+                + ", " + BookEntry.COLUMN_BOOK_PRICE + ")");
+    }
+
+    /**
+     * Version 12 adds the reorder threshold of every book, kept with the books in the archive,
+     * and the low stock alerts raised when a book crosses it.
+     */
+    private void upgradeToVersion12(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + ArchiveEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0");
+        LowStockAlerts.createSchema(db);
+    }
+
+    /**
+     * Version 13 also raises a low stock alert for a book that is added already at or below its
+     * reorder threshold.
+     */
+    private void upgradeToVersion13(SQLiteDatabase db) {
+        LowStockAlerts.createInsertTrigger(db);
     }
 }
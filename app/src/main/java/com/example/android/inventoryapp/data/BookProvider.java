@@ -1,15 +1,57 @@
 package com.example.android.inventoryapp.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.BookContract.ArchiveCall;
+import com.example.android.inventoryapp.data.BookContract.ArchiveEntry;
+import com.example.android.inventoryapp.data.BookContract.BatchCall;
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.BulkEditCall;
+import com.example.android.inventoryapp.data.BookContract.CheckoutCall;
+import com.example.android.inventoryapp.data.BookContract.DailyBookSalesEntry;
+import com.example.android.inventoryapp.data.BookContract.DailySalesEntry;
+import com.example.android.inventoryapp.data.BookContract.GenerateCall;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookContract.SaleEntry;
+import com.example.android.inventoryapp.data.BookContract.StockEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
+import com.example.android.inventoryapp.data.BookContract.TombstoneEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link ContentProvider} for the Books app.
@@ -25,6 +67,72 @@ public class BookProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single book in the books table */
     private static final int BOOK_ID = 101;
 
+    /** URI matcher code for the content URI for a single book looked up by its ISBN */
+    private static final int BOOK_ISBN = 102;
+
+    /** URI matcher code for the content URI to receive a shipment of books by ISBN */
+    private static final int BOOKS_RECEIVE = 103;
+
+    /** URI matcher code for the content URI to sell a book at the default location */
+    private static final int BOOK_SELL = 104;
+
+    /** Location of a sale that may be made at any location with enough stock */
+    private static final long ANY_LOCATION = -1;
+
+    /** URI matcher code for the content URI for the books changed since a version */
+    private static final int BOOK_CHANGES = 105;
+
+    /** URI matcher code for the content URI to apply changes pulled from head office */
+    private static final int BOOKS_SYNC = 106;
+
+    /** URI matcher code for the content URI to acknowledge changes pushed to head office */
+    private static final int BOOKS_SYNC_ACK = 107;
+
+    /** URI matcher code for the content URI for the cover image of a book */
+    private static final int BOOK_COVER = 108;
+
+    /** URI matcher code for the content URI for the books to reorder */
+    private static final int BOOK_REORDER = 109;
+
+    /** URI matcher code for the content URI for the archived books */
+    private static final int ARCHIVE = 110;
+
+    /** URI matcher code for the content URI for a single archived book */
+    private static final int ARCHIVE_ID = 111;
+
+    /** URI matcher code for the content URI to restore an archived book */
+    private static final int ARCHIVE_RESTORE = 112;
+
+    /** URI matcher code for the content URI to export the catalog */
+    private static final int BOOKS_EXPORT = 113;
+
+    /** URI matcher code for the content URI for the supplier groups */
+    private static final int BOOK_SUPPLIERS = 114;
+
+    /** URI matcher code for the content URI for the locations table */
+    private static final int LOCATIONS = 200;
+
+    /** URI matcher code for the content URI for a single location */
+    private static final int LOCATION_ID = 201;
+
+    /** URI matcher code for the content URI for the catalog of a single location */
+    private static final int LOCATION_BOOKS = 202;
+
+    /** URI matcher code for the content URI for a single book at a single location */
+    private static final int LOCATION_BOOK_ID = 203;
+
+    /** URI matcher code for the content URI to sell a book at a single location */
+    private static final int LOCATION_BOOK_SELL = 204;
+
+    /** URI matcher code for the content URI for the sales table */
+    private static final int SALES = 300;
+
+    /** URI matcher code for the content URI for the sales report per book */
+    private static final int SALES_BY_BOOK = 301;
+
+    /** URI matcher code for the content URI for the sales report per day */
+    private static final int SALES_BY_DAY = 302;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return or the root URI.
@@ -49,26 +157,252 @@ public class BookProvider extends ContentProvider {
         //
         // In this case, the "#" wildcard is used where "#" can be substituted for an integer.
         sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/#", BOOK_ID);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/isbn/*"
+        // will map to the integer code {@link #BOOK_ISBN}. The "*" wildcard matches the ISBN.
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_ISBN + "/*", BOOK_ISBN);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/receive"
+        // will map to the integer code {@link #BOOKS_RECEIVE}. It only supports bulkInsert().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_RECEIVE, BOOKS_RECEIVE);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/changes"
+        // will map to the integer code {@link #BOOK_CHANGES}. It only supports query().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_CHANGES, BOOK_CHANGES);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/reorder"
+        // will map to the integer code {@link #BOOK_REORDER}. It only supports query().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_REORDER, BOOK_REORDER);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/suppliers"
+        // will map to the integer code {@link #BOOK_SUPPLIERS}. It only supports query().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_SUPPLIERS, BOOK_SUPPLIERS);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/export"
+        // will map to the integer code {@link #BOOKS_EXPORT}. It only supports
+        // openTypedAssetFile() and openFile().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_EXPORT, BOOKS_EXPORT);
+
+        // The archive URIs: the archived books "books/archive" and a single archived book
+        // "books/archive/#" only support query(), and "books/archive/#/restore" only update().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_ARCHIVE, ARCHIVE);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_ARCHIVE + "/#", ARCHIVE_ID);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_ARCHIVE + "/#/"
+                        + BookContract.PATH_RESTORE, ARCHIVE_RESTORE);
+
+        // The sync URIs "books/sync" and "books/sync/ack" only support bulkInsert().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_SYNC, BOOKS_SYNC);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_SYNC + "/"
+                        + BookContract.PATH_ACK, BOOKS_SYNC_ACK);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/#/sell"
+        // will map to the integer code {@link #BOOK_SELL}. It only supports update().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/#/" + BookContract.PATH_SELL, BOOK_SELL);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/books/#/cover"
+        // will map to the integer code {@link #BOOK_COVER}. It supports openFile(), update() and
+        // delete().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/#/" + BookContract.PATH_COVER, BOOK_COVER);
+
+        // The location URIs: "locations", "locations/#", the catalog of a location
+        // "locations/#/books", a single book at a location "locations/#/books/#" and the URI to
+        // sell a book at a location "locations/#/books/#/sell".
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_LOCATIONS, LOCATIONS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_LOCATIONS + "/#", LOCATION_ID);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_LOCATIONS + "/#/" + BookContract.PATH_BOOKS, LOCATION_BOOKS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_LOCATIONS + "/#/" + BookContract.PATH_BOOKS + "/#",
+                LOCATION_BOOK_ID);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_LOCATIONS + "/#/" + BookContract.PATH_BOOKS + "/#/"
+                        + BookContract.PATH_SELL, LOCATION_BOOK_SELL);
+
+        // The sales URIs: the individual sales "sales", and the reports read from the rollups
+        // "sales/books" and "sales/days". They only support query().
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SALES, SALES);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_SALES + "/" + BookContract.PATH_BY_BOOK, SALES_BY_BOOK);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_SALES + "/" + BookContract.PATH_BY_DAY, SALES_BY_DAY);
+    }
+
+    /**
+     * Tables of the catalog of a single location: its stock rows joined with the books they hold.
+     * The stock rows are read through the covering index on (location_id, book_id, quantity), so
+     * the cost of the query only depends on the size of that location's catalog.
+     */
+    private static final String LOCATION_BOOKS_TABLES = StockEntry.TABLE_NAME + " JOIN "
+            + BookEntry.TABLE_NAME + " ON " + BookEntry.TABLE_NAME + "." + BookEntry._ID + " = "
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_BOOK_ID;
+
+    /**
+     * Maps the book columns requested from the catalog of a location to the joined tables. The
+     * quantity is the stock held at the location rather than the total over all locations.
+     */
+    private static final HashMap<String, String> sLocationBooksProjectionMap = new HashMap<>();
+
+    static {
+        String[] bookColumns = {
+                BookEntry._ID,
+                BookEntry.COLUMN_BOOK_NAME,
+                BookEntry.COLUMN_BOOK_PRICE,
+                BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+                BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+                BookEntry.COLUMN_BOOK_ISBN,
+                BookEntry.COLUMN_BOOK_VERSION,
+                BookEntry.COLUMN_BOOK_UPDATED_AT,
+                BookEntry.COLUMN_BOOK_COVER };
+        for (String column : bookColumns) {
+            sLocationBooksProjectionMap.put(column,
+                    BookEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sLocationBooksProjectionMap.put(BookEntry.COLUMN_BOOK_QUANTITY, StockEntry.TABLE_NAME
+                + "." + StockEntry.COLUMN_QUANTITY + " AS " + BookEntry.COLUMN_BOOK_QUANTITY);
+    }
+
+    /** Columns of the rows returned for the changes URI, besides {@link BookEntry#COLUMN_DELETED} */
+    private static final String[] CHANGE_COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry.COLUMN_BOOK_VERSION,
+            BookEntry.COLUMN_BOOK_UPDATED_AT,
+            BookEntry.COLUMN_BOOK_SYNC_ID,
+            BookEntry.COLUMN_BOOK_REMOTE_VERSION,
+            BookEntry.COLUMN_BOOK_SYNCED_VERSION };
+
+    /** Columns of the tombstones table returned as the {@link #CHANGE_COLUMNS} of a deletion */
+    private static final HashMap<String, String> sTombstoneChangeColumns = new HashMap<>();
+
+    static {
+        sTombstoneChangeColumns.put(BookEntry._ID, TombstoneEntry.COLUMN_BOOK_ID);
+        sTombstoneChangeColumns.put(BookEntry.COLUMN_BOOK_VERSION, TombstoneEntry.COLUMN_VERSION);
+        sTombstoneChangeColumns.put(BookEntry.COLUMN_BOOK_UPDATED_AT,
+                TombstoneEntry.COLUMN_DELETED_AT);
+        sTombstoneChangeColumns.put(BookEntry.COLUMN_BOOK_SYNC_ID, TombstoneEntry.COLUMN_SYNC_ID);
+        sTombstoneChangeColumns.put(BookEntry.COLUMN_BOOK_REMOTE_VERSION,
+                TombstoneEntry.COLUMN_REMOTE_VERSION);
+        sTombstoneChangeColumns.put(BookEntry.COLUMN_BOOK_SYNCED_VERSION,
+                TombstoneEntry.COLUMN_SYNCED_VERSION);
     }
 
+    /**
+     * Columns of the supplier groups. They only read columns of the supplier index, and the ID
+     * of a book is part of every index entry, so the index covers the query.
+     */
+    private static final String[] SUPPLIER_COLUMNS = {
+            "MIN(" + BookEntry._ID + ") AS " + SupplierEntry._ID,
+            SupplierEntry.COLUMN_SUPPLIER_NAME,
+            "COUNT(*) AS " + SupplierEntry.COLUMN_TITLES,
+            "SUM(" + BookEntry.COLUMN_BOOK_QUANTITY + ") AS " + SupplierEntry.COLUMN_UNITS,
+            "TOTAL(" + BookEntry.COLUMN_BOOK_QUANTITY + " * " + BookEntry.COLUMN_BOOK_PRICE
+                    + ") AS " + SupplierEntry.COLUMN_VALUE };
+
+    /** Types the catalog can be exported as, the first one is the default */
+    private static final String[] EXPORT_MIME_TYPES = {
+            BookEntry.EXPORT_CSV_MIME_TYPE,
+            BookEntry.EXPORT_JSON_MIME_TYPE };
+
     /** Database helper object */
     private BookDbHelper mDbHelper;
 
+    /** Coalesces the change notifications of the writes */
+    private ChangeNotifier mNotifier;
+
+    /** Version of the last change handed out, or -1 until it has been read from the database */
+    private long mLastVersion = -1;
+
+    /** Whether the low stock alert job has been scheduled for the pending alerts */
+    private volatile boolean mLowStockAlertScheduled;
+
     @Override
     public boolean onCreate() {
         mDbHelper = new BookDbHelper(getContext());
+        mNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                getContext().getResources().getInteger(R.integer.notification_window_millis));
         return true;
     }
 
+    /**
+     * Apply the operations in a single transaction. Their change notifications are held until
+     * the transaction has committed, then sent at once.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        mNotifier.hold();
+        try {
+            database.beginTransaction();
+            try {
+                ContentProviderResult[] results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+                return results;
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            mNotifier.release();
+        }
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Query the given URI. The cancellation signal is passed on to SQLite, so a query that is
+     * cancelled while its rows are read stops scanning instead of running to the end.
+     *
+     * <p>Like the other entry points of the provider, the query is wrapped in a trace section so
+     * provider work can be lined up with UI frames in a system trace. The rows of most cursors are
+     * only read when the caller first moves them, which shows up in the caller's own sections.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        TraceCompat.beginSection("BookProvider.query");
+        try {
+            return queryUri(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder,
+                            CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query.
         Cursor cursor;
 
+        // Optional row limit, e.g. for the first screen of the catalog.
+        String limit = uri.getQueryParameter(BookContract.QUERY_PARAMETER_LIMIT);
+
         // Figure out if the URI matcher can match the URI to specific code.
         int match = sUriMatcher.match(uri);
         switch (match) {
@@ -76,8 +410,16 @@ public class BookProvider extends ContentProvider {
                 // For the BOOKS code, query the pets table directly with the given projection,
                 // selection, selection arguments, and sort order. The cursor could contain multiple
                 // rows of the books table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                //
+                // A plain listing of the whole catalog is paged in lazily instead, so it only
+                // holds a few pages of rows in memory however large the catalog is.
+                if (KeysetPagedCursor.canPage(projection, selection, sortOrder, limit)) {
+                    cursor = new KeysetPagedCursor(database, BookEntry.TABLE_NAME, projection,
+                            cancellationSignal);
+                    break;
+                }
+                cursor = database.query(false, BookEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, limit, cancellationSignal);
                 break;
             case BOOK_ID:
                 // For the BOOK_ID code, extract out the ID from the URI.
@@ -93,8 +435,84 @@ public class BookProvider extends ContentProvider {
 
                 // This will perform a query on the books table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, BookEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case BOOK_ISBN:
+                // For the BOOK_ISBN code, look the book up through the unique index on the ISBN.
+                // A segment without any digits can't match a book, and binding its null
+                // normalized form would fail.
+                String isbn = BookEntry.normalizeIsbn(uri.getLastPathSegment());
+                if (isbn == null) {
+                    throw new IllegalArgumentException("Book lookup requires a valid ISBN: "
+                            + uri);
+                }
+                selection = BookEntry.COLUMN_BOOK_ISBN + "=?";
+                selectionArgs = new String[] { isbn };
+                cursor = database.query(false, BookEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case BOOK_CHANGES:
+                // For the BOOK_CHANGES code, return the changed books and the tombstones of the
+                // deleted ones. The projection is fixed.
+                cursor = queryChanges(database, uri, limit, cancellationSignal);
+                break;
+            case BOOK_REORDER:
+                cursor = queryReorder(database, uri, projection, limit, cancellationSignal);
+                break;
+            case BOOK_SUPPLIERS:
+                // The groups have fixed columns and come in the order of the supplier index.
+                cursor = database.query(false, BookEntry.TABLE_NAME, SUPPLIER_COLUMNS, selection,
+                        selectionArgs, BookEntry.COLUMN_BOOK_SUPPLIER_NAME, null,
+                        BookEntry.COLUMN_BOOK_SUPPLIER_NAME, limit, cancellationSignal);
+                break;
+            case ARCHIVE:
+                // Archived books are only searched on request, so a scan of the archive is
+                // acceptable and the archive doesn't need the indexes of the books table.
+                cursor = database.query(false, ArchiveEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, limit, cancellationSignal);
+                break;
+            case ARCHIVE_ID:
+                selection = BookEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(false, ArchiveEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case LOCATIONS:
+                cursor = database.query(false, LocationEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, limit, cancellationSignal);
+                break;
+            case LOCATION_ID:
+                selection = LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(false, LocationEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case LOCATION_BOOKS:
+            case LOCATION_BOOK_ID:
+                // For the catalog of a location, join the location's stock rows with the books
+                // they hold. The IDs in the URI are parsed as numbers, so they are safe to append.
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(LOCATION_BOOKS_TABLES);
+                builder.setProjectionMap(sLocationBooksProjectionMap);
+                builder.appendWhere(StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID
+                        + " = " + parseLocationId(uri));
+                if (match == LOCATION_BOOK_ID) {
+                    builder.appendWhere(" AND " + StockEntry.TABLE_NAME + "."
+                            + StockEntry.COLUMN_BOOK_ID + " = " + ContentUris.parseId(uri));
+                }
+                cursor = builder.query(database, projection, selection, selectionArgs, null, null,
+                        sortOrder, limit, cancellationSignal);
+                break;
+            case SALES:
+                cursor = database.query(false, SaleEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, limit, cancellationSignal);
+                break;
+            case SALES_BY_BOOK:
+            case SALES_BY_DAY:
+                // The reports have fixed columns.
+                cursor = querySalesReport(database, uri, match == SALES_BY_BOOK, sortOrder,
+                        limit, cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -108,12 +526,166 @@ public class BookProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Query the books changed after the position given in the URI, merged in order of version and
+     * ID with the books deleted after it. A write can give many books the same version, so the
+     * position is the version and ID of the last change read, which is unique. Both halves are
+     * read through their version index, whose entries are ordered by version then ID, so the cost
+     * of the query depends on the number of changes rather than the size of the catalog.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String limit,
+                                CancellationSignal cancellationSignal) {
+        String since = uri.getQueryParameter(BookContract.QUERY_PARAMETER_SINCE);
+        long sinceVersion = since == null ? 0 : Long.parseLong(since);
+        String sinceIdParameter = uri.getQueryParameter(BookContract.QUERY_PARAMETER_SINCE_ID);
+        long sinceId = sinceIdParameter == null ? Long.MAX_VALUE : Long.parseLong(sinceIdParameter);
+
+        StringBuilder changed = new StringBuilder("SELECT ");
+        StringBuilder deleted = new StringBuilder("SELECT ");
+        for (String column : CHANGE_COLUMNS) {
+            changed.append(column).append(", ");
+            String tombstoneColumn = sTombstoneChangeColumns.get(column);
+            deleted.append(tombstoneColumn == null ? "NULL" : tombstoneColumn)
+                    .append(" AS ").append(column).append(", ");
+        }
+        changed.append("0 AS ").append(BookEntry.COLUMN_DELETED)
+                .append(" FROM ").append(BookEntry.TABLE_NAME)
+                .append(" WHERE ").append(afterPosition(BookEntry.COLUMN_BOOK_VERSION,
+                        BookEntry._ID));
+        deleted.append("1 AS ").append(BookEntry.COLUMN_DELETED)
+                .append(" FROM ").append(TombstoneEntry.TABLE_NAME)
+                .append(" WHERE ").append(afterPosition(TombstoneEntry.COLUMN_VERSION,
+                        TombstoneEntry.COLUMN_BOOK_ID));
+
+        String sql = changed + " UNION ALL " + deleted
+                + " ORDER BY " + BookEntry.COLUMN_BOOK_VERSION + ", " + BookEntry._ID;
+        if (limit != null) {
+            sql += " LIMIT " + Long.parseLong(limit);
+        }
+        String versionArg = String.valueOf(sinceVersion);
+        String idArg = String.valueOf(sinceId);
+        return database.rawQuery(sql, new String[] {
+                versionArg, versionArg, idArg, versionArg, versionArg, idArg },
+                cancellationSignal);
+    }
+
+    /**
+     * Returns the selection of the rows after the version and ID bound as three arguments: the
+     * version twice, then the ID. The range on the version alone lets SQLite seek in the version
+     * index.
+     */
+    private static String afterPosition(String versionColumn, String idColumn) {
+        return versionColumn + " >= ? AND (" + versionColumn + " > ? OR " + idColumn + " > ?)";
+    }
+
+    /**
+     * Query the books that are selling, in the order they are expected to sell out, with their
+     * days of stock left. The books are read in order from the index on the stock-out time, which
+     * also skips the books that aren't selling.
+     */
+    private Cursor queryReorder(SQLiteDatabase database, Uri uri, String[] projection,
+                                String limit, CancellationSignal cancellationSignal) {
+        if (projection == null) {
+            projection = new String[] {
+                    BookEntry._ID,
+                    BookEntry.COLUMN_BOOK_NAME,
+                    BookEntry.COLUMN_BOOK_QUANTITY,
+                    BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+                    BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+                    BookEntry.COLUMN_BOOK_SALES_RATE,
+                    BookEntry.COLUMN_BOOK_STOCKOUT_AT };
+        }
+        long now = System.currentTimeMillis();
+        String[] columns = new String[projection.length + 1];
+        System.arraycopy(projection, 0, columns, 0, projection.length);
+        columns[projection.length] = "(" + BookEntry.COLUMN_BOOK_STOCKOUT_AT + " - " + now
+                + ") / " + BookDbHelper.DAY_MILLIS + " AS " + BookEntry.DAYS_OF_STOCK;
+
+        String selection = BookEntry.COLUMN_BOOK_STOCKOUT_AT + " IS NOT NULL";
+        String[] selectionArgs = null;
+        String within = uri.getQueryParameter(BookContract.QUERY_PARAMETER_WITHIN);
+        if (within != null) {
+            selection += " AND " + BookEntry.COLUMN_BOOK_STOCKOUT_AT + " <= ?";
+            selectionArgs = new String[] { String.valueOf(
+                    now + (long) (Integer.parseInt(within) * BookDbHelper.DAY_MILLIS)) };
+        }
+        return database.query(false, BookEntry.TABLE_NAME, columns, selection, selectionArgs,
+                null, null, BookEntry.COLUMN_BOOK_STOCKOUT_AT, limit, cancellationSignal);
+    }
+
+    /**
+     * Query a sales report between the days given in the URI. The report is read from the daily
+     * rollups through their primary key, which leads with the day, so its cost depends on the
+     * number of days and books sold rather than on the number of sales.
+     *
+     * @param byBook true for the report per book, false for the report per day
+     */
+    private Cursor querySalesReport(SQLiteDatabase database, Uri uri, boolean byBook,
+                                    String sortOrder, String limit,
+                                    CancellationSignal cancellationSignal) {
+        String from = uri.getQueryParameter(BookContract.QUERY_PARAMETER_FROM);
+        String to = uri.getQueryParameter(BookContract.QUERY_PARAMETER_TO);
+        String[] dayArgs = new String[] {
+                String.valueOf(from == null ? 0 : Integer.parseInt(from)),
+                String.valueOf(to == null ? Integer.MAX_VALUE : Integer.parseInt(to)) };
+
+        String sql;
+        if (byBook) {
+            // The name of a book that has been deleted since it was sold is null. Archived books
+            // are looked up in the archive.
+            sql = "SELECT r." + DailyBookSalesEntry.COLUMN_BOOK_ID + " AS " + SaleEntry._ID
+                    + ", r." + DailyBookSalesEntry.COLUMN_BOOK_ID + " AS "
+                    + SaleEntry.COLUMN_BOOK_ID
+                    + ", IFNULL(b." + BookEntry.COLUMN_BOOK_NAME + ", a."
+                    + BookEntry.COLUMN_BOOK_NAME + ") AS " + BookEntry.COLUMN_BOOK_NAME
+                    + ", SUM(r." + DailyBookSalesEntry.COLUMN_UNITS + ") AS "
+                    + SaleEntry.COLUMN_UNITS
+                    + ", SUM(r." + DailyBookSalesEntry.COLUMN_REVENUE + ") AS "
+                    + SaleEntry.COLUMN_REVENUE
+                    + " FROM " + DailyBookSalesEntry.TABLE_NAME + " r"
+                    + " LEFT JOIN " + BookEntry.TABLE_NAME + " b"
+                    + " ON b." + BookEntry._ID + " = r." + DailyBookSalesEntry.COLUMN_BOOK_ID
+                    + " LEFT JOIN " + ArchiveEntry.TABLE_NAME + " a"
+                    + " ON a." + BookEntry._ID + " = r." + DailyBookSalesEntry.COLUMN_BOOK_ID
+                    + " WHERE r." + DailyBookSalesEntry.COLUMN_DAY + " BETWEEN ? AND ?"
+                    + " GROUP BY r." + DailyBookSalesEntry.COLUMN_BOOK_ID
+                    + " ORDER BY " + (TextUtils.isEmpty(sortOrder)
+                            ? SaleEntry.COLUMN_REVENUE + " DESC" : sortOrder);
+        } else {
+            sql = "SELECT " + DailySalesEntry.COLUMN_DAY + " AS " + SaleEntry._ID
+                    + ", " + DailySalesEntry.COLUMN_DAY
+                    + ", " + DailySalesEntry.COLUMN_UNITS
+                    + ", " + DailySalesEntry.COLUMN_REVENUE
+                    + " FROM " + DailySalesEntry.TABLE_NAME
+                    + " WHERE " + DailySalesEntry.COLUMN_DAY + " BETWEEN ? AND ?"
+                    + " ORDER BY " + (TextUtils.isEmpty(sortOrder)
+                            ? DailySalesEntry.COLUMN_DAY : sortOrder);
+        }
+        if (limit != null) {
+            sql += " LIMIT " + Long.parseLong(limit);
+        }
+        return database.rawQuery(sql, dayArgs, cancellationSignal);
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        TraceCompat.beginSection("BookProvider.insert");
+        try {
+            return insertUri(uri, contentValues);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
                 return insertBook(uri, contentValues);
+            case LOCATIONS:
+                return insertLocation(uri, contentValues);
+            case LOCATION_BOOKS:
+                return insertStock(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -124,6 +696,65 @@ public class BookProvider extends ContentProvider {
      * that specific row in the database.
      */
     private Uri insertBook(Uri uri, ContentValues values) {
+        validateNewBook(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Insert the new book with the given values, together with its stock row.
+        long id;
+        database.beginTransaction();
+        try {
+            stampChange(values, nextVersion(database));
+            id = insertBookRow(database, values);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that the data has changed for the book content URI.
+        notifyChange(uri);
+
+        // Return the new URI with the ID of the newly inserted row appended at the end.
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert a validated book and put its whole quantity in stock at the default location. Must be
+     * called inside a transaction.
+     *
+     * @return the ID of the new book, or -1 if the insertion failed.
+     */
+    private long insertBookRow(SQLiteDatabase database, ContentValues values) {
+        // Give the book its identity for sync, unless it came from head office with one.
+        if (values.getAsString(BookEntry.COLUMN_BOOK_SYNC_ID) == null) {
+            values.put(BookEntry.COLUMN_BOOK_SYNC_ID, UUID.randomUUID().toString());
+        }
+
+        long id = database.insert(BookEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            return -1;
+        }
+
+        ContentValues stock = new ContentValues();
+        stock.put(StockEntry.COLUMN_LOCATION_ID, LocationEntry.DEFAULT_LOCATION_ID);
+        stock.put(StockEntry.COLUMN_BOOK_ID, id);
+        stock.put(StockEntry.COLUMN_QUANTITY, values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+        database.insertOrThrow(StockEntry.TABLE_NAME, null, stock);
+        return id;
+    }
+
+    /**
+     * Check that the given values describe a complete, valid book, and normalize its ISBN.
+     *
+     * @throws IllegalArgumentException if a required value is missing or invalid.
+     */
+    private void validateNewBook(ContentValues values) {
         // Check that the name is not null.
         String name = values.getAsString(BookEntry.COLUMN_BOOK_NAME);
         if (name == null) {
@@ -142,6 +773,12 @@ public class BookProvider extends ContentProvider {
             throw new IllegalArgumentException("Book requires valid quantity");
         }
 
+        // Check that the optional reorder threshold is valid.
+        Integer threshold = values.getAsInteger(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD);
+        if (threshold != null && threshold < 0) {
+            throw new IllegalArgumentException("Book requires a valid reorder threshold");
+        }
+
         // Check that the supplier name is not null.
         String supplierName = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
         if (supplierName == null) {
@@ -154,27 +791,138 @@ public class BookProvider extends ContentProvider {
             throw new IllegalArgumentException("Book requires a supplier number");
         }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // Normalize the optional ISBN, so lookups by ISBN match however it was typed.
+        normalizeIsbn(values);
+    }
 
-        // Insert the new book with the given values.
-        long id = database.insert(BookEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * Replace the ISBN in the given values, if there is one, with its normalized form.
+     */
+    private void normalizeIsbn(ContentValues values) {
+        if (values.containsKey(BookEntry.COLUMN_BOOK_ISBN)) {
+            values.put(BookEntry.COLUMN_BOOK_ISBN,
+                    BookEntry.normalizeIsbn(values.getAsString(BookEntry.COLUMN_BOOK_ISBN)));
         }
+    }
 
-        // Notify all listeners that the data has changed for the book content URI.
-        getContext().getContentResolver().notifyChange(uri, null);
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        TraceCompat.beginSection("BookProvider.bulkInsert");
+        try {
+            return bulkInsertUri(uri, values);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
 
-        // Return the new URI with the ID of the newly inserted row appended at the end.
-        return ContentUris.withAppendedId(uri, id);
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case BOOKS_RECEIVE:
+                return receiveBooks(values);
+            case BOOKS_SYNC:
+                return applySyncChanges(values);
+            case BOOKS_SYNC_ACK:
+                return acknowledgeSync(values);
+            default:
+                return super.bulkInsert(uri, values);
+        }
+    }
+
+    /**
+     * Receive a shipment of books. Each entry holds an ISBN and the received quantity. Books that
+     * already exist have their quantity increased through the ISBN index, and unknown ISBNs are
+     * inserted as new books. All entries are committed in a single transaction, so either the
+     * whole shipment is received or none of it is.
+     *
+     * @return the number of entries received.
+     */
+    private int receiveBooks(ContentValues[] entries) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement restock = database.compileStatement("UPDATE " + BookEntry.TABLE_NAME
+                + " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " + ?, "
+                + BookEntry.COLUMN_BOOK_VERSION + " = ?, "
+                + BookEntry.COLUMN_BOOK_UPDATED_AT + " = ?"
+                + " WHERE " + BookEntry.COLUMN_BOOK_ISBN + " = ?");
+        SQLiteStatement restockLocation = database.compileStatement("UPDATE "
+                + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_QUANTITY + " = "
+                + StockEntry.COLUMN_QUANTITY + " + ?"
+                + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = "
+                + LocationEntry.DEFAULT_LOCATION_ID
+                + " AND " + StockEntry.COLUMN_BOOK_ID + " = (SELECT " + BookEntry._ID
+                + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_BOOK_ISBN + " = ?)");
+
+        database.beginTransaction();
+        try {
+            // The whole shipment is a single change.
+            long version = nextVersion(database);
+            long now = System.currentTimeMillis();
+            for (ContentValues entry : entries) {
+                // Check that the ISBN and the received quantity are valid.
+                String isbn = BookEntry.normalizeIsbn(
+                        entry.getAsString(BookEntry.COLUMN_BOOK_ISBN));
+                if (isbn == null) {
+                    throw new IllegalArgumentException("Received book requires an ISBN");
+                }
+                Integer quantity = entry.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
+                if (quantity == null || quantity < 0) {
+                    throw new IllegalArgumentException("Received book requires valid quantity");
+                }
+
+                // Increase the stock of the existing book with this ISBN, if there is one. The
+                // shipment is received at the default location. An archived book is restored
+                // first, so it gets the stock instead of being inserted a second time.
+                BookArchive.restore(database, BookEntry.COLUMN_BOOK_ISBN + "=?",
+                        new String[] { isbn });
+                restock.bindLong(1, quantity);
+                restock.bindLong(2, version);
+                restock.bindLong(3, now);
+                restock.bindString(4, isbn);
+                if (restock.executeUpdateDelete() > 0) {
+                    restockLocation.bindLong(1, quantity);
+                    restockLocation.bindString(2, isbn);
+                    restockLocation.executeUpdateDelete();
+                    continue;
+                }
+
+                // Otherwise this is a new title, which needs all the other book columns too.
+                ContentValues values = new ContentValues(entry);
+                values.put(BookEntry.COLUMN_BOOK_ISBN, isbn);
+                validateNewBook(values);
+                stampChange(values, version);
+                if (insertBookRow(database, values) == -1) {
+                    throw new IllegalStateException("Failed to insert received book " + isbn);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            restock.close();
+            restockLocation.close();
+        }
+
+        // Notify all listeners once for the whole shipment.
+        if (entries.length > 0) {
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return entries.length;
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        TraceCompat.beginSection("BookProvider.update");
+        try {
+            return updateUri(uri, contentValues, selection, selectionArgs);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private int updateUri(Uri uri, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
@@ -185,7 +933,28 @@ public class BookProvider extends ContentProvider {
                 // containing the actual ID.
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+
+                // If the caller passed the version it read, the update is a compare-and-set: it
+                // only matches the row if nobody changed the book since, without locking it.
+                String expectedVersion =
+                        uri.getQueryParameter(BookContract.QUERY_PARAMETER_EXPECTED_VERSION);
+                if (expectedVersion != null) {
+                    selection += " AND " + BookEntry.COLUMN_BOOK_VERSION + "=?";
+                    selectionArgs = new String[] { selectionArgs[0], expectedVersion };
+                }
                 return updateBook(uri, contentValues, selection, selectionArgs);
+            case BOOK_SELL:
+                return sellBook(uri, ANY_LOCATION, parseBookId(uri), contentValues);
+            case BOOK_COVER:
+                return setCover(uri, contentValues.getAsByteArray(BookEntry.COVER_DATA));
+            case ARCHIVE_RESTORE:
+                return restoreBook(uri);
+            case LOCATION_ID:
+                return updateLocation(uri, contentValues);
+            case LOCATION_BOOK_ID:
+                return updateStock(uri, contentValues);
+            case LOCATION_BOOK_SELL:
+                return sellBook(uri, parseLocationId(uri), parseBookId(uri), contentValues);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -197,6 +966,12 @@ public class BookProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updateBook(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // The cover file is managed by the provider, so it can only be changed through the cover
+        // URI.
+        if (values.containsKey(BookEntry.COLUMN_BOOK_COVER)) {
+            throw new IllegalArgumentException("Cover can only be set through the cover URI");
+        }
+
         // If the {@link BookEntry#COLUMN_BOOK_NAME} key is present, check that the name value is
         // not null.
         if (values.containsKey(BookEntry.COLUMN_BOOK_NAME)) {
@@ -224,6 +999,15 @@ public class BookProvider extends ContentProvider {
             }
         }
 
+        // If the {@link BookEntry#COLUMN_BOOK_REORDER_THRESHOLD} key is present, check that the
+        // threshold value is valid.
+        if (values.containsKey(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("Book requires a valid reorder threshold");
+            }
+        }
+
         // If the {@link BookEntry#COLUMN_BOOK_SUPPLIER_NAME} key is present, check that the
         // supplierName value is not null.
         if (values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_NAME)) {
@@ -242,6 +1026,9 @@ public class BookProvider extends ContentProvider {
             }
         }
 
+        // Normalize the ISBN if it is being changed.
+        normalizeIsbn(values);
+
         // If there an no values to update, then don't try to update the database.
         if (values.size() == 0) {
             return 0;
@@ -251,60 +1038,1454 @@ public class BookProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Perform the update on the database and get the number of rows affected.
-        int rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            // The quantity of a book is the total over all locations, so a new total is applied to
+            // the stock at the default location before the books are updated.
+            Integer quantity = values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
+            if (quantity != null) {
+                setTotalQuantity(database, quantity, selection, selectionArgs);
+            }
+
+            stampChange(values, nextVersion(database));
+            rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the given
         // URI has changed.
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of rows updated.
         return rowsUpdated;
     }
 
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writable database.
+    /**
+     * Apply a new total quantity to the stock of the books that match the selection, ahead of
+     * updating the quantity in the books table. An increase is added to the default location. A
+     * decrease is taken from the default location first and then from the other locations in the
+     * order of their IDs, so no location goes below zero however the stock is spread. Must be
+     * called inside a transaction.
+     */
+    private void setTotalQuantity(SQLiteDatabase database, int quantity, String selection,
+                                  String[] selectionArgs) {
+        Cursor books = database.rawQuery("SELECT " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " FROM " + BookEntry.TABLE_NAME
+                + whereClause(selection), selectionArgs);
+        try {
+            while (books.moveToNext()) {
+                long bookId = books.getLong(0);
+                int change = quantity - books.getInt(1);
+                if (change > 0) {
+                    database.execSQL("UPDATE " + StockEntry.TABLE_NAME
+                            + " SET " + StockEntry.COLUMN_QUANTITY + " = "
+                            + StockEntry.COLUMN_QUANTITY + " + ?"
+                            + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = "
+                            + LocationEntry.DEFAULT_LOCATION_ID
+                            + " AND " + StockEntry.COLUMN_BOOK_ID + " = ?",
+                            new Object[] { change, bookId });
+                } else if (change < 0) {
+                    removeStock(database, bookId, -change);
+                }
+            }
+        } finally {
+            books.close();
+        }
+    }
+
+    /**
+     * Remove copies of a book from the locations that hold it, the default location first and
+     * then the others in the order of their IDs. Must be called inside a transaction.
+     */
+    private static void removeStock(SQLiteDatabase database, long bookId, int units) {
+        Cursor stock = database.query(StockEntry.TABLE_NAME,
+                new String[] { StockEntry.COLUMN_LOCATION_ID, StockEntry.COLUMN_QUANTITY },
+                StockEntry.COLUMN_BOOK_ID + " = ? AND " + StockEntry.COLUMN_QUANTITY + " > 0",
+                new String[] { String.valueOf(bookId) }, null, null,
+                StockEntry.COLUMN_LOCATION_ID + " = " + LocationEntry.DEFAULT_LOCATION_ID
+                        + " DESC, " + StockEntry.COLUMN_LOCATION_ID);
+        try {
+            while (units > 0 && stock.moveToNext()) {
+                int taken = Math.min(units, stock.getInt(1));
+                database.execSQL("UPDATE " + StockEntry.TABLE_NAME
+                        + " SET " + StockEntry.COLUMN_QUANTITY + " = "
+                        + StockEntry.COLUMN_QUANTITY + " - ?"
+                        + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = ?"
+                        + " AND " + StockEntry.COLUMN_BOOK_ID + " = ?",
+                        new Object[] { taken, stock.getLong(0), bookId });
+                units -= taken;
+            }
+        } finally {
+            stock.close();
+        }
+    }
+
+    /**
+     * Apply a chunk of changes pulled from head office in a single transaction. A change is only
+     * applied if its remote version is newer than the one of the local book (or of its
+     * tombstone), so replays and stale changes are skipped and head office wins conflicts with
+     * unpushed local edits. Applied changes are marked as synced, so they aren't pushed back.
+     * Changes without a sync ID, or with an invalid book, are logged and skipped.
+     *
+     * @return the number of changes applied.
+     */
+    private int applySyncChanges(ContentValues[] changes) {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int applied = 0;
+        database.beginTransaction();
+        try {
+            long version = nextVersion(database);
+            long now = System.currentTimeMillis();
+            for (ContentValues change : changes) {
+                String syncId = change.getAsString(BookEntry.COLUMN_BOOK_SYNC_ID);
+                Long remoteVersion = change.getAsLong(BookEntry.COLUMN_BOOK_REMOTE_VERSION);
+                if (syncId == null || remoteVersion == null) {
+                    Log.w(LOG_TAG, "Skipping sync change without a sync ID or remote version");
+                    continue;
+                }
+                Boolean deleted = change.getAsBoolean(BookEntry.COLUMN_DELETED);
 
-        // Track the number of rows that were deleted.
-        int rowsDeleted;
+                // Validate the book before writing anything, so a bad change from head office is
+                // skipped rather than failing the whole chunk, which would then be pulled again
+                // and fail again forever.
+                ContentValues values = null;
+                if (!Boolean.TRUE.equals(deleted)) {
+                    values = copySyncedBookColumns(change);
+                    try {
+                        validateNewBook(values);
+                    } catch (IllegalArgumentException e) {
+                        Log.w(LOG_TAG, "Skipping invalid synced book " + syncId + ": "
+                                + e.getMessage());
+                        continue;
+                    }
+                }
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case BOOKS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case BOOK_ID:
-                // Delete a single row given by the ID in the URI.
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+                // Find the local book with the same sync identity, through its unique index. An
+                // archived book is restored first, so the change is applied to it.
+                BookArchive.restore(database, BookEntry.COLUMN_BOOK_SYNC_ID + "=?",
+                        new String[] { syncId });
+                long bookId = -1;
+                long localRemoteVersion = -1;
+                Cursor cursor = database.query(BookEntry.TABLE_NAME,
+                        new String[] { BookEntry._ID, BookEntry.COLUMN_BOOK_REMOTE_VERSION },
+                        BookEntry.COLUMN_BOOK_SYNC_ID + "=?", new String[] { syncId },
+                        null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        bookId = cursor.getLong(0);
+                        localRemoteVersion = cursor.getLong(1);
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                if (bookId == -1) {
+                    // The book is new here, unless it was deleted locally after this change.
+                    long tombstoneRemoteVersion = DatabaseUtils.longForQuery(database,
+                            "SELECT IFNULL(MAX(" + TombstoneEntry.COLUMN_REMOTE_VERSION + "), -1)"
+                                    + " FROM " + TombstoneEntry.TABLE_NAME
+                                    + " WHERE " + TombstoneEntry.COLUMN_SYNC_ID + " = ?",
+                            new String[] { syncId });
+                    if (Boolean.TRUE.equals(deleted) || tombstoneRemoteVersion >= remoteVersion) {
+                        continue;
+                    }
+
+                    stampChange(values, version);
+                    values.put(BookEntry.COLUMN_BOOK_SYNC_ID, syncId);
+                    values.put(BookEntry.COLUMN_BOOK_REMOTE_VERSION, remoteVersion);
+                    values.put(BookEntry.COLUMN_BOOK_SYNCED_VERSION, version);
+                    if (insertBookRow(database, values) == -1) {
+                        // Another local book already has this ISBN. Keep the book without it
+                        // rather than failing the whole chunk.
+                        Log.w(LOG_TAG, "Dropping duplicate ISBN of synced book " + syncId);
+                        values.remove(BookEntry.COLUMN_BOOK_ISBN);
+                        if (insertBookRow(database, values) == -1) {
+                            throw new IllegalStateException(
+                                    "Failed to insert synced book " + syncId);
+                        }
+                    }
+                } else if (localRemoteVersion >= remoteVersion) {
+                    // The local book is already as new as this change.
+                    continue;
+                } else if (Boolean.TRUE.equals(deleted)) {
+                    // Delete the book, leaving a tombstone that is already synced.
+                    database.execSQL("INSERT OR REPLACE INTO " + TombstoneEntry.TABLE_NAME + " ("
+                            + TombstoneEntry.COLUMN_BOOK_ID + ", "
+                            + TombstoneEntry.COLUMN_VERSION + ", "
+                            + TombstoneEntry.COLUMN_DELETED_AT + ", "
+                            + TombstoneEntry.COLUMN_SYNC_ID + ", "
+                            + TombstoneEntry.COLUMN_REMOTE_VERSION + ", "
+                            + TombstoneEntry.COLUMN_SYNCED_VERSION + ") VALUES (?, ?, ?, ?, ?, ?)",
+                            new Object[] { bookId, version, now, syncId, remoteVersion, version });
+                    database.delete(BookEntry.TABLE_NAME, BookEntry._ID + "=?",
+                            new String[] { String.valueOf(bookId) });
+                } else {
+                    String[] idArgs = new String[] { String.valueOf(bookId) };
+                    setTotalQuantity(database,
+                            values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY),
+                            BookEntry._ID + "=?", idArgs);
+                    stampChange(values, version);
+                    values.put(BookEntry.COLUMN_BOOK_REMOTE_VERSION, remoteVersion);
+                    values.put(BookEntry.COLUMN_BOOK_SYNCED_VERSION, version);
+                    database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + "=?", idArgs);
+                }
+                applied++;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the given
-        // URI has changed.
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners once for the whole chunk.
+        if (applied > 0) {
+            notifyChange(BookEntry.CONTENT_URI);
         }
+        return applied;
+    }
 
-        // Return the number of rows deleted.
-        return rowsDeleted;
+    /**
+     * Returns a copy of the book columns of a change pulled from head office.
+     */
+    private static ContentValues copySyncedBookColumns(ContentValues change) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, change.getAsString(BookEntry.COLUMN_BOOK_NAME));
+        values.put(BookEntry.COLUMN_BOOK_PRICE, change.getAsDouble(BookEntry.COLUMN_BOOK_PRICE));
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY,
+                change.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+                change.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME));
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+                change.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER));
+        values.put(BookEntry.COLUMN_BOOK_ISBN, change.getAsString(BookEntry.COLUMN_BOOK_ISBN));
+        return values;
     }
 
-    @Override
-    public String getType(Uri uri) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case BOOKS:
-                return BookEntry.CONTENT_LIST_TYPE;
-            case BOOK_ID:
+    /**
+     * Record the head office versions of books and tombstones that were pushed. Rows changed
+     * again since they were pushed keep their local changes unsynced. This is sync bookkeeping
+     * only, so the rows keep their version and listeners aren't notified.
+     *
+     * @return the number of rows acknowledged.
+     */
+    private int acknowledgeSync(ContentValues[] acks) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement book = database.compileStatement("UPDATE " + BookEntry.TABLE_NAME
+                + " SET " + BookEntry.COLUMN_BOOK_REMOTE_VERSION + " = ?, "
+                + BookEntry.COLUMN_BOOK_SYNCED_VERSION + " = " + BookEntry.COLUMN_BOOK_VERSION
+                + " WHERE " + BookEntry.COLUMN_BOOK_SYNC_ID + " = ?"
+                + " AND " + BookEntry.COLUMN_BOOK_VERSION + " = ?");
+        SQLiteStatement tombstone = database.compileStatement("UPDATE "
+                + TombstoneEntry.TABLE_NAME
+                + " SET " + TombstoneEntry.COLUMN_REMOTE_VERSION + " = ?, "
+                + TombstoneEntry.COLUMN_SYNCED_VERSION + " = " + TombstoneEntry.COLUMN_VERSION
+                + " WHERE " + TombstoneEntry.COLUMN_SYNC_ID + " = ?"
+                + " AND " + TombstoneEntry.COLUMN_VERSION + " = ?");
+
+        int acknowledged = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues ack : acks) {
+                String syncId = ack.getAsString(BookEntry.COLUMN_BOOK_SYNC_ID);
+                Long version = ack.getAsLong(BookEntry.COLUMN_BOOK_VERSION);
+                Long remoteVersion = ack.getAsLong(BookEntry.COLUMN_BOOK_REMOTE_VERSION);
+                if (syncId == null || version == null || remoteVersion == null) {
+                    throw new IllegalArgumentException(
+                            "Sync acknowledgement requires a sync ID and versions");
+                }
+                SQLiteStatement statement =
+                        Boolean.TRUE.equals(ack.getAsBoolean(BookEntry.COLUMN_DELETED))
+                                ? tombstone : book;
+                statement.bindLong(1, remoteVersion);
+                statement.bindString(2, syncId);
+                statement.bindLong(3, version);
+                acknowledged += statement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            book.close();
+            tombstone.close();
+        }
+        return acknowledged;
+    }
+
+    /**
+     * Sell copies of a book at a location, or at {@link #ANY_LOCATION} with enough stock. The
+     * stock is checked and decremented by a single conditional update, so concurrent sales can
+     * never sell more copies than are in stock. Return 1 if the sale was made, or 0 if there
+     * wasn't enough stock.
+     */
+    private int sellBook(Uri uri, long locationId, long bookId, ContentValues values) {
+        // The number of copies to sell defaults to 1.
+        Integer units = values == null ? null : values.getAsInteger(StockEntry.SELL_UNITS);
+        if (units == null) {
+            units = 1;
+        }
+        if (units < 1) {
+            throw new IllegalArgumentException("Sale requires a valid number of units");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean sold;
+        database.beginTransaction();
+        try {
+            long saleLocationId = locationId == ANY_LOCATION
+                    ? findStockedLocation(database, bookId, units) : locationId;
+            sold = saleLocationId != ANY_LOCATION && decrementStock(database, saleLocationId,
+                    bookId, units, nextVersion(database));
+            if (sold) {
+                recordSale(database, saleLocationId, bookId, units, System.currentTimeMillis());
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (sold) {
+            notifyChange(uri);
+            mNotifier.notifyChange(SaleEntry.CONTENT_URI);
+        }
+        return sold ? 1 : 0;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // One section per method, so the methods can be told apart in a trace.
+        TraceCompat.beginSection("BookProvider.call." + method);
+        try {
+            return callMethod(method, arg, extras == null ? Bundle.EMPTY : extras);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (BatchCall.METHOD_BATCH.equals(method)) {
+            return callBatch(extras);
+        }
+        if (GenerateCall.METHOD_GENERATE.equals(method)) {
+            return callGenerate(extras);
+        }
+        if (BulkEditCall.METHOD_BULK_EDIT.equals(method)) {
+            return callBulkEdit(extras);
+        }
+        if (CheckoutCall.METHOD_CHECKOUT.equals(method)) {
+            return callCheckout(extras);
+        }
+        if (ArchiveCall.METHOD_ARCHIVE.equals(method)) {
+            return callArchive(extras);
+        }
+        if (DatabaseMaintenance.METHOD_MAINTAIN.equals(method)) {
+            return DatabaseMaintenance.run(mDbHelper.getWritableDatabase());
+        }
+        if (ChangeNotifier.METHOD_NOTIFICATION_STATS.equals(method)) {
+            return mNotifier.getStats();
+        }
+        if (LowStockAlerts.METHOD_TAKE_ALERTS.equals(method)) {
+            // Cleared first, so an alert raised while these are taken schedules the job again.
+            mLowStockAlertScheduled = false;
+            return LowStockAlerts.take(mDbHelper.getWritableDatabase());
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Insert synthetic books in a single transaction, see {@link GenerateCall}.
+     */
+    private Bundle callGenerate(Bundle extras) {
+        if (!BuildConfig.DEBUG) {
+            throw new UnsupportedOperationException("Generate is only available in debug builds");
+        }
+        int count = extras.getInt(GenerateCall.KEY_COUNT);
+        if (count < 1) {
+            throw new IllegalArgumentException("Generate requires a valid number of books");
+        }
+        long seed = extras.getLong(GenerateCall.KEY_SEED, GenerateCall.DEFAULT_SEED);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int inserted;
+        database.beginTransaction();
+        try {
+            inserted = new CatalogGenerator(seed).insert(database, count,
+                    nextVersions(database, count));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (inserted > 0) {
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(GenerateCall.KEY_COUNT, inserted);
+        return result;
+    }
+
+    /**
+     * Apply one edit to many books with a single statement, see {@link BulkEditCall}.
+     */
+    private Bundle callBulkEdit(Bundle extras) {
+        long[] bookIds = extras.getLongArray(BulkEditCall.KEY_BOOK_IDS);
+        if (bookIds == null || bookIds.length == 0) {
+            throw new IllegalArgumentException("Bulk edit requires book IDs");
+        }
+        String idSelection = idsIn(BookEntry._ID, bookIds);
+
+        int count;
+        if (extras.containsKey(BulkEditCall.KEY_PRICE)) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_PRICE, extras.getDouble(BulkEditCall.KEY_PRICE));
+            count = updateBook(BookEntry.CONTENT_URI, values, idSelection, null);
+        } else if (extras.containsKey(BulkEditCall.KEY_SUPPLIER_NAME)) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+                    extras.getString(BulkEditCall.KEY_SUPPLIER_NAME));
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+                    extras.getString(BulkEditCall.KEY_SUPPLIER_NUMBER));
+            count = updateBook(BookEntry.CONTENT_URI, values, idSelection, null);
+        } else if (extras.containsKey(BulkEditCall.KEY_PRICE_PERCENT)) {
+            double percent = extras.getDouble(BulkEditCall.KEY_PRICE_PERCENT);
+            if (percent < -100) {
+                throw new IllegalArgumentException("Bulk edit requires a valid percentage");
+            }
+            count = updateBooks(BookEntry.COLUMN_BOOK_PRICE + " = ROUND("
+                    + BookEntry.COLUMN_BOOK_PRICE + " * ?, 2)", 1 + percent / 100,
+                    idSelection, false);
+        } else if (extras.containsKey(BulkEditCall.KEY_RESTOCK_UNITS)) {
+            int units = extras.getInt(BulkEditCall.KEY_RESTOCK_UNITS);
+            if (units < 1) {
+                throw new IllegalArgumentException("Bulk edit requires a valid quantity");
+            }
+            count = updateBooks(BookEntry.COLUMN_BOOK_QUANTITY + " = "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + " + ?", units, idSelection, true);
+        } else if (extras.getBoolean(BulkEditCall.KEY_DELETE)) {
+            count = deleteBooks(mDbHelper.getWritableDatabase(), idSelection, null);
+            if (count > 0) {
+                notifyChange(BookEntry.CONTENT_URI);
+            }
+        } else {
+            throw new IllegalArgumentException("Bulk edit requires an edit");
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(BulkEditCall.KEY_COUNT, count);
+        return result;
+    }
+
+    /**
+     * Update the books that match the selection with a SET expression that has one argument,
+     * as a single statement that gives them all the same new version. When restocking, the
+     * argument is also added to the stock of the books at the default location, so it stays
+     * the total over all locations.
+     *
+     * @return the number of books updated.
+     */
+    private int updateBooks(String setExpression, Object arg, String selection,
+                            boolean restock) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            if (restock) {
+                database.execSQL("UPDATE " + StockEntry.TABLE_NAME
+                        + " SET " + StockEntry.COLUMN_QUANTITY + " = "
+                        + StockEntry.COLUMN_QUANTITY + " + ?"
+                        + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = "
+                        + LocationEntry.DEFAULT_LOCATION_ID
+                        + " AND " + StockEntry.COLUMN_BOOK_ID + " IN ("
+                        + selectBookIds(selection) + ")", new Object[] { arg });
+            }
+            SQLiteStatement statement = database.compileStatement("UPDATE "
+                    + BookEntry.TABLE_NAME + " SET " + setExpression + ", "
+                    + BookEntry.COLUMN_BOOK_VERSION + " = ?, "
+                    + BookEntry.COLUMN_BOOK_UPDATED_AT + " = ?" + whereClause(selection));
+            try {
+                DatabaseUtils.bindObjectToProgram(statement, 1, arg);
+                statement.bindLong(2, nextVersion(database));
+                statement.bindLong(3, System.currentTimeMillis());
+                rowsUpdated = statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated > 0) {
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Move the books that have been inactive for the given number of days to the archive in a
+     * single transaction, see {@link ArchiveCall}.
+     */
+    private Bundle callArchive(Bundle extras) {
+        int inactiveDays = extras.getInt(ArchiveCall.KEY_INACTIVE_DAYS,
+                ArchiveCall.DEFAULT_INACTIVE_DAYS);
+        if (inactiveDays < 0) {
+            throw new IllegalArgumentException("Archive requires a valid number of days");
+        }
+        long inactiveSince = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(inactiveDays);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int archived;
+        database.beginTransaction();
+        try {
+            archived = BookArchive.archive(database, inactiveSince);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // The archive URI is below the books URI, so its listeners are notified too.
+        if (archived > 0) {
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(ArchiveCall.KEY_COUNT, archived);
+        return result;
+    }
+
+    /**
+     * Move an archived book back to the books table. Return 1 if the book was restored, or 0 if
+     * it isn't archived or can't be restored.
+     */
+    private int restoreBook(Uri uri) {
+        String[] idArgs = new String[] { uri.getPathSegments().get(2) };
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int restored;
+        database.beginTransaction();
+        try {
+            restored = BookArchive.restore(database, BookEntry._ID + "=?", idArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (restored > 0) {
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return restored;
+    }
+
+    /**
+     * Run a batch of ISBN lookups, sales and quantity reads in a single transaction, see
+     * {@link BatchCall}. The results are returned as primitive arrays, which are much cheaper to
+     * send back across processes than a cursor window per operation.
+     */
+    private Bundle callBatch(Bundle extras) {
+        long locationId = extras.getLong(BatchCall.KEY_LOCATION_ID,
+                LocationEntry.DEFAULT_LOCATION_ID);
+        String[] isbns = extras.getStringArray(BatchCall.KEY_LOOKUP_ISBNS);
+        long[] sellBookIds = extras.getLongArray(BatchCall.KEY_SELL_BOOK_IDS);
+        int[] sellUnits = extras.getIntArray(BatchCall.KEY_SELL_UNITS);
+        long[] quantityBookIds = extras.getLongArray(BatchCall.KEY_QUANTITY_BOOK_IDS);
+
+        // Check the whole batch before anything is changed.
+        if (sellUnits != null) {
+            if (sellBookIds == null || sellUnits.length != sellBookIds.length) {
+                throw new IllegalArgumentException("Batch requires units for every sale");
+            }
+            for (int units : sellUnits) {
+                if (units < 1) {
+                    throw new IllegalArgumentException("Sale requires a valid number of units");
+                }
+            }
+        }
+
+        Bundle result = new Bundle();
+        boolean anySold = false;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            if (isbns != null) {
+                long[] bookIds = new long[isbns.length];
+                SQLiteStatement statement = database.compileStatement("SELECT "
+                        + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                        + " WHERE " + BookEntry.COLUMN_BOOK_ISBN + " = ?");
+                try {
+                    for (int i = 0; i < isbns.length; i++) {
+                        String isbn = BookEntry.normalizeIsbn(isbns[i]);
+                        bookIds[i] = isbn == null ? BatchCall.NOT_FOUND
+                                : simpleQueryForLong(statement, isbn);
+                    }
+                } finally {
+                    statement.close();
+                }
+                result.putLongArray(BatchCall.KEY_BOOK_IDS, bookIds);
+            }
+
+            if (sellBookIds != null) {
+                boolean[] sold = new boolean[sellBookIds.length];
+                long soldAt = System.currentTimeMillis();
+                for (int i = 0; i < sellBookIds.length; i++) {
+                    int units = sellUnits == null ? 1 : sellUnits[i];
+                    sold[i] = decrementStock(database, locationId, sellBookIds[i], units,
+                            nextVersion(database));
+                    if (sold[i]) {
+                        recordSale(database, locationId, sellBookIds[i], units, soldAt);
+                        anySold = true;
+                    }
+                }
+                result.putBooleanArray(BatchCall.KEY_SOLD, sold);
+            }
+
+            if (quantityBookIds != null) {
+                int[] quantities = new int[quantityBookIds.length];
+                SQLiteStatement statement = database.compileStatement("SELECT "
+                        + StockEntry.COLUMN_QUANTITY + " FROM " + StockEntry.TABLE_NAME
+                        + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = " + locationId
+                        + " AND " + StockEntry.COLUMN_BOOK_ID + " = ?");
+                try {
+                    for (int i = 0; i < quantityBookIds.length; i++) {
+                        quantities[i] = (int) simpleQueryForLong(statement,
+                                String.valueOf(quantityBookIds[i]));
+                    }
+                } finally {
+                    statement.close();
+                }
+                result.putIntArray(BatchCall.KEY_QUANTITIES, quantities);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify once for the whole batch rather than once per sale.
+        if (anySold) {
+            notifyChange(BookEntry.CONTENT_URI);
+            mNotifier.notifyChange(SaleEntry.CONTENT_URI);
+        }
+        return result;
+    }
+
+    /**
+     * Sell every line of a cart in a single transaction, or nothing if any book is short, see
+     * {@link CheckoutCall}. The stock of all the books is read with one query under the write
+     * lock, so it can't change between the check and the sales.
+     */
+    private Bundle callCheckout(Bundle extras) {
+        long locationId = extras.getLong(CheckoutCall.KEY_LOCATION_ID,
+                LocationEntry.DEFAULT_LOCATION_ID);
+        long[] bookIds = extras.getLongArray(CheckoutCall.KEY_BOOK_IDS);
+        int[] units = extras.getIntArray(CheckoutCall.KEY_UNITS);
+        if (bookIds == null || bookIds.length == 0) {
+            throw new IllegalArgumentException("Checkout requires book IDs");
+        }
+        if (units == null || units.length != bookIds.length) {
+            throw new IllegalArgumentException("Checkout requires units for every book");
+        }
+
+        // Add up the lines of the same book, keeping the order of the cart.
+        Map<Long, Integer> wanted = new LinkedHashMap<>();
+        for (int i = 0; i < bookIds.length; i++) {
+            if (units[i] < 1) {
+                throw new IllegalArgumentException("Sale requires a valid number of units");
+            }
+            Integer previous = wanted.get(bookIds[i]);
+            wanted.put(bookIds[i], previous == null ? units[i] : previous + units[i]);
+        }
+
+        List<Long> shortBookIds = new ArrayList<>();
+        List<Integer> shortAvailable = new ArrayList<>();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            // Books without stock at the location have no row and stay at 0.
+            Map<Long, Integer> available = new HashMap<>();
+            Cursor cursor = database.query(StockEntry.TABLE_NAME,
+                    new String[] { StockEntry.COLUMN_BOOK_ID, StockEntry.COLUMN_QUANTITY },
+                    StockEntry.COLUMN_LOCATION_ID + " = " + locationId + " AND "
+                            + idsIn(StockEntry.COLUMN_BOOK_ID, bookIds),
+                    null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    available.put(cursor.getLong(0), cursor.getInt(1));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (Map.Entry<Long, Integer> line : wanted.entrySet()) {
+                Integer quantity = available.get(line.getKey());
+                int inStock = quantity == null ? 0 : quantity;
+                if (inStock < line.getValue()) {
+                    shortBookIds.add(line.getKey());
+                    shortAvailable.add(inStock);
+                }
+            }
+
+            if (shortBookIds.isEmpty()) {
+                long version = nextVersions(database, wanted.size());
+                long soldAt = System.currentTimeMillis();
+                for (Map.Entry<Long, Integer> line : wanted.entrySet()) {
+                    if (!decrementStock(database, locationId, line.getKey(), line.getValue(),
+                            version++)) {
+                        // Can't happen under the write lock, but never commit half a cart.
+                        throw new IllegalStateException("Stock changed during checkout");
+                    }
+                    recordSale(database, locationId, line.getKey(), line.getValue(), soldAt);
+                }
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
+
+        Bundle result = new Bundle();
+        boolean completed = shortBookIds.isEmpty();
+        result.putBoolean(CheckoutCall.KEY_COMPLETED, completed);
+        if (completed) {
+            notifyChange(BookEntry.CONTENT_URI);
+            mNotifier.notifyChange(SaleEntry.CONTENT_URI);
+        } else {
+            long[] ids = new long[shortBookIds.size()];
+            int[] quantities = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = shortBookIds.get(i);
+                quantities[i] = shortAvailable.get(i);
+            }
+            result.putLongArray(CheckoutCall.KEY_SHORT_BOOK_IDS, ids);
+            result.putIntArray(CheckoutCall.KEY_SHORT_AVAILABLE, quantities);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the single value selected by the given statement for the given argument, or
+     * {@link BatchCall#NOT_FOUND} if it selects no row.
+     */
+    private static long simpleQueryForLong(SQLiteStatement statement, String arg) {
+        statement.bindString(1, arg);
+        try {
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return BatchCall.NOT_FOUND;
+        }
+    }
+
+    /**
+     * Record a sale at the current price of the book, add it to the daily rollups and update the
+     * sales rate of the book. Must be called inside the transaction that takes the copies out of
+     * stock.
+     */
+    private void recordSale(SQLiteDatabase database, long locationId, long bookId, int units,
+                            long soldAt) {
+        double price = 0;
+        double salesRate = 0;
+        long rateUpdatedAt = 0;
+        Cursor cursor = database.query(BookEntry.TABLE_NAME,
+                new String[] {
+                        BookEntry.COLUMN_BOOK_PRICE,
+                        BookEntry.COLUMN_BOOK_SALES_RATE,
+                        BookEntry.COLUMN_BOOK_RATE_UPDATED_AT },
+                BookEntry._ID + "=?", new String[] { String.valueOf(bookId) },
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                price = cursor.getDouble(0);
+                salesRate = cursor.getDouble(1);
+                rateUpdatedAt = cursor.isNull(2) ? 0 : cursor.getLong(2);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Decay the rate for the time since the last sale, then add this sale to it. Spread over
+        // the time constant, a sale adds units / time constant copies per day. The trigger on the
+        // books table updates the stock-out time.
+        double tau = BookDbHelper.SALES_RATE_TIME_CONSTANT_DAYS;
+        double elapsedDays = rateUpdatedAt == 0
+                ? Double.POSITIVE_INFINITY
+                : Math.max(0, soldAt - rateUpdatedAt) / BookDbHelper.DAY_MILLIS;
+        double newRate = salesRate * Math.exp(-elapsedDays / tau) + units / tau;
+        database.execSQL("UPDATE " + BookEntry.TABLE_NAME
+                + " SET " + BookEntry.COLUMN_BOOK_SALES_RATE + " = ?, "
+                + BookEntry.COLUMN_BOOK_RATE_UPDATED_AT + " = ?"
+                + " WHERE " + BookEntry._ID + " = ?",
+                new Object[] { newRate, soldAt, bookId });
+
+        double revenue = units * price;
+        int day = SaleEntry.toDay(soldAt);
+
+        ContentValues sale = new ContentValues();
+        sale.put(SaleEntry.COLUMN_BOOK_ID, bookId);
+        sale.put(SaleEntry.COLUMN_LOCATION_ID, locationId);
+        sale.put(SaleEntry.COLUMN_UNITS, units);
+        sale.put(SaleEntry.COLUMN_PRICE, price);
+        sale.put(SaleEntry.COLUMN_SOLD_AT, soldAt);
+        database.insertOrThrow(SaleEntry.TABLE_NAME, null, sale);
+
+        // Add the sale to the rollup rows of its day, creating them on the first sale of the day.
+        database.execSQL("INSERT OR IGNORE INTO " + DailyBookSalesEntry.TABLE_NAME + " ("
+                + DailyBookSalesEntry.COLUMN_DAY + ", " + DailyBookSalesEntry.COLUMN_BOOK_ID
+                + ") VALUES (?, ?)", new Object[] { day, bookId });
+        database.execSQL("UPDATE " + DailyBookSalesEntry.TABLE_NAME
+                + " SET " + DailyBookSalesEntry.COLUMN_UNITS + " = "
+                + DailyBookSalesEntry.COLUMN_UNITS + " + ?, "
+                + DailyBookSalesEntry.COLUMN_REVENUE + " = "
+                + DailyBookSalesEntry.COLUMN_REVENUE + " + ?"
+                + " WHERE " + DailyBookSalesEntry.COLUMN_DAY + " = ?"
+                + " AND " + DailyBookSalesEntry.COLUMN_BOOK_ID + " = ?",
+                new Object[] { units, revenue, day, bookId });
+        database.execSQL("INSERT OR IGNORE INTO " + DailySalesEntry.TABLE_NAME + " ("
+                + DailySalesEntry.COLUMN_DAY + ") VALUES (?)", new Object[] { day });
+        database.execSQL("UPDATE " + DailySalesEntry.TABLE_NAME
+                + " SET " + DailySalesEntry.COLUMN_UNITS + " = "
+                + DailySalesEntry.COLUMN_UNITS + " + ?, "
+                + DailySalesEntry.COLUMN_REVENUE + " = "
+                + DailySalesEntry.COLUMN_REVENUE + " + ?"
+                + " WHERE " + DailySalesEntry.COLUMN_DAY + " = ?",
+                new Object[] { units, revenue, day });
+    }
+
+    /**
+     * Returns the location to sell copies of a book at when any location will do: the default
+     * location if it has enough stock, otherwise the first location that has, in the order of
+     * their IDs, or {@link #ANY_LOCATION} if none has. Must be called inside a transaction.
+     */
+    private static long findStockedLocation(SQLiteDatabase database, long bookId, int units) {
+        Cursor cursor = database.query(StockEntry.TABLE_NAME,
+                new String[] { StockEntry.COLUMN_LOCATION_ID },
+                StockEntry.COLUMN_BOOK_ID + " = ? AND " + StockEntry.COLUMN_QUANTITY + " >= ?",
+                new String[] { String.valueOf(bookId), String.valueOf(units) }, null, null,
+                StockEntry.COLUMN_LOCATION_ID + " = " + LocationEntry.DEFAULT_LOCATION_ID
+                        + " DESC, " + StockEntry.COLUMN_LOCATION_ID, "1");
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : ANY_LOCATION;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Take copies of a book out of the stock of a location and out of the book's total quantity.
+     * Must be called inside a transaction.
+     *
+     * @return true if the location had enough stock, false if nothing was changed.
+     */
+    private boolean decrementStock(SQLiteDatabase database, long locationId, long bookId,
+                                   int units, long version) {
+        SQLiteStatement statement = database.compileStatement("UPDATE " + StockEntry.TABLE_NAME
+                + " SET " + StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " - ?"
+                + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = ?"
+                + " AND " + StockEntry.COLUMN_BOOK_ID + " = ?"
+                + " AND " + StockEntry.COLUMN_QUANTITY + " >= ?");
+        try {
+            statement.bindLong(1, units);
+            statement.bindLong(2, locationId);
+            statement.bindLong(3, bookId);
+            statement.bindLong(4, units);
+            if (statement.executeUpdateDelete() == 0) {
+                return false;
+            }
+        } finally {
+            statement.close();
+        }
+
+        database.execSQL("UPDATE " + BookEntry.TABLE_NAME
+                + " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " - ?, "
+                + BookEntry.COLUMN_BOOK_VERSION + " = ?, "
+                + BookEntry.COLUMN_BOOK_UPDATED_AT + " = ?"
+                + " WHERE " + BookEntry._ID + " = ?",
+                new Object[] { units, version, System.currentTimeMillis(), bookId });
+        return true;
+    }
+
+    /**
+     * Insert a location into the database. Return the new content URI for that location.
+     */
+    private Uri insertLocation(Uri uri, ContentValues values) {
+        // Check that the name is not null.
+        String name = values.getAsString(LocationEntry.COLUMN_LOCATION_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(LocationEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        mNotifier.notifyChange(uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Rename a location. Return the number of rows that were updated.
+     */
+    private int updateLocation(Uri uri, ContentValues values) {
+        if (values.containsKey(LocationEntry.COLUMN_LOCATION_NAME)
+                && values.getAsString(LocationEntry.COLUMN_LOCATION_NAME) == null) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(LocationEntry.TABLE_NAME, values,
+                LocationEntry._ID + "=?", new String[] { String.valueOf(ContentUris.parseId(uri)) });
+        if (rowsUpdated != 0) {
+            mNotifier.notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete a location. Its stock is moved to the default location, so the total quantity of
+     * every book stays the same. The default location itself can't be deleted.
+     */
+    private int deleteLocation(Uri uri) {
+        long locationId = ContentUris.parseId(uri);
+        if (locationId == LocationEntry.DEFAULT_LOCATION_ID) {
+            throw new IllegalArgumentException("The default location can't be deleted");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsDeleted;
+        database.beginTransaction();
+        try {
+            database.execSQL("UPDATE " + StockEntry.TABLE_NAME
+                    + " SET " + StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY
+                    + " + IFNULL((SELECT moved." + StockEntry.COLUMN_QUANTITY
+                    + " FROM " + StockEntry.TABLE_NAME + " moved"
+                    + " WHERE moved." + StockEntry.COLUMN_LOCATION_ID + " = ?"
+                    + " AND moved." + StockEntry.COLUMN_BOOK_ID + " = " + StockEntry.TABLE_NAME
+                    + "." + StockEntry.COLUMN_BOOK_ID + "), 0)"
+                    + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = "
+                    + LocationEntry.DEFAULT_LOCATION_ID, new Object[] { locationId });
+            database.delete(StockEntry.TABLE_NAME, StockEntry.COLUMN_LOCATION_ID + "=?",
+                    new String[] { String.valueOf(locationId) });
+            rowsDeleted = database.delete(LocationEntry.TABLE_NAME, LocationEntry._ID + "=?",
+                    new String[] { String.valueOf(locationId) });
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsDeleted != 0) {
+            notifyChange(uri);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Stock a book at the location of the given catalog URI, from the
+     * {@link StockEntry#COLUMN_BOOK_ID} and {@link StockEntry#COLUMN_QUANTITY} values. Return the
+     * content URI of the book in the location's catalog.
+     */
+    private Uri insertStock(Uri uri, ContentValues values) {
+        Long bookId = values.getAsLong(StockEntry.COLUMN_BOOK_ID);
+        if (bookId == null) {
+            throw new IllegalArgumentException("Stock requires a book");
+        }
+        long locationId = parseLocationId(uri);
+        if (!setStock(uri, locationId, bookId, values)) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        return LocationEntry.buildStockUri(locationId, bookId);
+    }
+
+    /**
+     * Set the stock of the book of the given URI at its location, from the
+     * {@link StockEntry#COLUMN_QUANTITY} value. Return the number of rows that were updated.
+     */
+    private int updateStock(Uri uri, ContentValues values) {
+        return setStock(uri, parseLocationId(uri), ContentUris.parseId(uri), values) ? 1 : 0;
+    }
+
+    /**
+     * Set the stock of a book at a location, and adjust the book's total quantity by the
+     * difference, in one transaction.
+     *
+     * @return true if the stock was set, false if there is no such book.
+     */
+    private boolean setStock(Uri uri, long locationId, long bookId, ContentValues values) {
+        // Check that the quantity is valid.
+        Integer quantity = values.getAsInteger(StockEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity < 0) {
+            throw new IllegalArgumentException("Stock requires valid quantity");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] locationArgs = new String[] { String.valueOf(locationId) };
+        if (DatabaseUtils.queryNumEntries(database, LocationEntry.TABLE_NAME,
+                LocationEntry._ID + "=?", locationArgs) == 0) {
+            throw new IllegalArgumentException("Unknown location " + locationId);
+        }
+
+        boolean updated;
+        database.beginTransaction();
+        try {
+            // Adjust the total first, while the old stock of the location can still be read.
+            SQLiteStatement total = database.compileStatement("UPDATE " + BookEntry.TABLE_NAME
+                    + " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + " + ? - IFNULL((SELECT "
+                    + StockEntry.COLUMN_QUANTITY + " FROM " + StockEntry.TABLE_NAME
+                    + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = ?"
+                    + " AND " + StockEntry.COLUMN_BOOK_ID + " = ?), 0), "
+                    + BookEntry.COLUMN_BOOK_VERSION + " = ?, "
+                    + BookEntry.COLUMN_BOOK_UPDATED_AT + " = ?"
+                    + " WHERE " + BookEntry._ID + " = ?");
+            try {
+                total.bindLong(1, quantity);
+                total.bindLong(2, locationId);
+                total.bindLong(3, bookId);
+                total.bindLong(4, nextVersion(database));
+                total.bindLong(5, System.currentTimeMillis());
+                total.bindLong(6, bookId);
+                updated = total.executeUpdateDelete() > 0;
+            } finally {
+                total.close();
+            }
+
+            if (updated) {
+                ContentValues stock = new ContentValues();
+                stock.put(StockEntry.COLUMN_LOCATION_ID, locationId);
+                stock.put(StockEntry.COLUMN_BOOK_ID, bookId);
+                stock.put(StockEntry.COLUMN_QUANTITY, quantity);
+                database.insertWithOnConflict(StockEntry.TABLE_NAME, null, stock,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
+
+        if (updated) {
+            notifyChange(uri);
+        }
+        return updated;
+    }
+
+    /**
+     * Delete the books that match the selection, leaving a tombstone for each of them so the
+     * deletion shows up in the changes URI. Return the number of books deleted.
+     */
+    private int deleteBooks(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        int rowsDeleted;
+        List<String> covers = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            // Remember the covers of the books, to delete their files once the books are gone.
+            Cursor cursor = database.query(BookEntry.TABLE_NAME,
+                    new String[] { BookEntry.COLUMN_BOOK_COVER },
+                    "(" + (TextUtils.isEmpty(selection) ? "1" : selection) + ") AND "
+                            + BookEntry.COLUMN_BOOK_COVER + " IS NOT NULL",
+                    selectionArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    covers.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            database.execSQL("INSERT OR REPLACE INTO " + TombstoneEntry.TABLE_NAME + " ("
+                    + TombstoneEntry.COLUMN_BOOK_ID + ", " + TombstoneEntry.COLUMN_VERSION + ", "
+                    + TombstoneEntry.COLUMN_DELETED_AT + ", " + TombstoneEntry.COLUMN_SYNC_ID + ", "
+                    + TombstoneEntry.COLUMN_REMOTE_VERSION + ") SELECT " + BookEntry._ID + ", ?, ?, "
+                    + BookEntry.COLUMN_BOOK_SYNC_ID + ", " + BookEntry.COLUMN_BOOK_REMOTE_VERSION
+                    + " FROM " + BookEntry.TABLE_NAME + whereClause(selection),
+                    bindArgs(selectionArgs, nextVersion(database), System.currentTimeMillis()));
+            rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        for (String cover : covers) {
+            deleteCoverFile(cover);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Replace the cover image of a book, or remove it if the image is null. The new image is
+     * written to a new file before the book is pointed at it, so readers never see a partly
+     * written cover, and the old file is deleted afterwards.
+     *
+     * @return the number of books updated, 0 if the book doesn't exist.
+     */
+    private int setCover(Uri uri, byte[] image) {
+        long bookId = parseBookId(uri);
+        String[] idArgs = new String[] { String.valueOf(bookId) };
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Write the new cover under a fresh name, which also invalidates cached thumbnails.
+        String newCover = null;
+        if (image != null) {
+            newCover = bookId + "-" + UUID.randomUUID() + ".jpg";
+            try {
+                writeCoverFile(newCover, image);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to write cover of book " + bookId, e);
+                deleteCoverFile(newCover);
+                return 0;
+            }
+        }
+
+        String oldCover = null;
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.query(BookEntry.TABLE_NAME,
+                    new String[] { BookEntry.COLUMN_BOOK_COVER }, BookEntry._ID + "=?", idArgs,
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    oldCover = cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_COVER, newCover);
+            stampChange(values, nextVersion(database));
+            rowsUpdated = database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + "=?",
+                    idArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated == 0) {
+            // The book doesn't exist, so nothing refers to the new file.
+            deleteCoverFile(newCover);
+            return 0;
+        }
+        deleteCoverFile(oldCover);
+        notifyChange(uri);
+        return rowsUpdated;
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        switch (sUriMatcher.match(uri)) {
+            case BOOKS_EXPORT:
+                List<String> types = new ArrayList<>();
+                for (String type : EXPORT_MIME_TYPES) {
+                    if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                        types.add(type);
+                    }
+                }
+                return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+            case BOOK_COVER:
+                return ClipDescription.compareMimeTypes(BookEntry.COVER_MIME_TYPE, mimeTypeFilter)
+                        ? new String[] { BookEntry.COVER_MIME_TYPE } : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Open the export URI as the first export type that matches the filter, or open a cover.
+     * The export is written into a pipe by a background thread while the catalog is read, so
+     * it's never materialized in a file or in memory, see {@link CatalogExporter}.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != BOOKS_EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            throw new FileNotFoundException("Can't export " + uri + " as " + mimeTypeFilter);
+        }
+        return new AssetFileDescriptor(openExportPipe(uri, types[0], opts), 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match == BOOKS_EXPORT && "r".equals(mode)) {
+            // Without a type, e.g. through openInputStream(), the export is CSV.
+            return openExportPipe(uri, BookEntry.EXPORT_CSV_MIME_TYPE, null);
+        }
+        if (match != BOOK_COVER) {
+            throw new FileNotFoundException("No files for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Covers are read-only, update " + uri
+                    + " to replace the cover");
+        }
+
+        String cover = null;
+        Cursor cursor = mDbHelper.getReadableDatabase().query(BookEntry.TABLE_NAME,
+                new String[] { BookEntry.COLUMN_BOOK_COVER }, BookEntry._ID + "=?",
+                new String[] { String.valueOf(parseBookId(uri)) }, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                cover = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (cover == null) {
+            throw new FileNotFoundException("No cover for " + uri);
+        }
+        return ParcelFileDescriptor.open(new File(getCoverDirectory(), cover),
+                ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    private ParcelFileDescriptor openExportPipe(Uri uri, String mimeType, Bundle opts)
+            throws FileNotFoundException {
+        return openPipeHelper(uri, mimeType, opts, null,
+                new CatalogExporter(mDbHelper.getReadableDatabase()));
+    }
+
+    private void writeCoverFile(String name, byte[] image) throws IOException {
+        File directory = getCoverDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        FileOutputStream out = new FileOutputStream(new File(directory, name));
+        try {
+            out.write(image);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deleteCoverFile(String name) {
+        if (name != null && !new File(getCoverDirectory(), name).delete()) {
+            Log.w(LOG_TAG, "Unable to delete cover " + name);
+        }
+    }
+
+    /**
+     * Returns the directory holding the cover images, in the app's private files.
+     */
+    private File getCoverDirectory() {
+        return new File(getContext().getFilesDir(), "covers");
+    }
+
+    /**
+     * Returns the version of a new change. Must be called inside the write transaction, whose
+     * write lock makes sure versions are handed out in commit order, so a reader that has seen
+     * version N never misses a change with a lower version committed later.
+     */
+    private long nextVersion(SQLiteDatabase database) {
+        return nextVersions(database, 1);
+    }
+
+    /**
+     * Reserves the versions of the given number of changes and returns the first one, like
+     * {@link #nextVersion(SQLiteDatabase)}.
+     */
+    private synchronized long nextVersions(SQLiteDatabase database, int count) {
+        if (mLastVersion < 0) {
+            mLastVersion = Math.max(
+                    DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                            + BookEntry.COLUMN_BOOK_VERSION + "), 0) FROM "
+                            + BookEntry.TABLE_NAME, null),
+                    Math.max(DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                                    + TombstoneEntry.COLUMN_VERSION + "), 0) FROM "
+                                    + TombstoneEntry.TABLE_NAME, null),
+                            // Archived books keep their version.
+                            DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                                    + BookEntry.COLUMN_BOOK_VERSION + "), 0) FROM "
+                                    + ArchiveEntry.TABLE_NAME, null)));
+        }
+        long first = mLastVersion + 1;
+        mLastVersion += count;
+        return first;
+    }
+
+    /**
+     * Put the version and time of a change into the values written to the books table.
+     */
+    private static void stampChange(ContentValues values, long version) {
+        values.put(BookEntry.COLUMN_BOOK_VERSION, version);
+        values.put(BookEntry.COLUMN_BOOK_UPDATED_AT, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a selection of the rows whose column holds one of the given IDs. The IDs are
+     * numbers, so they are safe to inline, and a list of any length stays clear of the limit on
+     * the number of bound arguments.
+     */
+    private static String idsIn(String column, long[] ids) {
+        StringBuilder selection = new StringBuilder(column).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(ids[i]);
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Returns a subquery selecting the IDs of the books that match the given selection.
+     */
+    private static String selectBookIds(String selection) {
+        return "SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME + whereClause(selection);
+    }
+
+    /**
+     * Returns a WHERE clause for the given selection, or an empty string if there is none.
+     */
+    private static String whereClause(String selection) {
+        return TextUtils.isEmpty(selection) ? "" : " WHERE (" + selection + ")";
+    }
+
+    /**
+     * Returns the bind arguments of a statement that has the given leading arguments followed by
+     * the selection arguments.
+     */
+    private static Object[] bindArgs(String[] selectionArgs, Object... leadingArgs) {
+        int count = selectionArgs == null ? 0 : selectionArgs.length;
+        Object[] bindArgs = new Object[leadingArgs.length + count];
+        System.arraycopy(leadingArgs, 0, bindArgs, 0, leadingArgs.length);
+        if (count > 0) {
+            System.arraycopy(selectionArgs, 0, bindArgs, leadingArgs.length, count);
+        }
+        return bindArgs;
+    }
+
+    /**
+     * Returns the location ID of a "locations/#/..." URI.
+     */
+    private static long parseLocationId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Returns the book ID of a "books/#/sell" or "locations/#/books/#/..." URI.
+     */
+    private static long parseBookId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (BookContract.PATH_LOCATIONS.equals(segments.get(0))) {
+            return Long.parseLong(segments.get(3));
+        }
+        return Long.parseLong(segments.get(1));
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. The catalog of every
+     * location joins the books table, so its listeners are notified too.
+     */
+    private void notifyChange(Uri uri) {
+        mNotifier.notifyChange(uri);
+        mNotifier.notifyChange(LocationEntry.CONTENT_URI);
+        scheduleLowStockAlert();
+    }
+
+    /**
+     * Schedule the low stock alert job if a write has moved a book below its reorder threshold.
+     * Once the job is scheduled, writes don't look at the alerts again until it has taken them.
+     * The job needs Lollipop; on older versions the alerts are recorded but never notified, and
+     * writes don't look at them at all.
+     */
+    private void scheduleLowStockAlert() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        if (!mLowStockAlertScheduled
+                && LowStockAlerts.hasPending(mDbHelper.getReadableDatabase())) {
+            // Only latched if the job was scheduled, so a refused job is tried again.
+            mLowStockAlertScheduled = LowStockJobService.schedule(getContext());
+        }
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        TraceCompat.beginSection("BookProvider.delete");
+        try {
+            return deleteUri(uri, selection, selectionArgs);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
+        // Get writable database.
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Track the number of rows that were deleted.
+        int rowsDeleted;
+
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case BOOKS:
+                // Delete all rows that match the selection and selection args
+                rowsDeleted = deleteBooks(database, selection, selectionArgs);
+                break;
+            case BOOK_ID:
+                // Delete a single row given by the ID in the URI.
+                selection = BookEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = deleteBooks(database, selection, selectionArgs);
+                break;
+            case BOOK_COVER:
+                return setCover(uri, null);
+            case LOCATION_ID:
+                return deleteLocation(uri);
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+
+        // If 1 or more rows were deleted, then notify all listeners that the data at the given
+        // URI has changed.
+        if (rowsDeleted != 0) {
+            notifyChange(uri);
+        }
+
+        // Return the number of rows deleted.
+        return rowsDeleted;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case BOOKS:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case BOOK_ID:
+            case BOOK_ISBN:
+                return BookEntry.CONTENT_ITEM_TYPE;
+            case BOOK_CHANGES:
+            case BOOK_REORDER:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case BOOKS_EXPORT:
+                return BookEntry.EXPORT_CSV_MIME_TYPE;
+            case BOOK_SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case ARCHIVE:
+                return ArchiveEntry.CONTENT_LIST_TYPE;
+            case ARCHIVE_ID:
+                return ArchiveEntry.CONTENT_ITEM_TYPE;
+            case LOCATIONS:
+                return LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ID:
+                return LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_BOOKS:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case LOCATION_BOOK_ID:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case BOOK_COVER:
+                return BookEntry.COVER_MIME_TYPE;
+            case SALES:
+            case SALES_BY_BOOK:
+            case SALES_BY_DAY:
+                return SaleEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri + " with match " + match);
         }
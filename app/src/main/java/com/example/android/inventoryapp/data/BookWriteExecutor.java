@@ -0,0 +1,224 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-writer queue for all book mutations. Every insert, update and delete submitted here is
+ * run in order on one background thread, so the UI never blocks on SQLite, and the results are
+ * delivered back on the main thread.
+ */
+public final class BookWriteExecutor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookWriteExecutor.class.getSimpleName();
+
+    /** Maximum number of writes that may be waiting for the writer thread. */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /** Writes that waited longer than this in the queue are logged as backpressure. */
+    private static final long SLOW_WAIT_MILLIS = 100;
+
+    /**
+     * Receives the result of a queued write on the main thread.
+     *
+     * @param <T> type of the result
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called once the write has been run.
+         *
+         * @param result the result of the write, or null if the write failed or was rejected
+         *               because the queue was full.
+         */
+        void onWriteComplete(T result);
+    }
+
+    private static BookWriteExecutor sInstance;
+
+    /** Returns the process-wide writer, creating it on first use. */
+    public static synchronized BookWriteExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookWriteExecutor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    // Metrics
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final AtomicLong mTotalWaitMillis = new AtomicLong();
+    private final AtomicLong mMaxWaitMillis = new AtomicLong();
+
+    private BookWriteExecutor(Context context) {
+        mContentResolver = context.getContentResolver();
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "BookWriter");
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queue an insert of the given values at the given URI.
+     */
+    public void insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        submit(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return mContentResolver.insert(uri, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue an update of the rows at the given URI.
+     */
+    public void update(final Uri uri, final ContentValues values, final String selection,
+                       final String[] selectionArgs, Callback<Integer> callback) {
+        submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mContentResolver.update(uri, values, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue a delete of the rows at the given URI.
+     */
+    public void delete(final Uri uri, final String selection, final String[] selectionArgs,
+                       Callback<Integer> callback) {
+        submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mContentResolver.delete(uri, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue an arbitrary write. The task runs on the writer thread after every write that was
+     * queued before it, and its result is handed to the callback on the main thread.
+     *
+     * @param task     the write to run
+     * @param callback receives the result, may be null
+     */
+    public <T> void submit(final Callable<T> task, final Callback<T> callback) {
+        final long enqueuedAt = SystemClock.elapsedRealtime();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recordWait(SystemClock.elapsedRealtime() - enqueuedAt);
+                    T result = null;
+                    try {
+                        result = task.call();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Queued write failed", e);
+                    }
+                    mCompletedCount.incrementAndGet();
+                    deliver(callback, result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mRejectedCount.incrementAndGet();
+            Log.w(LOG_TAG, "Write queue full (" + QUEUE_CAPACITY + "), rejecting write");
+            deliver(callback, null);
+            return;
+        }
+
+        // Track the high-water mark of the queue.
+        int depth = mExecutor.getQueue().size();
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())) {
+            if (mMaxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteComplete(result);
+            }
+        });
+    }
+
+    private void recordWait(long waitMillis) {
+        mTotalWaitMillis.addAndGet(waitMillis);
+        long max;
+        while (waitMillis > (max = mMaxWaitMillis.get())) {
+            if (mMaxWaitMillis.compareAndSet(max, waitMillis)) {
+                break;
+            }
+        }
+        if (waitMillis > SLOW_WAIT_MILLIS) {
+            Log.w(LOG_TAG, "Write waited " + waitMillis + " ms in queue (depth "
+                    + getQueueDepth() + ")");
+        }
+    }
+
+    /** Number of writes currently waiting for the writer thread. */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /** Largest number of writes that have been waiting at the same time. */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /** Number of writes that have been run. */
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /** Number of writes rejected because the queue was full. */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /** Average time a write spent in the queue before it started running. */
+    public long getAverageWaitMillis() {
+        long completed = mCompletedCount.get();
+        return completed == 0 ? 0 : mTotalWaitMillis.get() / completed;
+    }
+
+    /** Longest time a write spent in the queue before it started running. */
+    public long getMaxWaitMillis() {
+        return mMaxWaitMillis.get();
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the catalog into the write end of a pipe as CSV or JSON, for
+ * {@link ContentProvider#openPipeHelper}. The books are read in pages of
+ * {@link #PAGE_SIZE} rows in ID order, each page seeking to the last ID of the previous one, so
+ * neither the provider nor the reader ever holds more than a page of the catalog, and the reader
+ * gets the first rows as soon as the first page has been written.
+ *
+ * <p>If the reader closes its end early, the next write fails and the export stops.
+ */
+final class CatalogExporter implements ContentProvider.PipeDataWriter<Void> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CatalogExporter.class.getSimpleName();
+
+    /** Number of books read per query */
+    private static final int PAGE_SIZE = 500;
+
+    /** Columns of the export, in order. They are the CSV header and the JSON keys. */
+    private static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+            BookEntry.COLUMN_BOOK_UPDATED_AT };
+
+    private final SQLiteDatabase mDatabase;
+
+    /**
+     * @param database the database to read from, which must stay open while the export runs
+     */
+    CatalogExporter(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, Void args) {
+        boolean json = BookEntry.EXPORT_JSON_MIME_TYPE.equals(mimeType);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), Charset.forName("UTF-8")));
+        try {
+            int rows = json ? writeJson(writer) : writeCsv(writer);
+            writer.flush();
+            Log.v(LOG_TAG, "Exported " + rows + " books as " + mimeType);
+        } catch (IOException e) {
+            // Usually the reader closed the pipe before reading everything.
+            Log.w(LOG_TAG, "Export stopped early", e);
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // Ignored, there is nothing left to write.
+            }
+        }
+    }
+
+    private int writeCsv(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        int rows = 0;
+        long lastId = 0;
+        Cursor cursor;
+        while ((cursor = queryPage(lastId)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        writeCsvField(writer, cursor.getString(i));
+                    }
+                    writer.write("\r\n");
+                    lastId = cursor.getLong(0);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Write a CSV field, quoted as in RFC 4180 if it holds a separator, quote or line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private int writeJson(Writer writer) throws IOException {
+        // The JSON writer only buffers the current value, the rows go straight to the pipe.
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+        int rows = 0;
+        long lastId = 0;
+        Cursor cursor;
+        while ((cursor = queryPage(lastId)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    json.beginObject();
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        json.name(COLUMNS[i]);
+                        switch (cursor.getType(i)) {
+                            case Cursor.FIELD_TYPE_NULL:
+                                json.nullValue();
+                                break;
+                            case Cursor.FIELD_TYPE_INTEGER:
+                                json.value(cursor.getLong(i));
+                                break;
+                            case Cursor.FIELD_TYPE_FLOAT:
+                                json.value(cursor.getDouble(i));
+                                break;
+                            default:
+                                json.value(cursor.getString(i));
+                                break;
+                        }
+                    }
+                    json.endObject();
+                    lastId = cursor.getLong(0);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        json.endArray();
+        json.flush();
+        return rows;
+    }
+
+    /**
+     * Returns the page of books after the given ID, or null if there are no more books.
+     */
+    private Cursor queryPage(long afterId) {
+        Cursor cursor = mDatabase.query(BookEntry.TABLE_NAME, COLUMNS, BookEntry._ID + " > ?",
+                new String[] { String.valueOf(afterId) }, null, null, BookEntry._ID,
+                String.valueOf(PAGE_SIZE));
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+}
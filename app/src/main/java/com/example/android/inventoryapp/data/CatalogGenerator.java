@@ -0,0 +1,213 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookContract.StockEntry;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates a synthetic catalog of any size for reproducing performance problems at production
+ * scale. The same seed always gives the same names, prices, quantities and suppliers:
+ * <ul>
+ * <li>Names are drawn from a small vocabulary, so they repeat words the way real titles do and
+ * searches match realistic numbers of books.</li>
+ * <li>Prices are log-normal around $13 and end in .99.</li>
+ * <li>Quantities are mostly small, with one book in ten out of stock.</li>
+ * <li>A few suppliers supply most of the books.</li>
+ * </ul>
+ *
+ * <p>Every book gets a valid ISBN-13 derived from its ID, so ISBNs don't repeat across runs,
+ * unless a book entered by hand already has it, and its stock row at the default location. Rows
+ * are written with two reused statements, without building any
+ * {@link android.content.ContentValues}, so hundreds of thousands of books fit in one
+ * transaction.
+ */
+final class CatalogGenerator {
+
+    private static final String[] ADJECTIVES = {
+            "Silent", "Broken", "Hidden", "Last", "Golden", "Crimson", "Forgotten", "Endless",
+            "Secret", "Lost", "Burning", "Winter", "Quiet", "Wild", "Hollow", "Bright", "Iron",
+            "Paper", "Midnight", "Distant" };
+
+    private static final String[] NOUNS = {
+            "River", "Garden", "Kingdom", "Letter", "Station", "Mirror", "Island", "Forest",
+            "Orchard", "Harbor", "Tower", "Promise", "Shadow", "Voyage", "Library", "Storm",
+            "Bridge", "Daughter", "Machine", "Season" };
+
+    private static final String[] PLACES = {
+            "Avalon", "the North", "Lisbon", "the Valley", "Kyoto", "the Sea", "Marrakesh",
+            "the Stars", "Prague", "the Desert" };
+
+    private static final String[] SUPPLIER_PREFIXES = {
+            "Northwind", "Bluebird", "Harbor", "Summit", "Riverside", "Oak", "Lantern",
+            "Meridian" };
+
+    private static final String[] SUPPLIER_SUFFIXES = {
+            "Books", "Distribution", "Publishing", "Press", "Wholesale" };
+
+    /** Number of suppliers the books are spread over */
+    private static final int SUPPLIER_COUNT = 40;
+
+    /** Prefix of the generated ISBNs, followed by 8 digits of the book ID and a check digit */
+    private static final String ISBN_PREFIX = "9798";
+
+    private final Random mRandom;
+
+    /**
+     * @param seed seed of the generated values, the same seed gives the same catalog
+     */
+    CatalogGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Insert books into the database. Must be called inside a transaction. Books whose generated
+     * ISBN is already taken are inserted without an ISBN.
+     *
+     * @param count        number of books to generate
+     * @param firstVersion version of the first book, the following books get the next versions
+     * @return the number of books inserted, which is always {@code count}
+     */
+    int insert(SQLiteDatabase database, int count, long firstVersion) {
+        // Start after the largest ID the books table ever handed out, as AUTOINCREMENT would, so
+        // the IDs of deleted and archived books, which still have tombstones and sales, aren't
+        // reused. Inserting larger IDs moves the sequence past them. The largest ID in the table
+        // is checked too, in case the sequence is behind it.
+        long nextId = DatabaseUtils.longForQuery(database,
+                "SELECT MAX(IFNULL((SELECT seq FROM sqlite_sequence WHERE name = ?), 0),"
+                        + " IFNULL((SELECT MAX(" + BookEntry._ID + ") FROM "
+                        + BookEntry.TABLE_NAME + "), 0)) + 1",
+                new String[] { BookEntry.TABLE_NAME });
+        long now = System.currentTimeMillis();
+
+        SQLiteStatement bookStatement = database.compileStatement("INSERT INTO "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry._ID + ", "
+                + BookEntry.COLUMN_BOOK_NAME + ", "
+                + BookEntry.COLUMN_BOOK_ISBN + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER + ", "
+                + BookEntry.COLUMN_BOOK_SYNC_ID + ", "
+                + BookEntry.COLUMN_BOOK_VERSION + ", "
+                + BookEntry.COLUMN_BOOK_UPDATED_AT
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement stockStatement = database.compileStatement("INSERT INTO "
+                + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_LOCATION_ID + ", "
+                + StockEntry.COLUMN_BOOK_ID + ", "
+                + StockEntry.COLUMN_QUANTITY + ") VALUES ("
+                + LocationEntry.DEFAULT_LOCATION_ID + ", ?, ?)");
+        int inserted = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                long id = nextId + i;
+                int quantity = nextQuantity();
+                int supplier = nextSupplier();
+
+                bookStatement.bindLong(1, id);
+                bookStatement.bindString(2, nextName());
+                bookStatement.bindString(3, isbnFor(id));
+                bookStatement.bindDouble(4, nextPrice());
+                bookStatement.bindLong(5, quantity);
+                bookStatement.bindString(6, supplierName(supplier));
+                bookStatement.bindString(7, supplierNumber(supplier));
+                bookStatement.bindString(8, UUID.randomUUID().toString());
+                bookStatement.bindLong(9, firstVersion + i);
+                bookStatement.bindLong(10, now);
+                try {
+                    bookStatement.executeInsert();
+                } catch (SQLiteConstraintException e) {
+                    // The ID is free, so only the ISBN can be taken, by a book entered by hand.
+                    bookStatement.bindNull(3);
+                    bookStatement.executeInsert();
+                }
+
+                stockStatement.bindLong(1, id);
+                stockStatement.bindLong(2, quantity);
+                stockStatement.executeInsert();
+                inserted++;
+            }
+        } finally {
+            bookStatement.close();
+            stockStatement.close();
+        }
+        return inserted;
+    }
+
+    private String nextName() {
+        String adjective = ADJECTIVES[mRandom.nextInt(ADJECTIVES.length)];
+        String noun = NOUNS[mRandom.nextInt(NOUNS.length)];
+        String name;
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                name = "The " + adjective + " " + noun;
+                break;
+            case 1:
+                name = noun + " of " + PLACES[mRandom.nextInt(PLACES.length)];
+                break;
+            case 2:
+                name = "A " + noun + " for " + PLACES[mRandom.nextInt(PLACES.length)];
+                break;
+            default:
+                name = adjective + " " + noun;
+                break;
+        }
+        // Some books are part of a series.
+        if (mRandom.nextInt(10) == 0) {
+            name += " (Book " + (2 + mRandom.nextInt(6)) + ")";
+        }
+        return name;
+    }
+
+    private double nextPrice() {
+        // Log-normal around $13, so most books are cheap and a few are expensive.
+        double price = Math.exp(Math.log(13) + 0.5 * mRandom.nextGaussian());
+        return Math.min(149, Math.max(2, Math.floor(price))) + 0.99;
+    }
+
+    private int nextQuantity() {
+        if (mRandom.nextInt(10) == 0) {
+            return 0;
+        }
+        // At least one copy, exponentially distributed with about 9 copies on average.
+        return (int) Math.min(500, 1 - 8 * Math.log(1 - mRandom.nextDouble()));
+    }
+
+    private int nextSupplier() {
+        // Squaring the uniform value favors the first suppliers.
+        double uniform = mRandom.nextDouble();
+        return (int) (uniform * uniform * SUPPLIER_COUNT);
+    }
+
+    private static String supplierName(int supplier) {
+        return SUPPLIER_PREFIXES[supplier % SUPPLIER_PREFIXES.length] + " "
+                + SUPPLIER_SUFFIXES[supplier % SUPPLIER_SUFFIXES.length]
+                + (supplier < SUPPLIER_PREFIXES.length ? "" : " " + (supplier + 1));
+    }
+
+    private static String supplierNumber(int supplier) {
+        return String.format(Locale.US, "555%07d", 1000 + supplier * 37);
+    }
+
+    /**
+     * Returns the normalized ISBN-13 of the book with the given ID.
+     */
+    static String isbnFor(long id) {
+        String digits = ISBN_PREFIX + String.format(Locale.US, "%08d", id % 100000000L);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+}
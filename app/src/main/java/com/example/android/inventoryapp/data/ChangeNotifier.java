@@ -0,0 +1,204 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coalesces the change notifications of the provider. The URIs changed within a time window are
+ * merged and notified once when the window closes, so a burst of writes causes one requery of
+ * each observer instead of one per write. A URI whose ancestor is also notified is dropped, since
+ * notifying a URI also notifies the observers of its descendants.
+ *
+ * <p>While notifications are held, e.g. during a batch, URIs are only collected. They are
+ * notified right away when the last hold is released, i.e. when the batch commits.
+ */
+final class ChangeNotifier {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ChangeNotifier.class.getSimpleName();
+
+    /** Name of the provider method that returns the notification counters */
+    static final String METHOD_NOTIFICATION_STATS = "notification_stats";
+
+    /** Result: number of notifications requested by writes. Type: long */
+    static final String KEY_REQUESTED = "requested";
+
+    /** Result: number of notifications sent to the content resolver. Type: long */
+    static final String KEY_DISPATCHED = "dispatched";
+
+    /** Result: number of requested notifications merged into others. Type: long */
+    static final String KEY_SUPPRESSED = "suppressed";
+
+    private final ContentResolver mResolver;
+    private final long mWindowMillis;
+    private final Handler mHandler;
+
+    /** URIs changed since the last dispatch, in the order they were first changed */
+    private final Set<Uri> mPending = new LinkedHashSet<>();
+
+    /** Number of holds not released yet */
+    private int mHoldCount;
+
+    /** Whether a dispatch is scheduled for the end of the current window */
+    private boolean mScheduled;
+
+    private long mRequestedCount;
+    private long mDispatchedCount;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * @param resolver     resolver to notify
+     * @param windowMillis length of the window in which changes are merged, 0 to notify every
+     *                     change right away
+     */
+    ChangeNotifier(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        HandlerThread thread = new HandlerThread("ChangeNotifier",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Notify the observers of the given URI at the end of the current window, or when the
+     * notifications are released.
+     */
+    void notifyChange(Uri uri) {
+        synchronized (this) {
+            mRequestedCount++;
+            mPending.add(uri);
+            if (mHoldCount > 0 || mScheduled) {
+                return;
+            }
+            if (mWindowMillis > 0) {
+                // The first change opens the window.
+                mScheduled = true;
+                mHandler.postDelayed(mDispatchRunnable, mWindowMillis);
+                return;
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Hold the notifications until {@link #release()} is called as many times.
+     */
+    synchronized void hold() {
+        mHoldCount++;
+    }
+
+    /**
+     * Release a hold. When the last hold is released, the collected notifications are sent right
+     * away on the calling thread.
+     */
+    void release() {
+        List<Uri> uris;
+        synchronized (this) {
+            if (--mHoldCount > 0) {
+                return;
+            }
+            // Taken with the last hold, so a hold taken meanwhile can't collect them again.
+            uris = takePending();
+        }
+        send(uris);
+    }
+
+    /**
+     * Returns the counters of the notifications, see {@link #METHOD_NOTIFICATION_STATS}.
+     */
+    synchronized Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putLong(KEY_REQUESTED, mRequestedCount);
+        stats.putLong(KEY_DISPATCHED, mDispatchedCount);
+        stats.putLong(KEY_SUPPRESSED, mRequestedCount - mDispatchedCount);
+        return stats;
+    }
+
+    /**
+     * Send the pending notifications, unless they are held.
+     */
+    private void dispatch() {
+        List<Uri> uris;
+        synchronized (this) {
+            if (mHoldCount > 0) {
+                // Held since the window was scheduled, the release dispatches.
+                mScheduled = false;
+                return;
+            }
+            uris = takePending();
+        }
+        send(uris);
+    }
+
+    /**
+     * Returns the pending URIs to notify and clears them, cancelling the scheduled dispatch.
+     * Must be called while synchronized on this notifier.
+     */
+    private List<Uri> takePending() {
+        if (mScheduled) {
+            mHandler.removeCallbacks(mDispatchRunnable);
+            mScheduled = false;
+        }
+        List<Uri> uris = withoutDescendants(mPending);
+        mPending.clear();
+        mDispatchedCount += uris.size();
+        return uris;
+    }
+
+    private void send(List<Uri> uris) {
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "Notified " + uris + ", " + getStats());
+        }
+    }
+
+    /**
+     * Returns the given URIs without those that have an ancestor among them.
+     */
+    private static List<Uri> withoutDescendants(Set<Uri> uris) {
+        List<Uri> result = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (other != uri && isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!TextUtils.equals(ancestor.getAuthority(), uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size()
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.android.inventoryapp.data;
+
+import android.arch.lifecycle.LiveData;
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Holds the result of a content provider query for the observers of a view model, in place of a
+ * {@link android.content.CursorLoader}. The query runs on a background thread and is cancelled
+ * when a newer query replaces it. The cursor is kept until it is replaced or {@link #close()} is
+ * called, so an activity that is recreated after a configuration change gets it back without
+ * querying again.
+ *
+ * <p>The query is only rerun while the data has active observers, i.e. while the UI is visible.
+ * A change notified while nobody observes only marks the data stale, and it is queried once when
+ * the next observer becomes active.
+ */
+public class CursorLiveData extends LiveData<Cursor> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CursorLiveData.class.getSimpleName();
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private Uri mUri;
+    private String[] mProjection;
+    private String mSelection;
+    private String[] mSelectionArgs;
+    private String mSortOrder;
+
+    /** Number of the latest query, a result of an older one is dropped */
+    private int mGeneration;
+
+    /** Cancels the query that is running, null if none is */
+    private CancellationSignal mCancellationSignal;
+
+    /** Whether the data changed while nobody observed it */
+    private boolean mContentChanged;
+
+    /** Observes the current cursor, like the content observer of a loader */
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            reload();
+        }
+    };
+
+    public CursorLiveData(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Set the query of the data, with the arguments of {@link ContentResolver#query}. Setting the
+     * query that is already set does nothing, so a recreated activity can set its query again
+     * without a database query.
+     */
+    public void setQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
+        if (uri.equals(mUri) && Arrays.equals(projection, mProjection)
+                && TextUtils.equals(selection, mSelection)
+                && Arrays.equals(selectionArgs, mSelectionArgs)
+                && TextUtils.equals(sortOrder, mSortOrder)) {
+            return;
+        }
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        reload();
+    }
+
+    /**
+     * Query the data again now if it's observed, or as soon as it is.
+     */
+    public void reload() {
+        if (hasActiveObservers()) {
+            load();
+        } else {
+            mContentChanged = true;
+        }
+    }
+
+    @Override
+    protected void onActive() {
+        if (mContentChanged) {
+            load();
+        }
+    }
+
+    /**
+     * Cancel the running query and close the cursor. Must be called when the view model holding
+     * the data is cleared.
+     */
+    public void close() {
+        mGeneration++;
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+            mCancellationSignal = null;
+        }
+        Cursor cursor = getValue();
+        if (cursor != null) {
+            cursor.unregisterContentObserver(mObserver);
+            cursor.close();
+            setValue(null);
+        }
+    }
+
+    private void load() {
+        mContentChanged = false;
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+        }
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        mCancellationSignal = cancellationSignal;
+        final int generation = ++mGeneration;
+
+        final Uri uri = mUri;
+        final String[] projection = mProjection;
+        final String selection = mSelection;
+        final String[] selectionArgs = mSelectionArgs;
+        final String sortOrder = mSortOrder;
+        // The same threads as the loaders, which this replaces.
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection("CursorLiveData.load");
+                Cursor cursor = null;
+                try {
+                    long start = SystemClock.elapsedRealtime();
+                    cursor = mResolver.query(uri, projection, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+                    if (cursor != null) {
+                        // Fill the cursor window here rather than on the main thread.
+                        cursor.getCount();
+                    }
+                    if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                        Log.v(LOG_TAG, "Queried " + uri + " in "
+                                + (SystemClock.elapsedRealtime() - start) + " ms");
+                    }
+                } catch (OperationCanceledException e) {
+                    // A newer query replaced this one.
+                } finally {
+                    TraceCompat.endSection();
+                }
+
+                final Cursor result = cursor;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(result, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void deliver(Cursor cursor, int generation) {
+        if (generation != mGeneration) {
+            // Replaced by a newer query, or closed.
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        mCancellationSignal = null;
+
+        if (cursor != null) {
+            cursor.registerContentObserver(mObserver);
+        }
+        Cursor oldCursor = getValue();
+        // The observers swap to the new cursor before the old one is closed.
+        setValue(cursor);
+        if (oldCursor != null && oldCursor != cursor) {
+            oldCursor.unregisterContentObserver(mObserver);
+            oldCursor.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps the book database healthy over months of churn. Run by {@link MaintenanceJobService}
+ * through the provider, while the device is idle and charging:
+ * <ul>
+ * <li>ANALYZE refreshes the statistics the query planner picks indexes with.</li>
+ * <li>A bounded incremental vacuum returns free pages left by deletes to the file system.</li>
+ * <li>A quick check verifies the integrity of the file.</li>
+ * </ul>
+ * The sizes of the file and the time of every step are logged and returned.
+ */
+final class DatabaseMaintenance {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = DatabaseMaintenance.class.getSimpleName();
+
+    /** Name of the provider method that runs the maintenance */
+    static final String METHOD_MAINTAIN = "maintain";
+
+    /** Result: size of the database file before the maintenance, in bytes. Type: long */
+    static final String KEY_SIZE_BEFORE = "size_before";
+
+    /** Result: size of the database file after the maintenance, in bytes. Type: long */
+    static final String KEY_SIZE_AFTER = "size_after";
+
+    /** Result: whether the integrity check passed. Type: boolean */
+    static final String KEY_INTEGRITY_OK = "integrity_ok";
+
+    /** Result: time the maintenance took, in milliseconds. Type: long */
+    static final String KEY_DURATION_MILLIS = "duration_millis";
+
+    /** Value of PRAGMA auto_vacuum in incremental mode */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Maximum number of pages freed per run, 8 MB with the default 4 kB pages. Each freed page is
+     * written, so this bounds the time and the writes of a run; a big delete is freed over a few
+     * runs.
+     */
+    private static final int MAX_VACUUM_PAGES = 2048;
+
+    private DatabaseMaintenance() {}
+
+    /**
+     * Run the maintenance. Must not be called inside a transaction.
+     */
+    static Bundle run(SQLiteDatabase database) {
+        long start = SystemClock.elapsedRealtime();
+        long sizeBefore = getSize(database);
+        long freePagesBefore = longForPragma(database, "freelist_count");
+
+        // Databases upgraded to incremental auto-vacuum are converted with a full vacuum, once.
+        if (longForPragma(database, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            enableIncrementalVacuum(database);
+        }
+        long vacuumedAt = SystemClock.elapsedRealtime();
+
+        database.execSQL("ANALYZE");
+        long analyzedAt = SystemClock.elapsedRealtime();
+
+        // A count of 0 would free the whole free list, so nothing is run without free pages.
+        long freePages = longForPragma(database, "freelist_count");
+        if (freePages > 0) {
+            drain(database, "PRAGMA incremental_vacuum("
+                    + Math.min(freePages, MAX_VACUUM_PAGES) + ")");
+        }
+        long trimmedAt = SystemClock.elapsedRealtime();
+
+        String integrity = DatabaseUtils.stringForQuery(database, "PRAGMA quick_check", null);
+        boolean integrityOk = "ok".equalsIgnoreCase(integrity);
+        long checkedAt = SystemClock.elapsedRealtime();
+
+        long sizeAfter = getSize(database);
+        Log.i(LOG_TAG, "Maintenance: " + sizeBefore + " -> " + sizeAfter + " bytes, "
+                + freePagesBefore + " -> " + longForPragma(database, "freelist_count")
+                + " free pages, conversion " + (vacuumedAt - start)
+                + " ms, analyze " + (analyzedAt - vacuumedAt)
+                + " ms, incremental vacuum " + (trimmedAt - analyzedAt)
+                + " ms, quick check " + (checkedAt - trimmedAt) + " ms");
+        if (!integrityOk) {
+            Log.e(LOG_TAG, "Integrity check failed: " + integrity);
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(KEY_SIZE_BEFORE, sizeBefore);
+        result.putLong(KEY_SIZE_AFTER, sizeAfter);
+        result.putBoolean(KEY_INTEGRITY_OK, integrityOk);
+        result.putLong(KEY_DURATION_MILLIS, checkedAt - start);
+        return result;
+    }
+
+    /**
+     * Ask for incremental auto-vacuum without converting the database. A database without tables
+     * takes the mode right away; any other database keeps its mode until
+     * {@link #run(SQLiteDatabase)} converts it.
+     */
+    static void requestIncrementalVacuum(SQLiteDatabase database) {
+        database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
+    /**
+     * Switch the database to incremental auto-vacuum. The mode of a database that already has
+     * tables only changes with a full vacuum, which rewrites the whole file. Must not be called
+     * inside a transaction.
+     */
+    private static void enableIncrementalVacuum(SQLiteDatabase database) {
+        long start = SystemClock.elapsedRealtime();
+        database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        database.execSQL("VACUUM");
+        Log.i(LOG_TAG, "Incremental auto-vacuum enabled in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    /**
+     * Returns the size of the database file in bytes.
+     */
+    private static long getSize(SQLiteDatabase database) {
+        return longForPragma(database, "page_count") * longForPragma(database, "page_size");
+    }
+
+    private static long longForPragma(SQLiteDatabase database, String pragma) {
+        return DatabaseUtils.longForQuery(database, "PRAGMA " + pragma, null);
+    }
+
+    /**
+     * Run a statement that may return rows to its end. Some pragmas do their work one step at a
+     * time, which {@link SQLiteDatabase#execSQL(String)} doesn't run to completion.
+     */
+    private static void drain(SQLiteDatabase database, String sql) {
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                // Nothing to read, stepping does the work.
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Read-only cursor over a whole table in {@link BaseColumns#_ID} order that loads its rows lazily,
+ * one fixed-size page at a time, as the position moves. Only the most recently used pages are
+ * kept in memory, so scrolling through a huge catalog never holds more than a few pages of rows.
+ *
+ * <p>When the cursor is created, on the thread of the query, it counts the rows from the primary
+ * key and reads the first page. Every other page is read with a keyset query
+ * ({@code WHERE _id > ? ORDER BY _id LIMIT ?}) that seeks past the last ID of the page before it,
+ * and the last ID of every page read is remembered. A jump reads the pages between the closest
+ * one already read and its target one after the other, each with a seek, never with an OFFSET.
+ *
+ * <p>Pages are only read on the main thread's behalf by a background thread. Moving to a page
+ * that isn't in memory yet gives a placeholder row, whose columns are all null, and the data set
+ * observers of the cursor are notified once the page has been read so its rows can be bound
+ * again. Moving to a page also prefetches the pages next to it, so scrolling finds them in
+ * memory. Off the main thread, pages are read right away on the calling thread.
+ *
+ * <p>The cursor reads the live table rather than a snapshot. Like any cursor with a notification
+ * URI it should be reloaded when the table changes; until then, a deleted row moves the rows after
+ * it up one position, leaving placeholder rows at the end of the cursor, and rows that were added
+ * can't be moved to.
+ */
+final class KeysetPagedCursor extends AbstractCursor {
+
+    /** Number of rows read per page */
+    static final int PAGE_SIZE = 64;
+
+    /** Number of pages kept in memory */
+    static final int MAX_CACHED_PAGES = 8;
+
+    /** Marks the last ID of a page that hasn't been read yet */
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    /** Reads the pages of all paged cursors, one page at a time */
+    private static final Executor PAGE_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PagedCursor");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+
+    private final SQLiteDatabase mDatabase;
+    private final String mTable;
+    private final String[] mColumns;
+    private final int mCount;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Row of a page that hasn't been read yet, or of a position past the end of the table */
+    private final Object[] mPlaceholderRow;
+
+    /**
+     * Last ID of each page, or {@link #UNKNOWN}. Written by the constructor and the page executor
+     * only, and read by whichever thread reads pages.
+     */
+    private final long[] mPageLastIds;
+
+    /** The most recently used pages, by page number */
+    private final LruCache<Integer, Object[][]> mPages =
+            new LruCache<>(MAX_CACHED_PAGES);
+
+    /** Pages queued or being read by the page executor */
+    private final Set<Integer> mQueuedPages = new HashSet<>();
+
+    /** Observers to notify when a page that was shown as placeholders has been read */
+    private final DataSetObservable mPageObservable = new DataSetObservable();
+
+    /** Whether placeholder rows were moved to on the main thread since the last notification */
+    private boolean mShowedPlaceholders;
+
+    /** Values of the row at the current position */
+    private Object[] mRow;
+
+    /**
+     * Counts the rows and reads the first page of the table, so it must be called on the thread
+     * of the query.
+     *
+     * @param database           the database to read from, which must stay open while the
+     *                           cursor is used
+     * @param table              the table to read
+     * @param columns            the columns to return, which must include {@link BaseColumns#_ID}
+     * @param cancellationSignal cancels the reads of the constructor, or null
+     */
+    KeysetPagedCursor(SQLiteDatabase database, String table, String[] columns,
+                      CancellationSignal cancellationSignal) {
+        if (!Arrays.asList(columns).contains(BaseColumns._ID)) {
+            throw new IllegalArgumentException("Paged cursor requires the " + BaseColumns._ID
+                    + " column");
+        }
+        mDatabase = database;
+        mTable = table;
+        mColumns = columns;
+        mPlaceholderRow = new Object[columns.length];
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+        mCount = (int) DatabaseUtils.queryNumEntries(database, table);
+        mPageLastIds = new long[(mCount + PAGE_SIZE - 1) / PAGE_SIZE];
+        Arrays.fill(mPageLastIds, UNKNOWN);
+        if (mCount > 0) {
+            mPages.put(0, readPage(0, cancellationSignal));
+        }
+    }
+
+    /**
+     * Returns whether a query can be answered with this cursor: a query of every row, in the
+     * default or ID order, with a projection that includes the ID.
+     */
+    static boolean canPage(String[] projection, String selection, String sortOrder,
+                           String limit) {
+        return projection != null
+                && Arrays.asList(projection).contains(BaseColumns._ID)
+                && selection == null
+                && limit == null
+                && (sortOrder == null || sortOrder.trim().equalsIgnoreCase(BaseColumns._ID)
+                        || sortOrder.trim().equalsIgnoreCase(BaseColumns._ID + " ASC"));
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        mPageObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        mPageObservable.unregisterObserver(observer);
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int pageNumber = newPosition / PAGE_SIZE;
+        Object[][] page;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            page = mPages.get(pageNumber);
+            if (page == null) {
+                mShowedPlaceholders = true;
+                queuePage(pageNumber);
+            }
+        } else {
+            page = getPage(pageNumber);
+        }
+        queuePage(pageNumber + 1);
+        queuePage(pageNumber - 1);
+
+        // Every position can be moved to, so a list never fails to show one. A position past the
+        // rows of its page, after deletes, has a placeholder row like a page not read yet.
+        int index = newPosition % PAGE_SIZE;
+        mRow = page != null && index < page.length ? page[index] : mPlaceholderRow;
+        return true;
+    }
+
+    /**
+     * Returns the rows of the given page, reading it and any unread pages before it on the
+     * calling thread if it isn't cached.
+     */
+    private Object[][] getPage(int pageNumber) {
+        synchronized (mPageLastIds) {
+            Object[][] page = mPages.get(pageNumber);
+            if (page == null) {
+                page = readPages(pageNumber);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Read the given page on the page executor, unless it is cached or already queued. Once it
+     * is read, the observers are notified if placeholder rows were shown meanwhile.
+     */
+    private void queuePage(final int pageNumber) {
+        if (pageNumber < 0 || pageNumber >= mPageLastIds.length
+                || mPages.get(pageNumber) != null) {
+            return;
+        }
+        synchronized (mQueuedPages) {
+            if (!mQueuedPages.add(pageNumber)) {
+                return;
+            }
+        }
+        PAGE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!isClosed()) {
+                        getPage(pageNumber);
+                    }
+                } catch (RuntimeException e) {
+                    // The page is queued again the next time it is moved to.
+                } finally {
+                    synchronized (mQueuedPages) {
+                        mQueuedPages.remove(pageNumber);
+                    }
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mShowedPlaceholders && !isClosed()) {
+                            mShowedPlaceholders = false;
+                            mPageObservable.notifyChanged();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the given page, and the pages between it and the closest page before it whose last ID
+     * is known, each with a seek past the last ID of the page before. Returns the given page.
+     * Must be called while synchronized on {@link #mPageLastIds}.
+     */
+    private Object[][] readPages(int pageNumber) {
+        int knownPage = pageNumber - 1;
+        while (knownPage >= 0 && mPageLastIds[knownPage] == UNKNOWN) {
+            knownPage--;
+        }
+        Object[][] page = null;
+        for (int next = knownPage + 1; next <= pageNumber; next++) {
+            page = readPage(next, null);
+            mPages.put(next, page);
+        }
+        return page;
+    }
+
+    /**
+     * Read the rows of a page whose previous page's last ID is known, and remember its own last
+     * ID. A page emptied by deletes ends where the page before it does.
+     */
+    private Object[][] readPage(int pageNumber, CancellationSignal cancellationSignal) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(mColumns[i]);
+        }
+        sql.append(" FROM ").append(mTable);
+        String[] args = null;
+        long previousLastId = pageNumber == 0 ? UNKNOWN : mPageLastIds[pageNumber - 1];
+        if (previousLastId != UNKNOWN) {
+            sql.append(" WHERE ").append(BaseColumns._ID).append(" > ?");
+            args = new String[] { String.valueOf(previousLastId) };
+        }
+        sql.append(" ORDER BY ").append(BaseColumns._ID)
+                .append(" LIMIT ").append(PAGE_SIZE);
+
+        Cursor cursor = mDatabase.rawQuery(sql.toString(), args, cancellationSignal);
+        try {
+            int idColumn = cursor.getColumnIndex(BaseColumns._ID);
+            long lastId = previousLastId;
+            Object[][] rows = new Object[cursor.getCount()][];
+            for (int row = 0; cursor.moveToNext(); row++) {
+                Object[] values = new Object[mColumns.length];
+                for (int column = 0; column < mColumns.length; column++) {
+                    values[column] = readValue(cursor, column);
+                }
+                rows[row] = values;
+                lastId = cursor.getLong(idColumn);
+            }
+            mPageLastIds[pageNumber] = lastId;
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    private Object getValue(int column) {
+        checkPosition();
+        if (mRow == null) {
+            throw new IllegalStateException("No row at position " + getPosition());
+        }
+        return mRow[column];
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = getValue(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = getValue(column);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = getValue(column);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return value == null ? 0 : Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = getValue(column);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getValue(column) == null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        mPages.evictAll();
+        mRow = null;
+    }
+}
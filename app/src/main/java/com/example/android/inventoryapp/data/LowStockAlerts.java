@@ -0,0 +1,189 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Detects books running low on stock as they are written, instead of when a sale fails.
+ * Triggers on the books table record every book that is added at or below its reorder threshold,
+ * or whose quantity crosses it, in a small table of pending alerts, and remove it again if it is
+ * restocked before the alert goes out. Detection only looks at the written row, so it costs the
+ * same whatever the size of the table.
+ *
+ * <p>The provider schedules {@link LowStockJobService} once there are pending alerts, and the
+ * job takes them all at once to post a single notification. The alerts only look up their own
+ * books by ID. The number of books below their threshold is counted from a partial index that
+ * only holds those books, but partial indexes need Lollipop: on older versions, taking the
+ * alerts scans the whole books table to count them.
+ */
+final class LowStockAlerts {
+
+    /** Name of the provider method that takes the pending alerts */
+    static final String METHOD_TAKE_ALERTS = "take_low_stock_alerts";
+
+    /** Result: IDs of the books that went low on stock, in the order they did. Type: long[] */
+    static final String KEY_BOOK_IDS = "book_ids";
+
+    /** Result: names of the books, in the order of {@link #KEY_BOOK_IDS}. Type: String[] */
+    static final String KEY_NAMES = "names";
+
+    /** Result: quantities of the books, in the order of {@link #KEY_BOOK_IDS}. Type: int[] */
+    static final String KEY_QUANTITIES = "quantities";
+
+    /** Result: supplier names, in the order of {@link #KEY_BOOK_IDS}. Type: String[] */
+    static final String KEY_SUPPLIER_NAMES = "supplier_names";
+
+    /** Result: supplier phone numbers, in the order of {@link #KEY_BOOK_IDS}. Type: String[] */
+    static final String KEY_SUPPLIER_NUMBERS = "supplier_numbers";
+
+    /** Result: number of books at or below their threshold, alerted or not. Type: int */
+    static final String KEY_LOW_STOCK_COUNT = "low_stock_count";
+
+    /** Name of the table of pending alerts */
+    private static final String TABLE_NAME = "low_stock_alerts";
+
+    /** ID of the book that went low on stock, one alert per book */
+    private static final String COLUMN_BOOK_ID = "book_id";
+
+    /** Time the book went low on stock, in milliseconds since the epoch */
+    private static final String COLUMN_CROSSED_AT = "crossed_at";
+
+    /** Selection of the books that are low on stock, matching the partial index */
+    private static final String LOW_STOCK_SELECTION = BookEntry.COLUMN_BOOK_QUANTITY + " <= "
+            + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD;
+
+    private LowStockAlerts() {}
+
+    /**
+     * Create the table of pending alerts and the triggers that keep it up to date as books are
+     * updated and deleted. The trigger of added books is created by
+     * {@link #createInsertTrigger(SQLiteDatabase)}, and the partial index of the books low on
+     * stock by {@link #createIndex(SQLiteDatabase)}.
+     */
+    static void createSchema(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE " + TABLE_NAME + " ("
+                + COLUMN_BOOK_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_CROSSED_AT + " INTEGER NOT NULL);");
+
+        // A write that leaves the book on the same side of its threshold doesn't touch the table.
+        database.execSQL("CREATE TRIGGER books_low_stock_enter AFTER UPDATE OF "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD
+                + " ON " + BookEntry.TABLE_NAME
+                + " WHEN NOT (" + isLow("OLD.") + ") AND " + isLow("NEW.") + " BEGIN"
+                + " INSERT OR REPLACE INTO " + TABLE_NAME + " (" + COLUMN_BOOK_ID + ", "
+                + COLUMN_CROSSED_AT + ") VALUES (NEW." + BookEntry._ID + ","
+                + " CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));"
+                + " END");
+        database.execSQL("CREATE TRIGGER books_low_stock_leave AFTER UPDATE OF "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD
+                + " ON " + BookEntry.TABLE_NAME
+                + " WHEN " + isLow("OLD.") + " AND NOT (" + isLow("NEW.") + ") BEGIN"
+                + " DELETE FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_BOOK_ID + " = NEW." + BookEntry._ID + ";"
+                + " END");
+        database.execSQL("CREATE TRIGGER books_low_stock_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN"
+                + " DELETE FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_BOOK_ID + " = OLD." + BookEntry._ID + ";"
+                + " END");
+    }
+
+    /**
+     * Create the trigger that records the books added at or below their threshold.
+     */
+    static void createInsertTrigger(SQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER books_low_stock_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME
+                + " WHEN " + isLow("NEW.") + " BEGIN"
+                + " INSERT OR REPLACE INTO " + TABLE_NAME + " (" + COLUMN_BOOK_ID + ", "
+                + COLUMN_CROSSED_AT + ") VALUES (NEW." + BookEntry._ID + ","
+                + " CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));"
+                + " END");
+    }
+
+    /**
+     * Create the partial index of the books low on stock, if it doesn't exist yet. Partial
+     * indexes need SQLite 3.8, which ships with Lollipop, the same version the alert job needs.
+     * The index is ensured every time the database is opened instead of when the schema is
+     * upgraded, so a database upgraded before the OS was gets it too.
+     */
+    static void createIndex(SQLiteDatabase database) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS books_low_stock ON "
+                    + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_SUPPLIER_NAME
+                    + ") WHERE " + LOW_STOCK_SELECTION);
+        }
+    }
+
+    /**
+     * Returns the SQL condition of a trigger row being low on stock, for OLD. or NEW.
+     */
+    private static String isLow(String row) {
+        return row + BookEntry.COLUMN_BOOK_QUANTITY + " <= " + row
+                + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD;
+    }
+
+    /**
+     * Returns whether there are alerts that haven't been taken yet. Reads at most one row.
+     */
+    static boolean hasPending(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database,
+                "SELECT EXISTS (SELECT 1 FROM " + TABLE_NAME + ")", null) != 0;
+    }
+
+    /**
+     * Remove the pending alerts and return them with their books, and the number of books low on
+     * stock.
+     */
+    static Bundle take(SQLiteDatabase database) {
+        Bundle result = new Bundle();
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.rawQuery("SELECT "
+                    + "b." + BookEntry._ID + ", "
+                    + "b." + BookEntry.COLUMN_BOOK_NAME + ", "
+                    + "b." + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                    + "b." + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", "
+                    + "b." + BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER
+                    + " FROM " + TABLE_NAME + " a JOIN " + BookEntry.TABLE_NAME + " b ON b."
+                    + BookEntry._ID + " = a." + COLUMN_BOOK_ID
+                    + " ORDER BY a." + COLUMN_CROSSED_AT, null);
+            try {
+                int count = cursor.getCount();
+                long[] bookIds = new long[count];
+                String[] names = new String[count];
+                int[] quantities = new int[count];
+                String[] supplierNames = new String[count];
+                String[] supplierNumbers = new String[count];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    bookIds[i] = cursor.getLong(0);
+                    names[i] = cursor.getString(1);
+                    quantities[i] = cursor.getInt(2);
+                    supplierNames[i] = cursor.getString(3);
+                    supplierNumbers[i] = cursor.getString(4);
+                }
+                result.putLongArray(KEY_BOOK_IDS, bookIds);
+                result.putStringArray(KEY_NAMES, names);
+                result.putIntArray(KEY_QUANTITIES, quantities);
+                result.putStringArray(KEY_SUPPLIER_NAMES, supplierNames);
+                result.putStringArray(KEY_SUPPLIER_NUMBERS, supplierNumbers);
+            } finally {
+                cursor.close();
+            }
+            database.delete(TABLE_NAME, null, null);
+
+            result.putInt(KEY_LOW_STOCK_COUNT, (int) DatabaseUtils.longForQuery(database,
+                    "SELECT COUNT(*) FROM " + BookEntry.TABLE_NAME
+                            + " WHERE " + LOW_STOCK_SELECTION, null));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.inventoryapp.data;
+
+import android.annotation.TargetApi;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.CatalogActivity;
+import com.example.android.inventoryapp.R;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifies the books that went low on stock. The provider schedules the job when a write moves a
+ * book below its reorder threshold, and the job waits a little before it runs, so a burst of
+ * sales that empties several shelves ends up in one notification. The notification lists the
+ * books and has an action to call the supplier of each, up to the three actions a notification
+ * can show. The alerts need {@link JobScheduler}, so they are only notified since Lollipop.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class LowStockJobService extends JobService {
+
+    /** ID of the low stock alert job */
+    private static final int JOB_ID = 3;
+
+    /** ID of the notification channel of the alerts */
+    private static final String CHANNEL_ID = "low_stock";
+
+    /** ID of the low stock notification, which each alert replaces */
+    private static final int NOTIFICATION_ID = 1;
+
+    /** Maximum number of suppliers with an action in the notification */
+    private static final int MAX_SUPPLIER_ACTIONS = 3;
+
+    /**
+     * Schedule the alert job, if the device supports it and it isn't already scheduled.
+     *
+     * @return whether the job is scheduled, false if the device doesn't support it or the
+     * scheduler refused it
+     */
+    static boolean schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return true;
+            }
+        }
+        long delayMillis = TimeUnit.SECONDS.toMillis(
+                context.getResources().getInteger(R.integer.low_stock_alert_delay_seconds));
+        return scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, LowStockJobService.class))
+                .setMinimumLatency(delayMillis)
+                .setOverrideDeadline(2 * delayMillis)
+                .setPersisted(false)
+                .build()) == JobScheduler.RESULT_SUCCESS;
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        new AlertTask(params).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The alerts are taken and notified in one short step, which is left to finish.
+        return false;
+    }
+
+    /**
+     * Post the notification of the given alerts, replacing the previous one.
+     */
+    private void notifyAlerts(Bundle alerts) {
+        String[] names = alerts.getStringArray(LowStockAlerts.KEY_NAMES);
+        int[] quantities = alerts.getIntArray(LowStockAlerts.KEY_QUANTITIES);
+        String[] supplierNames = alerts.getStringArray(LowStockAlerts.KEY_SUPPLIER_NAMES);
+        String[] supplierNumbers = alerts.getStringArray(LowStockAlerts.KEY_SUPPLIER_NUMBERS);
+        if (names == null || names.length == 0) {
+            // Every book was restocked before the alerts were taken.
+            return;
+        }
+        createChannel();
+
+        String title = getResources().getQuantityString(R.plurals.low_stock_title,
+                names.length, names.length);
+        int lowStockCount = alerts.getInt(LowStockAlerts.KEY_LOW_STOCK_COUNT);
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                .setBigContentTitle(title)
+                .setSummaryText(getResources().getQuantityString(R.plurals.low_stock_summary,
+                        lowStockCount, lowStockCount));
+        // The suppliers of the books, in the order their first book went low.
+        Map<String, String> suppliers = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            style.addLine(getString(R.string.low_stock_book, names[i], quantities[i],
+                    supplierNames[i]));
+            if (!suppliers.containsKey(supplierNames[i])) {
+                suppliers.put(supplierNames[i], supplierNumbers[i]);
+            }
+        }
+
+        PendingIntent catalogIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, CatalogActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_empty_shelf)
+                .setContentTitle(title)
+                .setContentText(TextUtils.join(", ", names))
+                .setStyle(style)
+                .setNumber(lowStockCount)
+                .setCategory(NotificationCompat.CATEGORY_STATUS)
+                .setContentIntent(catalogIntent)
+                .setAutoCancel(true);
+
+        int requestCode = 1;
+        for (Map.Entry<String, String> supplier : suppliers.entrySet()) {
+            if (requestCode > MAX_SUPPLIER_ACTIONS) {
+                break;
+            }
+            Intent dialIntent = new Intent(Intent.ACTION_DIAL,
+                    Uri.parse("tel:" + supplier.getValue()));
+            builder.addAction(0, getString(R.string.low_stock_contact_supplier, supplier.getKey()),
+                    PendingIntent.getActivity(this, requestCode++, dialIntent,
+                            PendingIntent.FLAG_UPDATE_CURRENT));
+        }
+
+        NotificationManagerCompat.from(this).notify(NOTIFICATION_ID, builder.build());
+    }
+
+    /**
+     * Create the notification channel of the alerts, which does nothing if it already exists.
+     */
+    private void createChannel() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                getString(R.string.low_stock_channel_name), NotificationManager.IMPORTANCE_DEFAULT);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+
+    private class AlertTask extends AsyncTask<Void, Void, Bundle> {
+
+        private final JobParameters mParams;
+
+        AlertTask(JobParameters params) {
+            mParams = params;
+        }
+
+        @Override
+        protected Bundle doInBackground(Void... voids) {
+            return getContentResolver().call(BookContract.BASE_CONTENT_URI,
+                    LowStockAlerts.METHOD_TAKE_ALERTS, null, null);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle alerts) {
+            if (alerts != null) {
+                notifyAlerts(alerts);
+            }
+            jobFinished(mParams, false);
+        }
+    }
+}
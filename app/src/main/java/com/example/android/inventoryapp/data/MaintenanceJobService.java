@@ -0,0 +1,119 @@
+package com.example.android.inventoryapp.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.BookContract.ArchiveCall;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link DatabaseMaintenance} once a day, only while the device is idle and charging, so
+ * it never competes with the user for the database or the battery. Inactive books are archived
+ * first, so the vacuum returns the pages they leave behind.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = MaintenanceJobService.class.getSimpleName();
+
+    /** ID of the maintenance job */
+    private static final int JOB_ID = 2;
+
+    /** How often the maintenance runs */
+    private static final long MAINTENANCE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private MaintenanceTask mTask;
+
+    /**
+     * Schedule the periodic maintenance, if the device supports it.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(MAINTENANCE_INTERVAL_MILLIS)
+                .setPersisted(false)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mTask = new MaintenanceTask(params);
+        mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The steps can't be interrupted, and each one leaves the database consistent. The next
+        // run starts over.
+        if (mTask != null) {
+            mTask.cancel(false);
+        }
+        return false;
+    }
+
+    private class MaintenanceTask extends AsyncTask<Void, Void, Void> {
+
+        private final JobParameters mParams;
+
+        MaintenanceTask(JobParameters params) {
+            mParams = params;
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            Bundle archive = new Bundle();
+            archive.putInt(ArchiveCall.KEY_INACTIVE_DAYS,
+                    getResources().getInteger(R.integer.archive_after_days));
+            Bundle archived = getContentResolver().call(BookContract.BASE_CONTENT_URI,
+                    ArchiveCall.METHOD_ARCHIVE, null, archive);
+            if (archived != null) {
+                Log.i(LOG_TAG, "Archived " + archived.getInt(ArchiveCall.KEY_COUNT) + " books");
+            }
+            if (isCancelled()) {
+                return null;
+            }
+
+            Bundle result = getContentResolver().call(BookContract.BASE_CONTENT_URI,
+                    DatabaseMaintenance.METHOD_MAINTAIN, null, null);
+            if (result != null) {
+                Log.i(LOG_TAG, "Maintenance finished in "
+                        + result.getLong(DatabaseMaintenance.KEY_DURATION_MILLIS) + " ms, "
+                        + result.getLong(DatabaseMaintenance.KEY_SIZE_BEFORE) + " -> "
+                        + result.getLong(DatabaseMaintenance.KEY_SIZE_AFTER) + " bytes, integrity "
+                        + (result.getBoolean(DatabaseMaintenance.KEY_INTEGRITY_OK)
+                                ? "ok" : "FAILED"));
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void nothing) {
+            jobFinished(mParams, false);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.inventoryapp.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link SyncTransport} talking to the head office sync endpoint over HTTP. Request bodies are
+ * sent gzip compressed, and compressed responses are accepted.
+ *
+ * <p>The endpoint has two resources below its base URL: {@code POST push} takes a batch of
+ * changes and returns their new versions, and {@code GET pull?cursor=&limit=} returns the next
+ * batch of changes.
+ */
+public class HttpSyncTransport implements SyncTransport {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final String mBaseUrl;
+
+    // Metrics
+    private long mBytesSent;
+    private long mBytesReceived;
+
+    /**
+     * @param baseUrl base URL of the sync endpoint, e.g. "https://example.com/sync/"
+     */
+    public HttpSyncTransport(String baseUrl) {
+        mBaseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    }
+
+    @Override
+    public long[] push(List<SyncChange> changes) throws IOException {
+        byte[] body = SyncProtocol.encodePush(changes);
+        HttpURLConnection connection = open(new URL(mBaseUrl + "push"));
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", SyncProtocol.CONTENT_TYPE);
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            mBytesSent += body.length;
+
+            InputStream in = openResponse(connection);
+            try {
+                long[] remoteVersions = SyncProtocol.decodePushResponse(in);
+                if (remoteVersions.length != changes.size()) {
+                    throw new IOException("Expected " + changes.size()
+                            + " push results, got " + remoteVersions.length);
+                }
+                return remoteVersions;
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public PullResult pull(String cursor, int limit) throws IOException {
+        String url = mBaseUrl + "pull?limit=" + limit;
+        if (cursor != null) {
+            url += "&cursor=" + URLEncoder.encode(cursor, "UTF-8");
+        }
+        HttpURLConnection connection = open(new URL(url));
+        try {
+            InputStream in = openResponse(connection);
+            try {
+                return SyncProtocol.decodePullResponse(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", SyncProtocol.CONTENT_TYPE);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        return connection;
+    }
+
+    /**
+     * Check the status of the response and return its decompressed body.
+     */
+    private InputStream openResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Sync request to " + connection.getURL()
+                    + " failed with HTTP " + status);
+        }
+        int length = connection.getContentLength();
+        if (length > 0) {
+            mBytesReceived += length;
+        }
+        InputStream in = connection.getInputStream();
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    /** Number of compressed request bytes sent. */
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /** Number of response bytes received, as sent on the wire. */
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.inventoryapp.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.BookContract;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SyncStore} backed by the book provider. Local changes are read from the changes feed,
+ * and the sync cursors are kept in private preferences.
+ */
+public class ProviderSyncStore implements SyncStore {
+
+    /** Name of the preferences holding the sync cursors */
+    private static final String PREFS_NAME = "sync";
+
+    private static final String PREF_PUSH_CURSOR = "push_cursor";
+    private static final String PREF_PUSH_CURSOR_ID = "push_cursor_id";
+    private static final String PREF_PULL_CURSOR = "pull_cursor";
+
+    /** Columns read from the changes feed */
+    private static final String[] PROJECTION = {
+            BookEntry.COLUMN_BOOK_SYNC_ID,
+            BookEntry.COLUMN_DELETED,
+            BookEntry.COLUMN_BOOK_REMOTE_VERSION,
+            BookEntry.COLUMN_BOOK_VERSION,
+            BookEntry.COLUMN_BOOK_SYNCED_VERSION,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry._ID };
+
+    private final ContentResolver mContentResolver;
+    private final SharedPreferences mPreferences;
+
+    public ProviderSyncStore(Context context) {
+        mContentResolver = context.getContentResolver();
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public long getPushCursor() {
+        return mPreferences.getLong(PREF_PUSH_CURSOR, 0);
+    }
+
+    @Override
+    public long getPushCursorId() {
+        // Cursors saved before the ID was kept re-read the changes at their version. Those that
+        // were pushed are no longer pending, so they are only skipped.
+        return mPreferences.getLong(PREF_PUSH_CURSOR_ID, 0);
+    }
+
+    @Override
+    public void setPushCursor(long version, long id) {
+        mPreferences.edit()
+                .putLong(PREF_PUSH_CURSOR, version)
+                .putLong(PREF_PUSH_CURSOR_ID, id)
+                .apply();
+    }
+
+    @Override
+    public String getPullCursor() {
+        return mPreferences.getString(PREF_PULL_CURSOR, null);
+    }
+
+    @Override
+    public void setPullCursor(String cursor) {
+        mPreferences.edit().putString(PREF_PULL_CURSOR, cursor).apply();
+    }
+
+    @Override
+    public List<SyncChange> readLocalChanges(long sinceVersion, long sinceId, int limit) {
+        Uri uri = BookEntry.buildChangesUri(sinceVersion, sinceId).buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+        List<SyncChange> changes = new ArrayList<>();
+        Cursor cursor = mContentResolver.query(uri, PROJECTION, null, null, null);
+        if (cursor == null) {
+            return changes;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long version = cursor.getLong(3);
+                changes.add(new SyncChange(
+                        cursor.getString(0),
+                        cursor.getInt(1) != 0,
+                        cursor.getLong(2),
+                        version,
+                        cursor.getLong(11),
+                        version > cursor.getLong(4),
+                        cursor.getString(5),
+                        cursor.getDouble(6),
+                        cursor.getInt(7),
+                        cursor.getString(8),
+                        cursor.getString(9),
+                        cursor.getString(10)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    @Override
+    public void acknowledge(List<SyncChange> pushed, long[] remoteVersions) {
+        List<ContentValues> acks = new ArrayList<>(pushed.size());
+        for (int i = 0; i < pushed.size(); i++) {
+            if (remoteVersions[i] < 0) {
+                // Rejected, head office's own change will come back on the next pull.
+                continue;
+            }
+            SyncChange change = pushed.get(i);
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_SYNC_ID, change.syncId);
+            values.put(BookEntry.COLUMN_BOOK_VERSION, change.localVersion);
+            values.put(BookEntry.COLUMN_BOOK_REMOTE_VERSION, remoteVersions[i]);
+            values.put(BookEntry.COLUMN_DELETED, change.deleted);
+            acks.add(values);
+        }
+        if (!acks.isEmpty()) {
+            mContentResolver.bulkInsert(BookEntry.CONTENT_SYNC_ACK_URI,
+                    acks.toArray(new ContentValues[acks.size()]));
+        }
+    }
+
+    @Override
+    public void applyRemoteChanges(List<SyncChange> changes) {
+        ContentValues[] values = new ContentValues[changes.size()];
+        for (int i = 0; i < values.length; i++) {
+            SyncChange change = changes.get(i);
+            ContentValues row = new ContentValues();
+            row.put(BookEntry.COLUMN_BOOK_SYNC_ID, change.syncId);
+            row.put(BookEntry.COLUMN_BOOK_REMOTE_VERSION, change.remoteVersion);
+            row.put(BookEntry.COLUMN_DELETED, change.deleted);
+            if (!change.deleted) {
+                row.put(BookEntry.COLUMN_BOOK_NAME, change.name);
+                row.put(BookEntry.COLUMN_BOOK_PRICE, change.price);
+                row.put(BookEntry.COLUMN_BOOK_QUANTITY, change.quantity);
+                row.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, change.supplierName);
+                row.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER, change.supplierNumber);
+                row.put(BookEntry.COLUMN_BOOK_ISBN, change.isbn);
+            }
+            values[i] = row;
+        }
+        mContentResolver.bulkInsert(BookEntry.CONTENT_SYNC_URI, values);
+    }
+}
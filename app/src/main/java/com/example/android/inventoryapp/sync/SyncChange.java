@@ -0,0 +1,66 @@
+package com.example.android.inventoryapp.sync;
+
+/**
+ * A change to a single book, as exchanged with head office. Books are identified by their sync
+ * ID, which is shared by all stores, and versioned by head office.
+ */
+public final class SyncChange {
+
+    /** Sync identity of the book */
+    public final String syncId;
+
+    /** Whether the book was deleted. A deletion carries no book columns. */
+    public final boolean deleted;
+
+    /**
+     * Head office version of the book. For a pushed change this is the version the local change
+     * was based on, for a pulled change it is the new version assigned by head office.
+     */
+    public final long remoteVersion;
+
+    /** Local version of the change, only set for changes read from the local store */
+    public final long localVersion;
+
+    /**
+     * Local ID of the book, only set for changes read from the local store. Together with the
+     * local version it is the position of the change in the changes feed.
+     */
+    public final long localId;
+
+    /** Whether the change hasn't been pushed to head office yet, only set for local changes */
+    public final boolean pending;
+
+    public final String name;
+    public final double price;
+    public final int quantity;
+    public final String supplierName;
+    public final String supplierNumber;
+    public final String isbn;
+
+    public SyncChange(String syncId, boolean deleted, long remoteVersion, long localVersion,
+                      long localId, boolean pending, String name, double price, int quantity,
+                      String supplierName, String supplierNumber, String isbn) {
+        this.syncId = syncId;
+        this.deleted = deleted;
+        this.remoteVersion = remoteVersion;
+        this.localVersion = localVersion;
+        this.localId = localId;
+        this.pending = pending;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.supplierName = supplierName;
+        this.supplierNumber = supplierNumber;
+        this.isbn = isbn;
+    }
+
+    /**
+     * Returns a change pulled from head office, which has no local version.
+     */
+    public static SyncChange remote(String syncId, boolean deleted, long remoteVersion,
+                                    String name, double price, int quantity, String supplierName,
+                                    String supplierNumber, String isbn) {
+        return new SyncChange(syncId, deleted, remoteVersion, 0, 0, false, name, price,
+                quantity, supplierName, supplierNumber, isbn);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.inventoryapp.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Syncs the local books with head office. Local changes are pushed in batches read from the
+ * changes feed, then head office changes are pulled in batches and applied in chunked
+ * transactions. Both directions save a cursor after every batch, so a sync that is interrupted
+ * resumes where it stopped instead of starting over.
+ */
+public class SyncClient {
+
+    /** Number of local changes read and pushed per request */
+    public static final int PUSH_BATCH_SIZE = 500;
+
+    /** Number of head office changes pulled per request */
+    public static final int PULL_BATCH_SIZE = 500;
+
+    /** Number of pulled changes applied per transaction, so the writer is never held for long */
+    public static final int APPLY_CHUNK_SIZE = 100;
+
+    private final SyncStore mStore;
+    private final SyncTransport mTransport;
+
+    public SyncClient(SyncStore store, SyncTransport transport) {
+        mStore = store;
+        mTransport = transport;
+    }
+
+    /**
+     * Push the local changes, then pull the head office changes.
+     */
+    public Result sync() throws IOException {
+        Result result = new Result();
+        push(result);
+        pull(result);
+        return result;
+    }
+
+    /**
+     * Push every pending local change, one batch at a time.
+     */
+    private void push(Result result) throws IOException {
+        while (true) {
+            List<SyncChange> batch = mStore.readLocalChanges(mStore.getPushCursor(),
+                    mStore.getPushCursorId(), PUSH_BATCH_SIZE);
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            // Changes pulled from head office are in the feed too, but are already synced.
+            List<SyncChange> pending = new ArrayList<>(batch.size());
+            for (SyncChange change : batch) {
+                if (change.pending) {
+                    pending.add(change);
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                long[] remoteVersions = mTransport.push(pending);
+                mStore.acknowledge(pending, remoteVersions);
+                result.requests++;
+                for (long remoteVersion : remoteVersions) {
+                    if (remoteVersion < 0) {
+                        result.rejected++;
+                    } else {
+                        result.pushed++;
+                    }
+                }
+            }
+            // A batch can end inside a group of changes sharing a version, so the next one starts
+            // after the exact last change rather than after its version.
+            SyncChange last = batch.get(batch.size() - 1);
+            mStore.setPushCursor(last.localVersion, last.localId);
+
+            if (batch.size() < PUSH_BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pull and apply head office changes until there are no more.
+     */
+    private void pull(Result result) throws IOException {
+        while (true) {
+            SyncTransport.PullResult batch =
+                    mTransport.pull(mStore.getPullCursor(), PULL_BATCH_SIZE);
+            result.requests++;
+
+            List<SyncChange> changes = batch.changes;
+            for (int start = 0; start < changes.size(); start += APPLY_CHUNK_SIZE) {
+                int end = Math.min(start + APPLY_CHUNK_SIZE, changes.size());
+                mStore.applyRemoteChanges(changes.subList(start, end));
+            }
+            result.pulled += changes.size();
+
+            // Only move the cursor once the whole batch is applied. If the sync stops halfway,
+            // the batch is pulled again and the chunks already applied are skipped as stale.
+            mStore.setPullCursor(batch.cursor);
+
+            if (!batch.hasMore) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Counts of a finished sync.
+     */
+    public static final class Result {
+
+        /** Number of local changes accepted by head office */
+        public int pushed;
+
+        /** Number of local changes rejected because head office had a newer version */
+        public int rejected;
+
+        /** Number of head office changes pulled */
+        public int pulled;
+
+        /** Number of requests made */
+        public int requests;
+
+        @Override
+        public String toString() {
+            return "pushed " + pushed + ", rejected " + rejected + ", pulled " + pulled
+                    + " in " + requests + " requests";
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.inventoryapp.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventoryapp.BuildConfig;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the head office sync in the background. The job is periodic and only runs with a network
+ * connection, and the system batches it with other jobs, so the radio and the CPU are woken as
+ * rarely as possible.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SyncJobService.class.getSimpleName();
+
+    /** ID of the sync job */
+    private static final int JOB_ID = 1;
+
+    /** How often the sync runs */
+    private static final long SYNC_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private SyncTask mTask;
+
+    /**
+     * Schedule the periodic sync, if a sync server is configured and the device supports it.
+     */
+    public static void schedule(Context context) {
+        if (TextUtils.isEmpty(BuildConfig.SYNC_SERVER_URL)
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, SyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPeriodic(SYNC_INTERVAL_MILLIS)
+                .setPersisted(false)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mTask = new SyncTask(params);
+        mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The cursors are saved after every batch, so the next run picks up from there.
+        if (mTask != null) {
+            mTask.cancel(false);
+        }
+        return true;
+    }
+
+    private class SyncTask extends AsyncTask<Void, Void, Boolean> {
+
+        private final JobParameters mParams;
+
+        SyncTask(JobParameters params) {
+            mParams = params;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... voids) {
+            HttpSyncTransport transport = new HttpSyncTransport(BuildConfig.SYNC_SERVER_URL);
+            SyncClient client =
+                    new SyncClient(new ProviderSyncStore(SyncJobService.this), transport);
+            try {
+                SyncClient.Result result = client.sync();
+                Log.i(LOG_TAG, "Sync finished: " + result + ", sent "
+                        + transport.getBytesSent() + " bytes, received "
+                        + transport.getBytesReceived() + " bytes");
+                return true;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Sync failed", e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean success) {
+            // Let the scheduler back off and retry a failed sync.
+            jobFinished(mParams, !success);
+        }
+    }
+}
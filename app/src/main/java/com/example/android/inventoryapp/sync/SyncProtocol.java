@@ -0,0 +1,167 @@
+package com.example.android.inventoryapp.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary wire format of the sync messages. Every message starts with the format version, and the
+ * bodies are sent gzip compressed. Books are written field by field rather than as text, which
+ * keeps a batch of hundreds of changes to a few kilobytes.
+ */
+final class SyncProtocol {
+
+    /** Format version of the messages. Bump it whenever the format changes. */
+    static final int FORMAT_VERSION = 1;
+
+    /** Content type of the message bodies */
+    static final String CONTENT_TYPE = "application/octet-stream";
+
+    private SyncProtocol() {}
+
+    /**
+     * Returns the compressed push request for the given changes.
+     */
+    static byte[] encodePush(List<SyncChange> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = openCompressed(bytes);
+        out.writeInt(FORMAT_VERSION);
+        writeChanges(out, changes);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a push request from an uncompressed stream.
+     */
+    static List<SyncChange> decodePush(InputStream stream) throws IOException {
+        DataInputStream in = openFormat(stream);
+        return readChanges(in);
+    }
+
+    /**
+     * Returns the compressed push response with the given head office versions.
+     */
+    static byte[] encodePushResponse(long[] remoteVersions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = openCompressed(bytes);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(remoteVersions.length);
+        for (long remoteVersion : remoteVersions) {
+            out.writeLong(remoteVersion);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a push response from an uncompressed stream.
+     */
+    static long[] decodePushResponse(InputStream stream) throws IOException {
+        DataInputStream in = openFormat(stream);
+        long[] remoteVersions = new long[in.readInt()];
+        for (int i = 0; i < remoteVersions.length; i++) {
+            remoteVersions[i] = in.readLong();
+        }
+        return remoteVersions;
+    }
+
+    /**
+     * Returns the compressed pull response for the given batch.
+     */
+    static byte[] encodePullResponse(SyncTransport.PullResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = openCompressed(bytes);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(result.cursor);
+        out.writeBoolean(result.hasMore);
+        writeChanges(out, result.changes);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a pull response from an uncompressed stream.
+     */
+    static SyncTransport.PullResult decodePullResponse(InputStream stream) throws IOException {
+        DataInputStream in = openFormat(stream);
+        String cursor = in.readUTF();
+        boolean hasMore = in.readBoolean();
+        return new SyncTransport.PullResult(cursor, hasMore, readChanges(in));
+    }
+
+    private static DataOutputStream openCompressed(ByteArrayOutputStream bytes)
+            throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)));
+    }
+
+    private static DataInputStream openFormat(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        int format = in.readInt();
+        if (format != FORMAT_VERSION) {
+            throw new IOException("Unsupported sync format " + format);
+        }
+        return in;
+    }
+
+    private static void writeChanges(DataOutputStream out, List<SyncChange> changes)
+            throws IOException {
+        out.writeInt(changes.size());
+        for (SyncChange change : changes) {
+            out.writeUTF(change.syncId);
+            out.writeLong(change.remoteVersion);
+            out.writeBoolean(change.deleted);
+            if (!change.deleted) {
+                writeNullableString(out, change.name);
+                out.writeDouble(change.price);
+                out.writeInt(change.quantity);
+                writeNullableString(out, change.supplierName);
+                writeNullableString(out, change.supplierNumber);
+                writeNullableString(out, change.isbn);
+            }
+        }
+    }
+
+    private static List<SyncChange> readChanges(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<SyncChange> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String syncId = in.readUTF();
+            long remoteVersion = in.readLong();
+            boolean deleted = in.readBoolean();
+            if (deleted) {
+                changes.add(SyncChange.remote(syncId, true, remoteVersion,
+                        null, 0, 0, null, null, null));
+            } else {
+                String name = readNullableString(in);
+                double price = in.readDouble();
+                int quantity = in.readInt();
+                String supplierName = readNullableString(in);
+                String supplierNumber = readNullableString(in);
+                String isbn = readNullableString(in);
+                changes.add(SyncChange.remote(syncId, false, remoteVersion,
+                        name, price, quantity, supplierName, supplierNumber, isbn));
+            }
+        }
+        return changes;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.inventoryapp.sync;
+
+import java.util.List;
+
+/**
+ * Local side of a sync: reads local changes, applies changes from head office and keeps the
+ * cursors that let an interrupted sync resume where it stopped.
+ */
+public interface SyncStore {
+
+    /** Returns the local version of the last local change pushed. */
+    long getPushCursor();
+
+    /** Returns the local book ID of the last local change pushed. */
+    long getPushCursorId();
+
+    /**
+     * Record that local changes up to the one with the given version and book ID have been
+     * pushed. Many changes can share a version, so the ID is needed to resume inside them.
+     */
+    void setPushCursor(long version, long id);
+
+    /** Returns the head office cursor up to which changes have been pulled, or null. */
+    String getPullCursor();
+
+    /** Record that changes up to the given head office cursor have been applied. */
+    void setPullCursor(String cursor);
+
+    /**
+     * Read up to {@code limit} local changes after the one with the given version and book ID,
+     * in order of version then ID. Changes that are already synced are included, so the push
+     * cursor can move past them, but are not {@link SyncChange#pending}.
+     */
+    List<SyncChange> readLocalChanges(long sinceVersion, long sinceId, int limit);
+
+    /**
+     * Record the head office versions assigned to pushed changes.
+     *
+     * @param pushed         the changes that were pushed
+     * @param remoteVersions for each change, the new head office version, or a negative value if
+     *                       head office rejected it because its own version had moved on
+     */
+    void acknowledge(List<SyncChange> pushed, long[] remoteVersions);
+
+    /**
+     * Apply changes pulled from head office in a single transaction. Changes that are not newer
+     * than the local book are skipped, so a chunk can safely be applied twice.
+     */
+    void applyRemoteChanges(List<SyncChange> changes);
+}
@@ -0,0 +1,47 @@
+package com.example.android.inventoryapp.sync;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Remote side of a sync: exchanges batches of changes with head office.
+ */
+public interface SyncTransport {
+
+    /**
+     * Push a batch of local changes.
+     *
+     * @return for each change, the new head office version, or a negative value if it was
+     *         rejected because head office has a newer version of the book.
+     */
+    long[] push(List<SyncChange> changes) throws IOException;
+
+    /**
+     * Pull the next batch of changes after the given cursor.
+     *
+     * @param cursor cursor returned by the previous pull, or null to start from the beginning
+     * @param limit  maximum number of changes to return
+     */
+    PullResult pull(String cursor, int limit) throws IOException;
+
+    /**
+     * A batch of changes pulled from head office.
+     */
+    final class PullResult {
+
+        /** Cursor to pass to the next pull */
+        public final String cursor;
+
+        /** Whether more changes are waiting after this batch */
+        public final boolean hasMore;
+
+        /** The changes, in head office order */
+        public final List<SyncChange> changes;
+
+        public PullResult(String cursor, boolean hasMore, List<SyncChange> changes) {
+            this.cursor = cursor;
+            this.hasMore = hasMore;
+            this.changes = changes;
+        }
+    }
+}
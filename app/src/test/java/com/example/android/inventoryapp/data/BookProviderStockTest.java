@@ -0,0 +1,132 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookContract.StockEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of how {@link BookProvider} spreads a new total quantity of a book, and sales of the
+ * total, over its locations.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BookProviderStockTest {
+
+    private BookProvider mProvider;
+
+    private long mBookId;
+
+    private long mOtherLocationId;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class,
+                BookContract.CONTENT_AUTHORITY);
+
+        ContentValues book = new ContentValues();
+        book.put(BookEntry.COLUMN_BOOK_NAME, "Stocked book");
+        book.put(BookEntry.COLUMN_BOOK_PRICE, 10.0);
+        book.put(BookEntry.COLUMN_BOOK_QUANTITY, 0);
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER, "5550100000");
+        mBookId = ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, book));
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_NAME, "Annex");
+        mOtherLocationId = ContentUris.parseId(
+                mProvider.insert(LocationEntry.CONTENT_URI, location));
+    }
+
+    @Test
+    public void decreaseBeyondDefaultStockTakesFromOtherLocations() {
+        setStock(mOtherLocationId, 5);
+        assertEquals(5, queryQuantity());
+
+        setQuantity(3);
+
+        assertEquals(3, queryQuantity());
+        assertEquals(0, queryStock(LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals(3, queryStock(mOtherLocationId));
+    }
+
+    @Test
+    public void decreaseTakesFromDefaultLocationFirst() {
+        setStock(LocationEntry.DEFAULT_LOCATION_ID, 2);
+        setStock(mOtherLocationId, 5);
+
+        setQuantity(4);
+
+        assertEquals(0, queryStock(LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals(4, queryStock(mOtherLocationId));
+    }
+
+    @Test
+    public void increaseIsAddedToDefaultLocation() {
+        setStock(mOtherLocationId, 5);
+
+        setQuantity(8);
+
+        assertEquals(8, queryQuantity());
+        assertEquals(3, queryStock(LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals(5, queryStock(mOtherLocationId));
+    }
+
+    @Test
+    public void saleOfTheTotalSellsWhereThereIsStock() {
+        setStock(mOtherLocationId, 5);
+
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.SELL_UNITS, 2);
+        assertEquals(1, mProvider.update(BookEntry.buildSellUri(mBookId), values, null, null));
+
+        assertEquals(3, queryQuantity());
+        assertEquals(0, queryStock(LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals(3, queryStock(mOtherLocationId));
+    }
+
+    private void setStock(long locationId, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.COLUMN_QUANTITY, quantity);
+        assertEquals(1, mProvider.update(LocationEntry.buildStockUri(locationId, mBookId), values,
+                null, null));
+    }
+
+    private void setQuantity(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(BookEntry.CONTENT_URI, mBookId),
+                values, null, null));
+    }
+
+    private long queryQuantity() {
+        return queryLong(ContentUris.withAppendedId(BookEntry.CONTENT_URI, mBookId));
+    }
+
+    private long queryStock(long locationId) {
+        return queryLong(LocationEntry.buildStockUri(locationId, mBookId));
+    }
+
+    private long queryLong(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[] { BookEntry.COLUMN_BOOK_QUANTITY },
+                null, null, null);
+        try {
+            assertTrue("No row for " + uri, cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
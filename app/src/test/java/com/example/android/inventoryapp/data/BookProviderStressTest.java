@@ -0,0 +1,334 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.BulkEditCall;
+import com.example.android.inventoryapp.data.BookContract.CheckoutCall;
+import com.example.android.inventoryapp.data.BookContract.LocationEntry;
+import com.example.android.inventoryapp.data.BookContract.SaleEntry;
+import com.example.android.inventoryapp.data.BookContract.StockEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress tests of {@link BookProvider} under concurrent writers. Worker threads sell, check out,
+ * restock and edit a small set of hot books at the same time, and every change to the stock
+ * must be accounted for afterwards: the quantity of each book is its starting stock plus the sum
+ * of the changes that succeeded, and it matches its stock row and its recorded sales. Edits of
+ * the quantity are made the way the editor makes them, only if the book is still at the version
+ * they were read at.
+ *
+ * <p>The throughput and the 99th percentile latency of each thread count are printed, which
+ * gives a scaling curve of the write path.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BookProviderStressTest {
+
+    /** Number of books all threads write to */
+    private static final int HOT_BOOKS = 4;
+
+    /** Stock of each book at the start, enough that the unlimited runs never sell out */
+    private static final int STARTING_STOCK = 1000000;
+
+    /** Operations run by each thread */
+    private static final int OPERATIONS_PER_THREAD = 200;
+
+    /** Thread counts of the scaling curve */
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+    private BookProvider mProvider;
+
+    /** Wall time of the last run of {@link #runWorkers} */
+    private long mElapsedNanos;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class,
+                BookContract.CONTENT_AUTHORITY);
+    }
+
+    @Test
+    public void concurrentWritesLoseNoStockUpdates() throws Exception {
+        long[] bookIds = insertBooks(STARTING_STOCK);
+        for (int threads : THREAD_COUNTS) {
+            long[] before = new long[bookIds.length];
+            long[] soldBefore = new long[bookIds.length];
+            for (int i = 0; i < bookIds.length; i++) {
+                before[i] = queryQuantity(bookIds[i]);
+                soldBefore[i] = querySoldUnits(bookIds[i]);
+            }
+
+            AtomicLongArray deltas = new AtomicLongArray(bookIds.length);
+            AtomicLongArray sold = new AtomicLongArray(bookIds.length);
+            long[] latencies = runWorkers(threads, bookIds, deltas, sold);
+
+            for (int i = 0; i < bookIds.length; i++) {
+                long expected = before[i] + deltas.get(i);
+                assertEquals("Quantity of book " + i + " with " + threads + " threads",
+                        expected, queryQuantity(bookIds[i]));
+                assertEquals("Stock of book " + i + " with " + threads + " threads",
+                        expected, queryStock(bookIds[i]));
+                assertEquals("Sales of book " + i + " with " + threads + " threads",
+                        soldBefore[i] + sold.get(i), querySoldUnits(bookIds[i]));
+            }
+            report(threads, latencies);
+        }
+    }
+
+    @Test
+    public void concurrentSalesNeverOversell() throws Exception {
+        final int stock = 100;
+        final long bookId = insertBooks(stock)[0];
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        // Every thread tries to sell more than its share.
+                        int soldCopies = 0;
+                        for (int i = 0; i < stock / 2; i++) {
+                            soldCopies += sell(bookId, 1);
+                        }
+                        return soldCopies;
+                    }
+                }));
+            }
+            start.countDown();
+
+            int soldCopies = 0;
+            for (Future<Integer> result : results) {
+                soldCopies += result.get(1, TimeUnit.MINUTES);
+            }
+            assertEquals(stock, soldCopies);
+            assertEquals(0, queryQuantity(bookId));
+            assertEquals(0, queryStock(bookId));
+            assertEquals(stock, querySoldUnits(bookId));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run the given number of threads over the hot books, adding the changes that succeeded to
+     * the deltas and the sold copies. Returns the latency of every operation in nanoseconds.
+     */
+    private long[] runWorkers(int threads, final long[] bookIds, final AtomicLongArray deltas,
+                              final AtomicLongArray sold) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final long seed = threads * 1000L + t;
+                results.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws Exception {
+                        start.await();
+                        Random random = new Random(seed);
+                        long[] latencies = new long[OPERATIONS_PER_THREAD];
+                        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                            long begin = System.nanoTime();
+                            runOperation(random, bookIds, deltas, sold);
+                            latencies[i] = System.nanoTime() - begin;
+                        }
+                        return latencies;
+                    }
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+
+            long[] latencies = new long[threads * OPERATIONS_PER_THREAD];
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(results.get(t).get(5, TimeUnit.MINUTES), 0, latencies,
+                        t * OPERATIONS_PER_THREAD, OPERATIONS_PER_THREAD);
+            }
+            mElapsedNanos = System.nanoTime() - begin;
+            return latencies;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run one random operation on the hot books: a sale, a checkout of two books, a restock, an
+     * edit of the quantity or an edit that doesn't change the stock.
+     */
+    private void runOperation(Random random, long[] bookIds, AtomicLongArray deltas,
+                              AtomicLongArray sold) {
+        int book = random.nextInt(bookIds.length);
+        int units = 1 + random.nextInt(3);
+        switch (random.nextInt(5)) {
+            case 0:
+                if (sell(bookIds[book], units) == 1) {
+                    deltas.addAndGet(book, -units);
+                    sold.addAndGet(book, units);
+                }
+                break;
+            case 1:
+                int other = (book + 1) % bookIds.length;
+                if (checkout(new long[] { bookIds[book], bookIds[other] },
+                        new int[] { units, 1 })) {
+                    deltas.addAndGet(book, -units);
+                    sold.addAndGet(book, units);
+                    deltas.addAndGet(other, -1);
+                    sold.addAndGet(other, 1);
+                }
+                break;
+            case 2:
+                restock(bookIds[book], units);
+                deltas.addAndGet(book, units);
+                break;
+            case 3:
+                // Only counted if no other write came between the read and the edit.
+                int change = random.nextBoolean() ? units : -units;
+                if (editQuantity(bookIds[book], change)) {
+                    deltas.addAndGet(book, change);
+                }
+                break;
+            default:
+                // An edit that doesn't touch the quantity must not write back a stale one.
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_PRICE, 1 + random.nextInt(5000) / 100.0);
+                assertEquals(1, mProvider.update(
+                        ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookIds[book]),
+                        values, null, null));
+                break;
+        }
+    }
+
+    private int sell(long bookId, int units) {
+        ContentValues values = new ContentValues();
+        values.put(StockEntry.SELL_UNITS, units);
+        return mProvider.update(BookEntry.buildSellUri(bookId), values, null, null);
+    }
+
+    /**
+     * Read the quantity of a book and set it to that plus the given change, only if the book is
+     * still at the version it was read at. Returns whether the edit was applied.
+     */
+    private boolean editQuantity(long bookId, int change) {
+        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId);
+        long quantity;
+        long version;
+        Cursor cursor = mProvider.query(bookUri, new String[] {
+                BookEntry.COLUMN_BOOK_QUANTITY, BookEntry.COLUMN_BOOK_VERSION }, null, null, null);
+        try {
+            assertTrue("No row for " + bookUri, cursor.moveToFirst());
+            quantity = cursor.getLong(0);
+            version = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, (int) (quantity + change));
+        return mProvider.update(BookEntry.buildExpectedVersionUri(bookUri, version), values,
+                null, null) == 1;
+    }
+
+    private boolean checkout(long[] bookIds, int[] units) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(CheckoutCall.KEY_BOOK_IDS, bookIds);
+        extras.putIntArray(CheckoutCall.KEY_UNITS, units);
+        Bundle result = mProvider.call(CheckoutCall.METHOD_CHECKOUT, null, extras);
+        return result.getBoolean(CheckoutCall.KEY_COMPLETED);
+    }
+
+    private void restock(long bookId, int units) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(BulkEditCall.KEY_BOOK_IDS, new long[] { bookId });
+        extras.putInt(BulkEditCall.KEY_RESTOCK_UNITS, units);
+        Bundle result = mProvider.call(BulkEditCall.METHOD_BULK_EDIT, null, extras);
+        assertEquals(1, result.getInt(BulkEditCall.KEY_COUNT));
+    }
+
+    private long[] insertBooks(int quantity) {
+        long[] bookIds = new long[HOT_BOOKS];
+        for (int i = 0; i < bookIds.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_NAME, "Hot book " + i);
+            values.put(BookEntry.COLUMN_BOOK_PRICE, 10.0);
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER, "5550100000");
+            bookIds[i] = ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, values));
+        }
+        return bookIds;
+    }
+
+    private long queryQuantity(long bookId) {
+        return queryLong(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                BookEntry.COLUMN_BOOK_QUANTITY, null, null);
+    }
+
+    private long queryStock(long bookId) {
+        return queryLong(LocationEntry.buildStockUri(LocationEntry.DEFAULT_LOCATION_ID, bookId),
+                BookEntry.COLUMN_BOOK_QUANTITY, null, null);
+    }
+
+    private long querySoldUnits(long bookId) {
+        Cursor cursor = mProvider.query(SaleEntry.CONTENT_URI,
+                new String[] { "TOTAL(" + SaleEntry.COLUMN_UNITS + ")" },
+                SaleEntry.COLUMN_BOOK_ID + " = ?", new String[] { String.valueOf(bookId) }, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLong(Uri uri, String column, String selection,
+                           String[] selectionArgs) {
+        Cursor cursor = mProvider.query(uri, new String[] { column }, selection, selectionArgs,
+                null);
+        try {
+            assertTrue("No row for " + uri, cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void report(int threads, long[] latencies) {
+        Arrays.sort(latencies);
+        long p99 = latencies[(int) Math.ceil(latencies.length * 0.99) - 1];
+        double seconds = mElapsedNanos / 1e9;
+        System.out.println(String.format(Locale.US,
+                "BookProvider stress: %d threads, %d operations, %.0f ops/s, p50 %.2f ms,"
+                        + " p99 %.2f ms",
+                threads, latencies.length, latencies.length / seconds,
+                latencies[latencies.length / 2] / 1e6, p99 / 1e6));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link CatalogGenerator} on in-memory databases with the schema of the app.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogGeneratorTest {
+
+    private static final int COUNT = 500;
+
+    private static final long SEED = 42L;
+
+    private SQLiteDatabase mFirst;
+
+    private SQLiteDatabase mSecond;
+
+    @Before
+    public void setUp() {
+        mFirst = createDatabase();
+        mSecond = createDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mFirst.close();
+        mSecond.close();
+    }
+
+    @Test
+    public void sameSeedGivesSameCatalog() {
+        assertEquals(COUNT, generate(mFirst, SEED, COUNT));
+        assertEquals(COUNT, generate(mSecond, SEED, COUNT));
+
+        List<String> first = readCatalog(mFirst);
+        assertEquals(COUNT, first.size());
+        assertEquals(first, readCatalog(mSecond));
+        assertEquals(COUNT, DatabaseUtils.queryNumEntries(mFirst, StockEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void differentSeedGivesDifferentCatalog() {
+        generate(mFirst, SEED, COUNT);
+        generate(mSecond, SEED + 1, COUNT);
+
+        assertNotEquals(readCatalog(mFirst), readCatalog(mSecond));
+    }
+
+    @Test
+    public void deletedBookIdsAreNotReused() {
+        assertEquals(COUNT, generate(mFirst, SEED, COUNT));
+        long lastId = DatabaseUtils.longForQuery(mFirst,
+                "SELECT MAX(" + BookEntry._ID + ") FROM " + BookEntry.TABLE_NAME, null);
+        mFirst.delete(BookEntry.TABLE_NAME, BookEntry._ID + " = ?",
+                new String[] { String.valueOf(lastId) });
+
+        assertEquals(1, generate(mFirst, SEED, 1));
+        long nextId = DatabaseUtils.longForQuery(mFirst,
+                "SELECT MAX(" + BookEntry._ID + ") FROM " + BookEntry.TABLE_NAME, null);
+        assertTrue("Reused ID " + nextId, nextId > lastId);
+        assertEquals(COUNT, DatabaseUtils.queryNumEntries(mFirst, BookEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void sequenceBehindTheTableDoesNotDropBooks() {
+        assertEquals(COUNT, generate(mFirst, SEED, COUNT));
+        mFirst.execSQL("UPDATE sqlite_sequence SET seq = 1 WHERE name = ?",
+                new Object[] { BookEntry.TABLE_NAME });
+
+        assertEquals(10, generate(mFirst, SEED, 10));
+        assertEquals(COUNT + 10, DatabaseUtils.queryNumEntries(mFirst, BookEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void takenIsbnIsLeftOut() {
+        assertEquals(COUNT, generate(mFirst, SEED, COUNT));
+        long lastId = DatabaseUtils.longForQuery(mFirst,
+                "SELECT MAX(" + BookEntry._ID + ") FROM " + BookEntry.TABLE_NAME, null);
+        // A book entered by hand, taking the ISBN of the book generated after it.
+        mFirst.execSQL("INSERT INTO " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_ISBN + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER
+                + ") VALUES ('By hand', ?, 1, 'Supplier', '5550100000')",
+                new Object[] { CatalogGenerator.isbnFor(lastId + 2) });
+
+        assertEquals(1, generate(mFirst, SEED, 1));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mFirst, BookEntry.TABLE_NAME,
+                BookEntry._ID + " = ? AND " + BookEntry.COLUMN_BOOK_ISBN + " IS NULL",
+                new String[] { String.valueOf(lastId + 2) }));
+    }
+
+    private static SQLiteDatabase createDatabase() {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        new BookDbHelper(RuntimeEnvironment.application).onCreate(database);
+        return database;
+    }
+
+    private static int generate(SQLiteDatabase database, long seed, int count) {
+        database.beginTransaction();
+        try {
+            int inserted = new CatalogGenerator(seed).insert(database, count, 1);
+            database.setTransactionSuccessful();
+            return inserted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the generated values of every book, in the order of their IDs. The sync IDs are
+     * random and left out.
+     */
+    private static List<String> readCatalog(SQLiteDatabase database) {
+        Cursor cursor = database.query(BookEntry.TABLE_NAME, new String[] {
+                BookEntry._ID,
+                BookEntry.COLUMN_BOOK_NAME,
+                BookEntry.COLUMN_BOOK_ISBN,
+                BookEntry.COLUMN_BOOK_PRICE,
+                BookEntry.COLUMN_BOOK_QUANTITY,
+                BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+                BookEntry.COLUMN_BOOK_SUPPLIER_NUMBER }, null, null, null, null, BookEntry._ID);
+        try {
+            List<String> rows = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(cursor.getString(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.inventoryapp.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.BookContract;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ProviderSyncStore} against the real book provider, applying head office changes
+ * the way {@link SyncClient} does.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ProviderSyncStoreTest {
+
+    private BookProvider mProvider;
+    private ProviderSyncStore mStore;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(BookProvider.class,
+                BookContract.CONTENT_AUTHORITY);
+        mStore = new ProviderSyncStore(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void newerRemoteChangeWins() {
+        apply(remote("a", 1, "First title", 3));
+        long bookId = queryBookId("a");
+        editName(bookId, "Local title");
+
+        apply(remote("a", 2, "Remote title", 4));
+
+        assertEquals("Remote title", queryName("a"));
+        assertEquals(bookId, queryBookId("a"));
+        assertFalse(findLocalChange("a").pending);
+    }
+
+    @Test
+    public void localBookWinsOverSameOrOlderRemoteChange() {
+        apply(remote("a", 2, "First title", 3));
+        editName(queryBookId("a"), "Local title");
+
+        apply(remote("a", 2, "Replayed title", 3), remote("a", 1, "Stale title", 3));
+
+        assertEquals("Local title", queryName("a"));
+        assertTrue(findLocalChange("a").pending);
+    }
+
+    @Test
+    public void remoteDeletionLeavesSyncedTombstone() {
+        apply(remote("a", 1, "Title", 3));
+        long bookId = queryBookId("a");
+
+        apply(SyncChange.remote("a", true, 2, null, 0, 0, null, null, null));
+
+        assertEquals(0, countBooks("a"));
+        SyncChange tombstone = findLocalChange("a");
+        assertTrue(tombstone.deleted);
+        assertEquals(bookId, tombstone.localId);
+        assertEquals(2, tombstone.remoteVersion);
+        assertFalse(tombstone.pending);
+
+        // A replay of the change made before the deletion doesn't bring the book back.
+        apply(remote("a", 1, "Title", 3));
+        assertEquals(0, countBooks("a"));
+    }
+
+    @Test
+    public void staleRemoteChangeDoesNotRestoreLocallyDeletedBook() {
+        apply(remote("a", 3, "Title", 3));
+        assertEquals(1, mProvider.delete(
+                ContentUris.withAppendedId(BookEntry.CONTENT_URI, queryBookId("a")), null, null));
+
+        apply(remote("a", 2, "Older title", 3), remote("a", 3, "Same title", 3));
+
+        assertEquals(0, countBooks("a"));
+        assertTrue(findLocalChange("a").pending);
+    }
+
+    @Test
+    public void invalidRemoteChangeIsSkippedAndPullCursorMoves() throws Exception {
+        SyncChange invalid = SyncChange.remote("bad", false, 2, "Bad book", -1.0, 3,
+                "Supplier", "5550100000", null);
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setHeader("Content-Encoding", "gzip").setBody(
+                new Buffer().write(SyncProtocol.encodePullResponse(new SyncTransport.PullResult(
+                        "after-bad", false, Arrays.asList(
+                                remote("a", 1, "Before", 3), invalid,
+                                remote("b", 3, "After", 3)))))));
+        server.start();
+        try {
+            SyncClient client = new SyncClient(mStore,
+                    new HttpSyncTransport(server.url("/sync").toString()));
+
+            assertEquals(3, client.sync().pulled);
+        } finally {
+            server.shutdown();
+        }
+
+        assertEquals("after-bad", mStore.getPullCursor());
+        assertEquals("Before", queryName("a"));
+        assertEquals("After", queryName("b"));
+        assertEquals(0, countBooks("bad"));
+    }
+
+    private void apply(SyncChange... changes) {
+        mStore.applyRemoteChanges(Arrays.asList(changes));
+    }
+
+    private static SyncChange remote(String syncId, long remoteVersion, String name,
+                                     int quantity) {
+        return SyncChange.remote(syncId, false, remoteVersion, name, 12.99, quantity,
+                "Supplier", "5550100000", null);
+    }
+
+    private void editName(long bookId, String name) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, name);
+        Uri uri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId);
+        assertEquals(1, mProvider.update(uri, values, null, null));
+    }
+
+    /**
+     * Returns the change of the changes feed with the given sync ID, failing if there is none.
+     */
+    private SyncChange findLocalChange(String syncId) {
+        List<SyncChange> changes = mStore.readLocalChanges(0, 0, 100);
+        for (SyncChange change : changes) {
+            if (syncId.equals(change.syncId)) {
+                return change;
+            }
+        }
+        throw new AssertionError("No change of " + syncId + " in " + changes);
+    }
+
+    private long queryBookId(String syncId) {
+        Cursor cursor = queryBook(syncId, BookEntry._ID);
+        try {
+            assertTrue("No book " + syncId, cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String queryName(String syncId) {
+        Cursor cursor = queryBook(syncId, BookEntry.COLUMN_BOOK_NAME);
+        try {
+            assertTrue("No book " + syncId, cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countBooks(String syncId) {
+        Cursor cursor = queryBook(syncId, BookEntry._ID);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor queryBook(String syncId, String column) {
+        return mProvider.query(BookEntry.CONTENT_URI, new String[] { column },
+                BookEntry.COLUMN_BOOK_SYNC_ID + " = ?", new String[] { syncId }, null);
+    }
+}
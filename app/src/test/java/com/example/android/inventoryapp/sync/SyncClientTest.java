@@ -0,0 +1,293 @@
+package com.example.android.inventoryapp.sync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link SyncClient} and {@link HttpSyncTransport} against a mock head office server.
+ */
+public class SyncClientTest {
+
+    private MockWebServer mServer;
+    private FakeSyncStore mStore;
+    private SyncClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mStore = new FakeSyncStore();
+        mClient = new SyncClient(mStore, new HttpSyncTransport(mServer.url("/sync").toString()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void pushesOnlyPendingChangesCompressed() throws Exception {
+        mStore.local.add(localChange("a", 1, true));
+        mStore.local.add(localChange("b", 2, false));
+        mStore.local.add(localChange("c", 3, true));
+        mServer.enqueue(pushResponse(10, -1));
+        mServer.enqueue(pullResponse("end", false));
+
+        SyncClient.Result result = mClient.sync();
+
+        RecordedRequest push = mServer.takeRequest();
+        assertEquals("POST", push.getMethod());
+        assertEquals("/sync/push", push.getPath());
+        assertEquals("gzip", push.getHeader("Content-Encoding"));
+        List<SyncChange> pushed = SyncProtocol.decodePush(
+                new GZIPInputStream(new ByteArrayInputStream(push.getBody().readByteArray())));
+        assertEquals(2, pushed.size());
+        assertEquals("a", pushed.get(0).syncId);
+        assertEquals("c", pushed.get(1).syncId);
+
+        assertEquals(1, result.pushed);
+        assertEquals(1, result.rejected);
+        assertEquals(Arrays.asList("a"), mStore.acknowledged);
+        assertEquals(3, mStore.pushCursor);
+    }
+
+    @Test
+    public void pushesInBatches() throws Exception {
+        int count = SyncClient.PUSH_BATCH_SIZE + 1;
+        for (int i = 1; i <= count; i++) {
+            mStore.local.add(localChange("book" + i, i, true));
+        }
+        mServer.enqueue(pushResponse(new long[SyncClient.PUSH_BATCH_SIZE]));
+        mServer.enqueue(pushResponse(0));
+        mServer.enqueue(pullResponse("end", false));
+
+        SyncClient.Result result = mClient.sync();
+
+        assertEquals(count, result.pushed);
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(count, mStore.pushCursor);
+    }
+
+    @Test
+    public void pushesBatchesEndingInsideASharedVersion() throws Exception {
+        // A bulk edit gives every book it changes the same version.
+        int count = SyncClient.PUSH_BATCH_SIZE * 2;
+        for (int i = 1; i <= count; i++) {
+            mStore.local.add(localChange("book" + i, 7, i, true));
+        }
+        mServer.enqueue(pushResponse(new long[SyncClient.PUSH_BATCH_SIZE]));
+        mServer.enqueue(pushResponse(new long[SyncClient.PUSH_BATCH_SIZE]));
+        mServer.enqueue(pullResponse("end", false));
+
+        SyncClient.Result result = mClient.sync();
+
+        assertEquals(count, result.pushed);
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(count, mStore.acknowledged.size());
+        assertEquals("book" + (SyncClient.PUSH_BATCH_SIZE + 1), mStore.acknowledged.get(
+                SyncClient.PUSH_BATCH_SIZE));
+        assertEquals(7, mStore.pushCursor);
+        assertEquals(count, mStore.pushCursorId);
+    }
+
+    @Test
+    public void skipsPushWithoutPendingChanges() throws Exception {
+        mStore.local.add(localChange("a", 1, false));
+        mServer.enqueue(pullResponse("end", false));
+
+        mClient.sync();
+
+        assertEquals("GET", mServer.takeRequest().getMethod());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, mStore.pushCursor);
+    }
+
+    @Test
+    public void pullsUntilDoneAndAppliesInChunks() throws Exception {
+        int count = SyncClient.APPLY_CHUNK_SIZE * 2 + 1;
+        mServer.enqueue(pullResponse("first", true, remoteChanges(count)));
+        mServer.enqueue(pullResponse("second", false, remoteChanges(1)));
+
+        SyncClient.Result result = mClient.sync();
+
+        RecordedRequest first = mServer.takeRequest();
+        assertTrue(first.getPath().startsWith("/sync/pull?"));
+        assertFalse(first.getPath().contains("cursor="));
+        assertTrue(mServer.takeRequest().getPath().contains("cursor=first"));
+
+        assertEquals(count + 1, result.pulled);
+        assertEquals(Arrays.asList(SyncClient.APPLY_CHUNK_SIZE, SyncClient.APPLY_CHUNK_SIZE, 1, 1),
+                mStore.appliedChunkSizes);
+        assertEquals("second", mStore.pullCursor);
+    }
+
+    @Test
+    public void resumesPullFromSavedCursor() throws Exception {
+        mServer.enqueue(pullResponse("first", true, remoteChanges(1)));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+
+        try {
+            mClient.sync();
+            fail("Expected the second pull to fail");
+        } catch (IOException expected) {
+        }
+        assertEquals("first", mStore.pullCursor);
+
+        mServer.enqueue(pullResponse("second", false));
+        new SyncClient(mStore, new HttpSyncTransport(mServer.url("/sync").toString())).sync();
+
+        mServer.takeRequest();
+        mServer.takeRequest();
+        assertTrue(mServer.takeRequest().getPath().contains("cursor=first"));
+        assertEquals("second", mStore.pullCursor);
+    }
+
+    @Test
+    public void roundTripsDeletionsAndNulls() throws Exception {
+        List<SyncChange> changes = Arrays.asList(
+                SyncChange.remote("a", true, 4, null, 0, 0, null, null, null),
+                SyncChange.remote("b", false, 5, "Title", 9.5, 3, null, "555", null));
+        mServer.enqueue(pullResponse("end", false, changes));
+
+        mClient.sync();
+
+        SyncChange deleted = mStore.applied.get(0);
+        assertTrue(deleted.deleted);
+        assertEquals(4, deleted.remoteVersion);
+        SyncChange book = mStore.applied.get(1);
+        assertEquals("Title", book.name);
+        assertEquals(9.5, book.price, 0);
+        assertEquals(3, book.quantity);
+        assertNull(book.supplierName);
+        assertEquals("555", book.supplierNumber);
+        assertNull(book.isbn);
+    }
+
+    private static SyncChange localChange(String syncId, long version, boolean pending) {
+        return localChange(syncId, version, version, pending);
+    }
+
+    private static SyncChange localChange(String syncId, long version, long id,
+                                          boolean pending) {
+        return new SyncChange(syncId, false, 0, version, id, pending, "Book " + syncId, 1.0, 1,
+                "Supplier", "555", null);
+    }
+
+    private static List<SyncChange> remoteChanges(int count) {
+        List<SyncChange> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            changes.add(SyncChange.remote("remote" + i, false, i + 1, "Remote " + i, 2.0, 5,
+                    "Supplier", "555", null));
+        }
+        return changes;
+    }
+
+    private static MockResponse pushResponse(long... remoteVersions) throws IOException {
+        return compressed(SyncProtocol.encodePushResponse(remoteVersions));
+    }
+
+    private static MockResponse pullResponse(String cursor, boolean hasMore) throws IOException {
+        return pullResponse(cursor, hasMore, Collections.<SyncChange>emptyList());
+    }
+
+    private static MockResponse pullResponse(String cursor, boolean hasMore,
+                                             List<SyncChange> changes) throws IOException {
+        return compressed(SyncProtocol.encodePullResponse(
+                new SyncTransport.PullResult(cursor, hasMore, changes)));
+    }
+
+    private static MockResponse compressed(byte[] body) {
+        return new MockResponse()
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(body));
+    }
+
+    /**
+     * In-memory {@link SyncStore} recording what the client does with it.
+     */
+    private static class FakeSyncStore implements SyncStore {
+
+        final List<SyncChange> local = new ArrayList<>();
+        final List<String> acknowledged = new ArrayList<>();
+        final List<SyncChange> applied = new ArrayList<>();
+        final List<Integer> appliedChunkSizes = new ArrayList<>();
+        long pushCursor;
+        long pushCursorId;
+        String pullCursor;
+
+        @Override
+        public long getPushCursor() {
+            return pushCursor;
+        }
+
+        @Override
+        public long getPushCursorId() {
+            return pushCursorId;
+        }
+
+        @Override
+        public void setPushCursor(long version, long id) {
+            pushCursor = version;
+            pushCursorId = id;
+        }
+
+        @Override
+        public String getPullCursor() {
+            return pullCursor;
+        }
+
+        @Override
+        public void setPullCursor(String cursor) {
+            pullCursor = cursor;
+        }
+
+        @Override
+        public List<SyncChange> readLocalChanges(long sinceVersion, long sinceId, int limit) {
+            // The local changes are added in the order of the changes feed.
+            List<SyncChange> changes = new ArrayList<>();
+            for (SyncChange change : local) {
+                boolean after = change.localVersion > sinceVersion
+                        || (change.localVersion == sinceVersion && change.localId > sinceId);
+                if (after && changes.size() < limit) {
+                    changes.add(change);
+                }
+            }
+            return changes;
+        }
+
+        @Override
+        public void acknowledge(List<SyncChange> pushed, long[] remoteVersions) {
+            for (int i = 0; i < pushed.size(); i++) {
+                if (remoteVersions[i] >= 0) {
+                    acknowledged.add(pushed.get(i).syncId);
+                }
+            }
+        }
+
+        @Override
+        public void applyRemoteChanges(List<SyncChange> changes) {
+            applied.addAll(changes);
+            appliedChunkSizes.add(changes.size());
+        }
+    }
+}